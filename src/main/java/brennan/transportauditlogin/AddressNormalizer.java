@@ -0,0 +1,68 @@
+package brennan.transportauditlogin;
+
+import java.util.Locale;
+import java.util.Map;
+
+// Turns the different ways people type the same address into one canonical string,
+// so "123 Main Street." and "123  main st" become the same cache key.
+public class AddressNormalizer {
+
+    // Common USPS style abbreviations. I only map words to their short form, never the other way.
+    private static final Map<String, String> ABBREVIATIONS = Map.ofEntries(
+            Map.entry("street", "st"), Map.entry("str", "st"),
+            Map.entry("avenue", "ave"), Map.entry("av", "ave"),
+            Map.entry("road", "rd"),
+            Map.entry("boulevard", "blvd"),
+            Map.entry("drive", "dr"),
+            Map.entry("lane", "ln"),
+            Map.entry("court", "ct"),
+            Map.entry("place", "pl"),
+            Map.entry("highway", "hwy"),
+            Map.entry("parkway", "pkwy"),
+            Map.entry("square", "sq"),
+            Map.entry("terrace", "ter"),
+            Map.entry("suite", "ste"),
+            Map.entry("apartment", "apt"),
+            Map.entry("north", "n"), Map.entry("south", "s"),
+            Map.entry("east", "e"), Map.entry("west", "w"),
+            Map.entry("northeast", "ne"), Map.entry("northwest", "nw"),
+            Map.entry("southeast", "se"), Map.entry("southwest", "sw")
+    );
+
+    public static String normalize(String address) {
+        if (address == null) {
+            return "";
+        }
+        // Lowercase, treat punctuation (except commas, which separate parts) as spaces
+        String cleaned = address.toLowerCase(Locale.ROOT)
+                .replace('#', ' ')
+                .replaceAll("[^a-z0-9,\\s-]", " ");
+
+        StringBuilder result = new StringBuilder(cleaned.length());
+        for (String part : cleaned.split(",")) {
+            String normalizedPart = normalizePart(part);
+            if (normalizedPart.isEmpty()) {
+                continue;
+            }
+            if (!result.isEmpty()) {
+                result.append(", ");
+            }
+            result.append(normalizedPart);
+        }
+        return result.toString();
+    }
+
+    private static String normalizePart(String part) {
+        StringBuilder out = new StringBuilder(part.length());
+        for (String word : part.trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (!out.isEmpty()) {
+                out.append(' ');
+            }
+            out.append(ABBREVIATIONS.getOrDefault(word, word));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package brennan.transportauditlogin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Gives every expense a 0-100 "risk" score by comparing it with what that driver normally claims.
+ * Expenses are fed in date order. Each one is scored first and then added to the statistics,
+ * so an expense is never compared against itself.
+ *
+ * The statistics for every (driver, expense type) pair are kept in a fixed-size ring buffer of
+ * the last WINDOW values, with a running sum, sum of squares and a small log-scale histogram for
+ * percentiles. Adding a value just swaps the oldest one out, so each event costs O(1) no matter
+ * how much history there is, which keeps up with bulk imports.
+ */
+public class AnomalyScorer {
+
+    public static final double REVIEW_THRESHOLD = 40;
+
+    private static final int WINDOW = 64;
+    // Below this many samples a driver's own history is too thin, so I use the fleet numbers instead
+    private static final int MIN_SAMPLES = 5;
+
+    private final Map<String, RollingStats> byDriverAndType = new HashMap<>();
+    private final Map<String, RollingStats> byType = new HashMap<>();
+
+    public void reset() {
+        byDriverAndType.clear();
+        byType.clear();
+    }
+
+    // Scores the expense (storing the result on it) and then adds it to the history
+    public double scoreAndObserve(Expense expense) {
+        score(expense);
+        observe(expense);
+        return expense.getRiskScore();
+    }
+
+    public void score(Expense expense) {
+        List<String> reasons = new ArrayList<>(4);
+        double risk = 0;
+
+        RollingStats stats = byDriverAndType.get(key(expense));
+        if (stats == null || stats.count < MIN_SAMPLES) {
+            stats = byType.get(expense.getType());
+        }
+
+        // 1. How unusual is the amount compared with this driver's (or the fleet's) recent claims?
+        if (stats != null && stats.count >= MIN_SAMPLES) {
+            double z = stats.zScore(expense.getAmount());
+            if (z > 2) {
+                risk += Math.min(1, (z - 2) / 4) * 50;
+                reasons.add(String.format(Locale.ROOT, "amount is %.1f std devs above usual", z));
+            }
+            double rank = stats.percentileRank(expense.getAmount());
+            if (rank >= 0.99) {
+                risk += 15;
+                reasons.add("amount is in the top 1%");
+            } else if (rank >= 0.95) {
+                risk += 8;
+                reasons.add("amount is in the top 5%");
+            }
+        }
+
+        // 2. Claimed miles vs. the distance the route lookup worked out
+        if (expense.getRouteMiles() > 0 && expense.getMileage() > 0) {
+            double ratio = expense.getMileage() / expense.getRouteMiles();
+            if (ratio > 1.1) {
+                risk += Math.min(1, (ratio - 1.1) / 0.5) * 35;
+                reasons.add(String.format(Locale.ROOT, "claimed %.0f%% more miles than the route", (ratio - 1) * 100));
+            }
+        }
+
+        // 3. Mileage claims charging more than the rate per mile in force on the trip's date
+        if ("Mileage".equals(expense.getType()) && expense.getMileage() > 0) {
+            double ratio = expense.getAmount() / (expense.getMileage() * RateTable.shared().mileageRate(expense.getDate()));
+            if (ratio > 1.05) {
+                risk += Math.min(1, (ratio - 1.05) / 0.5) * 20;
+                reasons.add(String.format(Locale.ROOT, "$%.2f per mile", expense.getAmount() / expense.getMileage()));
+            }
+        }
+
+        expense.setRiskScore(Math.min(100, Math.round(risk)));
+        expense.setRiskReasons(String.join("; ", reasons));
+    }
+
+    public void observe(Expense expense) {
+        byDriverAndType.computeIfAbsent(key(expense), ignored -> new RollingStats()).add(expense.getAmount());
+        byType.computeIfAbsent(expense.getType(), ignored -> new RollingStats()).add(expense.getAmount());
+    }
+
+    private static String key(Expense expense) {
+        return expense.getEmployeeName() + "|" + expense.getType();
+    }
+
+    // Statistics over the last WINDOW values, all in primitive arrays
+    static final class RollingStats {
+        // 64 log-scale buckets: bucket = 4 * log2(value + 1), so each bucket is ~19% wide up to ~$65k
+        private static final int BUCKETS = 64;
+
+        private final double[] ring = new double[WINDOW];
+        private final int[] histogram = new int[BUCKETS];
+        private int next;
+        private int count;
+        private double sum;
+        private double sumSquares;
+
+        void add(double value) {
+            if (count == WINDOW) {
+                // Window is full: forget the oldest value before writing over it
+                double oldest = ring[next];
+                sum -= oldest;
+                sumSquares -= oldest * oldest;
+                histogram[bucket(oldest)]--;
+            } else {
+                count++;
+            }
+            ring[next] = value;
+            next = (next + 1) % WINDOW;
+            sum += value;
+            sumSquares += value * value;
+            histogram[bucket(value)]++;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        double zScore(double value) {
+            double mean = mean();
+            double variance = Math.max(0, sumSquares / count - mean * mean);
+            // Floor on the spread so a driver who always claims exactly $50 doesn't flag $51
+            double std = Math.max(Math.sqrt(variance), Math.max(1.0, mean * 0.05));
+            return (value - mean) / std;
+        }
+
+        // Fraction of the window below this value (half of its own bucket counts as below)
+        double percentileRank(double value) {
+            int target = bucket(value);
+            int below = 0;
+            for (int i = 0; i < target; i++) {
+                below += histogram[i];
+            }
+            return (below + histogram[target] / 2.0) / count;
+        }
+
+        private static int bucket(double value) {
+            int b = (int) (4 * (Math.log(Math.max(0, value) + 1) / Math.log(2)));
+            return Math.min(BUCKETS - 1, Math.max(0, b));
+        }
+    }
+}
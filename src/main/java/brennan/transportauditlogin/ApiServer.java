@@ -0,0 +1,469 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.cloud.FirestoreClient;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Headless HTTP API so dispatch and telematics systems can submit and approve expenses
+ * without the JavaFX client. Started with "--server" on the Launcher.
+ * It uses the JDK's built in HTTP server with one virtual thread per request, so thousands
+ * of clients waiting on Firestore don't each tie up a real OS thread.
+ *
+ * GET  /api/expenses?employee=&date=&type=&status=&minMiles=&pageSize=&pageToken=
+ * POST /api/expenses                   {"employeeName": "...", "type": "Fuel", "amount": 12.5, "mileage": 0}
+ * GET  /api/expenses/{id}
+ * POST /api/expenses/{id}/approve       409 with the current status if it isn't pending any more
+ * POST /api/expenses/{id}/reject
+ * GET  /api/expenses/export.csv?(same filters)
+ * GET  /api/expenses/kpis?(same filters)   totals from the rollup documents
+ * GET  /api/health
+ *
+ * Responses carry an ETag (clients can send If-None-Match to get a 304) and are gzipped
+ * when the client accepts it.
+ *
+ * Every request needs an X-Api-Key header. The keys are set in .env as
+ * API_SERVER_KEYS=jane.doe:key1,dispatch:key2 and the name in front of a key is who approvals
+ * made with it are recorded as in the audit log. (A lone API_SERVER_KEY still works and is
+ * recorded as "api".) The server won't start without a key. It listens on every interface
+ * unless API_HOST names one, e.g. 127.0.0.1.
+ *
+ * Each key gets API_CALLER_RATE requests per second (default 50, bursts of twice that) and
+ * then a 429, so one busy client can't use up the process-wide Firestore read limit for the rest.
+ */
+public class ApiServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiServer.class);
+    private static final Dotenv dotenv = Dotenv.load();
+
+    private static final int BACKLOG = 4096;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    // Small responses aren't worth compressing
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final double DEFAULT_CALLER_RATE = 50;
+
+    private final ExpenseService expenses;
+    private final ExpenseRollups rollups;
+    // Who each API key belongs to, keyed by the key
+    private final Map<String, String> callers;
+    // One limiter per caller name, made on first use
+    private final Map<String, RateLimiter> callerLimits = new ConcurrentHashMap<>();
+    private final double callerRate;
+    private HttpServer server;
+
+    public ApiServer(ExpenseService expenses, ExpenseRollups rollups, Map<String, String> callers) {
+        this(expenses, rollups, callers, DEFAULT_CALLER_RATE);
+    }
+
+    public ApiServer(ExpenseService expenses, ExpenseRollups rollups, Map<String, String> callers, double callerRate) {
+        if (callers.isEmpty()) {
+            throw new IllegalArgumentException("The API server needs at least one API key");
+        }
+        this.expenses = expenses;
+        this.rollups = rollups;
+        this.callers = Map.copyOf(callers);
+        this.callerRate = callerRate;
+    }
+
+    // "name:key,name:key" from API_SERVER_KEYS, plus the older single API_SERVER_KEY as "api"
+    static Map<String, String> callersFrom(String keys, String singleKey) {
+        Map<String, String> callers = new HashMap<>();
+        if (keys != null) {
+            for (String entry : keys.split(",")) {
+                if (entry.isBlank()) {
+                    continue;
+                }
+                int colon = entry.indexOf(':');
+                String name = colon > 0 ? entry.substring(0, colon).trim() : "";
+                String key = colon > 0 ? entry.substring(colon + 1).trim() : "";
+                if (name.isEmpty() || key.isEmpty()) {
+                    throw new IllegalArgumentException("API_SERVER_KEYS entries look like name:key, got \"" + entry.trim() + "\"");
+                }
+                callers.put(key, name);
+            }
+        }
+        if (singleKey != null && !singleKey.isBlank()) {
+            callers.putIfAbsent(singleKey.trim(), "api");
+        }
+        return callers;
+    }
+
+    // Used by Launcher: reads the port from "--port=8080", then API_PORT, then defaults to 8080
+    public static void startFromCommandLine(String[] args) throws IOException {
+        int port = Integer.parseInt(dotenv.get("API_PORT", "8080"));
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+        }
+        Map<String, String> callers = callersFrom(dotenv.get("API_SERVER_KEYS"), dotenv.get("API_SERVER_KEY"));
+        if (callers.isEmpty()) {
+            // Without a key anyone who can reach the port could approve expenses in someone else's name
+            System.err.println("Set API_SERVER_KEYS (name:key,...) in .env before starting the API server");
+            System.exit(2);
+        }
+        try {
+            // Fails here, before taking requests, if a dashboard already has this data folder's log open
+            AuditLog.shared();
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getCause().getMessage());
+            System.exit(2);
+        }
+        Firestore db = FirestoreClient.getFirestore();
+        double callerRate = Double.parseDouble(dotenv.get("API_CALLER_RATE", String.valueOf(DEFAULT_CALLER_RATE)));
+        ApiServer server = new ApiServer(new ExpenseService(db), new ExpenseRollups(db), callers, callerRate);
+        server.start(dotenv.get("API_HOST"), port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "api-server-stop"));
+    }
+
+    // host may be null to listen on every interface
+    public void start(String host, int port) throws IOException {
+        InetSocketAddress address = host == null || host.isBlank() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+        server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/api/expenses", this::handleExpenses);
+        server.createContext("/api/health", exchange -> send(exchange, 200, "application/json", "{\"status\":\"ok\"}"));
+        server.start();
+        logger.info("API server listening on {}", address);
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(2);
+        }
+    }
+
+    // --- Routing ---
+
+    private void handleExpenses(HttpExchange exchange) throws IOException {
+        try {
+            String caller = callerFor(exchange.getRequestHeaders().getFirst("X-Api-Key"));
+            if (caller == null) {
+                sendError(exchange, 401, "Missing or wrong X-Api-Key");
+                return;
+            }
+            RateLimiter limit = callerLimits.computeIfAbsent(caller,
+                    ignored -> new RateLimiter(callerRate, (int) Math.max(1, callerRate * 2)));
+            if (!limit.tryAcquire()) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 429, "Too many requests for this API key");
+                return;
+            }
+
+            String method = exchange.getRequestMethod();
+            // Path parts after /api/expenses, e.g. ["abc123", "approve"]
+            String rest = exchange.getRequestURI().getPath().substring("/api/expenses".length());
+            String[] parts = rest.isEmpty() || rest.equals("/") ? new String[0] : rest.substring(1).split("/");
+
+            if (parts.length == 0 && method.equals("GET")) {
+                listExpenses(exchange);
+            } else if (parts.length == 0 && method.equals("POST")) {
+                submitExpense(exchange);
+            } else if (parts.length == 1 && parts[0].equals("export.csv") && method.equals("GET")) {
+                exportCsv(exchange);
+            } else if (parts.length == 1 && parts[0].equals("kpis") && method.equals("GET")) {
+                getKpis(exchange);
+            } else if (parts.length == 1 && method.equals("GET")) {
+                getExpense(exchange, parts[0]);
+            } else if (parts.length == 2 && method.equals("POST") && parts[1].equals("approve")) {
+                changeStatus(exchange, parts[0], "Approved", caller);
+            } else if (parts.length == 2 && method.equals("POST") && parts[1].equals("reject")) {
+                changeStatus(exchange, parts[0], "Rejected", caller);
+            } else {
+                sendError(exchange, 404, "No such endpoint");
+            }
+        } catch (IllegalArgumentException e) {
+            sendErrorIfPossible(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendErrorIfPossible(exchange, 503, "Interrupted");
+        } catch (ExecutionException e) {
+            // Firestore reads that the circuit breaker or rate limiter turned away: tell the client to come back later
+            if (e.getCause() instanceof Resilience.CircuitOpenException || e.getCause() instanceof Resilience.RateLimitedException) {
+                sendErrorIfPossible(exchange, 503, e.getCause().getMessage());
+            } else {
+                logger.error("API request failed: {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+                sendErrorIfPossible(exchange, 500, "Internal error");
+            }
+        } catch (Exception e) {
+            logger.error("API request failed: {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendErrorIfPossible(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The name the key belongs to, or null. Compares against every key in constant time so the
+    // response time doesn't give away how much of a guess was right.
+    private String callerFor(String presented) {
+        if (presented == null) {
+            return null;
+        }
+        byte[] given = presented.getBytes(StandardCharsets.UTF_8);
+        String found = null;
+        for (Map.Entry<String, String> entry : callers.entrySet()) {
+            if (MessageDigest.isEqual(given, entry.getKey().getBytes(StandardCharsets.UTF_8))) {
+                found = entry.getValue();
+            }
+        }
+        return found;
+    }
+
+    // A streamed export may already have sent its headers, in which case all we can do is drop the connection
+    private static void sendErrorIfPossible(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendError(exchange, status, message);
+        }
+    }
+
+    // --- Handlers ---
+
+    private void listExpenses(HttpExchange exchange) throws Exception {
+        Map<String, String> query = parseQuery(exchange);
+        int pageSize = parseInt(query.get("pageSize"), DEFAULT_PAGE_SIZE);
+        ExpenseService.Page page = expenses.list(filterFrom(query), pageSize, query.get("pageToken"));
+
+        JsonObject body = new JsonObject();
+        JsonArray items = new JsonArray();
+        for (Expense expense : page.items) {
+            items.add(toJson(expense));
+        }
+        body.add("items", items);
+        if (page.nextPageToken != null) {
+            body.addProperty("nextPageToken", page.nextPageToken);
+        }
+        send(exchange, 200, "application/json", body.toString());
+    }
+
+    private void getKpis(HttpExchange exchange) throws Exception {
+        ExpenseRollups.Totals totals = rollups.totals(filterFrom(parseQuery(exchange)));
+        JsonObject body = new JsonObject();
+        body.addProperty("count", totals.count);
+        body.addProperty("amount", totals.amount);
+        body.addProperty("mileage", totals.mileage);
+        body.addProperty("pending", totals.pending);
+        send(exchange, 200, "application/json", body.toString());
+    }
+
+    private void getExpense(HttpExchange exchange, String id) throws Exception {
+        Expense expense = expenses.get(id);
+        if (expense == null) {
+            sendError(exchange, 404, "Expense not found");
+            return;
+        }
+        send(exchange, 200, "application/json", toJson(expense).toString());
+    }
+
+    private void submitExpense(HttpExchange exchange) throws Exception {
+        JsonObject json;
+        try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+            json = JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Body must be a JSON object");
+        }
+
+        String employee = json.has("employeeName") ? json.get("employeeName").getAsString() : "";
+        String type = json.has("type") ? json.get("type").getAsString() : "";
+        double amount = json.has("amount") ? json.get("amount").getAsDouble() : -1;
+        double mileage = json.has("mileage") ? json.get("mileage").getAsDouble() : 0;
+        if (employee.isBlank()) {
+            throw new IllegalArgumentException("employeeName is required");
+        }
+        if (!ExpenseCsv.TYPES.contains(type)) {
+            throw new IllegalArgumentException("type must be one of " + ExpenseCsv.TYPES);
+        }
+        if (amount < 0 || mileage < 0) {
+            throw new IllegalArgumentException("amount and mileage must be zero or more");
+        }
+
+        Expense expense;
+        try {
+            expense = expenses.submit(employee, type, amount, mileage);
+        } catch (DuplicateExpenseException e) {
+            // Retried or repeated request: point the client at the expense that already exists
+            exchange.getResponseHeaders().set("Location", "/api/expenses/" + e.getExistingId());
+            sendError(exchange, 409, e.getMessage());
+            return;
+        }
+        exchange.getResponseHeaders().set("Location", "/api/expenses/" + expense.getId());
+        send(exchange, 201, "application/json", toJson(expense).toString());
+    }
+
+    private void changeStatus(HttpExchange exchange, String id, String newStatus, String caller) throws Exception {
+        // The audit log names whoever owns the API key, never something the client just claims to be
+        // Only a pending expense can be decided, so two callers can't overwrite each other's decision
+        String oldStatus = expenses.updateStatusIfPending(id, newStatus, caller);
+        if (oldStatus == null) {
+            sendError(exchange, 404, "Expense not found");
+            return;
+        }
+        if (!"Pending".equals(oldStatus)) {
+            JsonObject body = new JsonObject();
+            body.addProperty("error", "Expense is not pending");
+            body.addProperty("id", id);
+            body.addProperty("status", oldStatus);
+            send(exchange, 409, "application/json", body.toString());
+            return;
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("id", id);
+        body.addProperty("previousStatus", oldStatus);
+        body.addProperty("status", newStatus);
+        send(exchange, 200, "application/json", body.toString());
+    }
+
+    // Streams every matching row page by page, so even a huge export never sits in memory
+    private void exportCsv(HttpExchange exchange) throws Exception {
+        Map<String, String> query = parseQuery(exchange);
+        ExpenseFilter filter = filterFrom(query);
+
+        boolean gzip = acceptsGzip(exchange);
+        exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"expenses.csv\"");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0); // 0 = chunked, we don't know the length yet
+
+        OutputStream raw = exchange.getResponseBody();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(gzip ? new GZIPOutputStream(raw, 8192) : raw, StandardCharsets.UTF_8))) {
+            out.write(ExpenseCsv.HEADER + "\n");
+            String token = null;
+            do {
+                ExpenseService.Page page = expenses.list(filter, 500, token);
+                for (Expense expense : page.items) {
+                    out.write(ExpenseCsv.formatRow(expense) + "\n");
+                }
+                token = page.nextPageToken;
+            } while (token != null);
+        }
+    }
+
+    // --- Helpers ---
+
+    private static ExpenseFilter filterFrom(Map<String, String> query) {
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.employeeName = query.get("employee");
+        filter.date = query.get("date");
+        filter.type = query.get("type");
+        filter.status = query.get("status");
+        if (query.containsKey("minMiles")) {
+            try {
+                filter.minMiles = Double.parseDouble(query.get("minMiles"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("minMiles must be a number");
+            }
+        }
+        return filter;
+    }
+
+    static JsonObject toJson(Expense expense) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", expense.getId());
+        json.addProperty("employeeName", expense.getEmployeeName());
+        json.addProperty("date", expense.getDate());
+        json.addProperty("type", expense.getType());
+        json.addProperty("amount", expense.getAmount());
+        json.addProperty("mileage", expense.getMileage());
+        json.addProperty("status", expense.getStatus());
+        return json;
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a whole number but got '" + value + "'");
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return accept != null && accept.toLowerCase().contains("gzip");
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("error", message);
+        send(exchange, status, "application/json", body.toString());
+    }
+
+    // Sends a complete response with an ETag, answering 304 when the client already has this version
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        var headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType + "; charset=utf-8");
+        headers.set("Vary", "Accept-Encoding");
+
+        if (status == 200) {
+            String etag = etag(bytes);
+            headers.set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+
+        if (bytes.length >= GZIP_MIN_BYTES && acceptsGzip(exchange)) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            headers.set("Content-Encoding", "gzip");
+        }
+
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + HexFormat.of().formatHex(hash, 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
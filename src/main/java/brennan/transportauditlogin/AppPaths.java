@@ -0,0 +1,36 @@
+package brennan.transportauditlogin;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// One place that decides where the app keeps its local files (caches, etc.)
+// It defaults to a ".transportaudit" folder in the user's home, or DATA_DIR from the .env file.
+public class AppPaths {
+
+    private static final Dotenv dotenv = Dotenv.load();
+
+    public static Path dataDir() {
+        String configured = dotenv.get("DATA_DIR");
+        Path dir = (configured != null && !configured.isBlank())
+                ? Path.of(configured)
+                : Path.of(System.getProperty("user.home"), ".transportaudit");
+        return ensureExists(dir);
+    }
+
+    // A sub folder of the data directory, created on first use
+    public static Path dataDir(String child) {
+        return ensureExists(dataDir().resolve(child));
+    }
+
+    private static Path ensureExists(Path dir) {
+        try {
+            return Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create data directory " + dir, e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package brennan.transportauditlogin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Where archive segments are kept. It only needs the few things an object store (S3, GCS)
+ * offers: write a whole object, read it back as a stream, list names and delete, so a cloud
+ * bucket can replace LocalArchiveStore later without touching ExpenseArchiver.
+ */
+public interface ArchiveStore {
+
+    void put(String name, byte[] data) throws IOException;
+
+    InputStream open(String name) throws IOException;
+
+    boolean exists(String name) throws IOException;
+
+    List<String> list() throws IOException;
+
+    void delete(String name) throws IOException;
+}
@@ -0,0 +1,330 @@
+package brennan.transportauditlogin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only record of every status change: which expense, who changed it, from what to what, and when.
+ * Nothing in it is ever updated or deleted.
+ *
+ * Entries go into fixed-size segment files that are memory-mapped, so appending is just copying
+ * bytes into memory and the OS writes them out. Appends are queued and written in batches by a
+ * background thread (a burst of approvals is one write + one force, not one each). Two in-memory
+ * indexes map an expense ID or a manager to the positions of their entries, so a history lookup
+ * reads only those entries instead of the whole log. The indexes are rebuilt by one sequential
+ * pass over the segments when the log is opened.
+ *
+ * Record layout: int length, long timestamp, then expense ID, manager, old status, new status
+ * (each a short length + UTF-8 bytes). A length of 0 marks the end of the written part of a segment.
+ *
+ * Only one process may have a log directory open: the end of the log is only known in memory, so
+ * a second writer (a dashboard and the ApiServer sharing a data folder) would write over the
+ * first one's entries. Opening takes an exclusive lock on audit.lock and fails if someone has it.
+ */
+public class AuditLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+
+    private static final int SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final int FLUSH_EVERY_MILLIS = 200;
+    private static final int FLUSH_EVERY_ENTRIES = 256;
+    private static final String LOCK_FILE = "audit.lock";
+
+    private static AuditLog shared;
+
+    private final Path dir;
+    // Held for as long as the log is open
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private MappedByteBuffer current;
+
+    // Position = segment number in the high 32 bits, offset in the low 32 bits
+    private final Map<String, List<Long>> byExpense = new HashMap<>();
+    private final Map<String, List<Long>> byManager = new HashMap<>();
+
+    private final List<Entry> queue = new ArrayList<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    public static class Entry {
+        public final long timestamp;
+        public final String expenseId;
+        public final String manager;
+        public final String oldStatus;
+        public final String newStatus;
+
+        public Entry(long timestamp, String expenseId, String manager, String oldStatus, String newStatus) {
+            this.timestamp = timestamp;
+            this.expenseId = expenseId;
+            this.manager = manager == null ? "" : manager;
+            this.oldStatus = oldStatus == null ? "" : oldStatus;
+            this.newStatus = newStatus == null ? "" : newStatus;
+        }
+    }
+
+    // The app (dashboards and API server) shares one log so every change ends up in the same place
+    public static synchronized AuditLog shared() {
+        if (shared == null) {
+            try {
+                shared = new AuditLog(AppPaths.dataDir("audit"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the audit log", e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::close, "audit-log-close"));
+        }
+        return shared;
+    }
+
+    public AuditLog(Path dir) throws IOException {
+        this.dir = dir;
+        lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null; // this JVM already has it open
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("The audit log in " + dir + " is already open in another window or process."
+                    + " Give each app instance its own data folder (DATA_DIR in .env)");
+        }
+        lock = acquired;
+        try {
+            openSegments();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        flusher = Thread.ofPlatform().daemon().name("audit-log-flush").start(this::flushLoop);
+    }
+
+    // --- Writing ---
+
+    // Queues the entry; it is on disk within FLUSH_EVERY_MILLIS (or straight away via flush())
+    public void append(Entry entry) {
+        synchronized (queue) {
+            queue.add(entry);
+            if (queue.size() >= FLUSH_EVERY_ENTRIES) {
+                queue.notifyAll();
+            }
+        }
+    }
+
+    public void append(String expenseId, String manager, String oldStatus, String newStatus) {
+        append(new Entry(System.currentTimeMillis(), expenseId, manager, oldStatus, newStatus));
+    }
+
+    // Synchronized so batches are written in the order they were taken off the queue
+    public synchronized void flush() {
+        List<Entry> batch;
+        synchronized (queue) {
+            if (queue.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(queue);
+            queue.clear();
+        }
+        write(batch);
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            synchronized (queue) {
+                try {
+                    queue.wait(FLUSH_EVERY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.error("Could not write audit entries", e);
+            }
+        }
+    }
+
+    private synchronized void write(List<Entry> batch) {
+        for (Entry entry : batch) {
+            byte[] record = encode(entry);
+            // 4 more bytes so there is always room for the 0 that ends the segment
+            if (current.remaining() < record.length + 4) {
+                current.force();
+                try {
+                    current = createSegment(segments.size());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                segments.add(current);
+            }
+            long position = ((long) (segments.size() - 1) << 32) | current.position();
+            current.put(record);
+            index(entry.expenseId, entry.manager, position);
+        }
+        current.force();
+    }
+
+    private void index(String expenseId, String manager, long position) {
+        byExpense.computeIfAbsent(expenseId, ignored -> new ArrayList<>(2)).add(position);
+        byManager.computeIfAbsent(manager, ignored -> new ArrayList<>()).add(position);
+    }
+
+    // --- Reading ---
+
+    // Every change to one expense, oldest first
+    public List<Entry> history(String expenseId) {
+        flush();
+        return read(expenseId, byExpense);
+    }
+
+    // Every change made by one manager, oldest first
+    public List<Entry> byManager(String manager) {
+        flush();
+        return read(manager, byManager);
+    }
+
+    private synchronized List<Entry> read(String key, Map<String, List<Long>> index) {
+        List<Long> positions = index.getOrDefault(key, List.of());
+        List<Entry> entries = new ArrayList<>(positions.size());
+        for (long position : positions) {
+            ByteBuffer buffer = segments.get((int) (position >>> 32)).duplicate();
+            buffer.position((int) position);
+            entries.add(decode(buffer));
+        }
+        return entries;
+    }
+
+    // Streams every entry in the order it was written (for audit exports)
+    public void replay(Consumer<Entry> consumer) {
+        flush();
+        List<ByteBuffer> views;
+        synchronized (this) {
+            views = new ArrayList<>(segments.size());
+            for (MappedByteBuffer segment : segments) {
+                views.add(segment.duplicate().position(0));
+            }
+            // Don't read past what is written now, in case an append happens while we replay
+            views.get(views.size() - 1).limit(current.position());
+        }
+        for (ByteBuffer buffer : views) {
+            while (hasRecord(buffer)) {
+                consumer.accept(decode(buffer));
+            }
+        }
+    }
+
+    // --- Segments ---
+
+    private void openSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(path -> path.getFileName().toString().matches("audit-\\d+\\.log")).sorted().toList();
+        }
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(0));
+        }
+
+        // Rebuild the indexes and find where the last segment ends
+        long entries = 0;
+        for (int s = 0; s < segments.size(); s++) {
+            ByteBuffer buffer = segments.get(s).duplicate().position(0);
+            while (hasRecord(buffer)) {
+                long position = ((long) s << 32) | buffer.position();
+                Entry entry = decode(buffer);
+                index(entry.expenseId, entry.manager, position);
+                entries++;
+            }
+            if (s == segments.size() - 1) {
+                current = segments.get(s);
+                current.position(buffer.position());
+            }
+        }
+        logger.info("Audit log opened with {} entries in {} segments", entries, segments.size());
+    }
+
+    private MappedByteBuffer createSegment(int number) throws IOException {
+        Path file = dir.resolve(String.format("audit-%05d.log", number));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Mapping past the end grows the file; the new bytes are all 0
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+        }
+    }
+
+    private static boolean hasRecord(ByteBuffer buffer) {
+        return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) > 0;
+    }
+
+    private static byte[] encode(Entry entry) {
+        byte[][] strings = {
+                bytes(entry.expenseId), bytes(entry.manager), bytes(entry.oldStatus), bytes(entry.newStatus)
+        };
+        int length = 8;
+        for (byte[] s : strings) {
+            length += 2 + s.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.putLong(entry.timestamp);
+        for (byte[] s : strings) {
+            buffer.putShort((short) s.length);
+            buffer.put(s);
+        }
+        return buffer.array();
+    }
+
+    private static Entry decode(ByteBuffer buffer) {
+        buffer.getInt(); // length
+        long timestamp = buffer.getLong();
+        return new Entry(timestamp, string(buffer), string(buffer), string(buffer), string(buffer));
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Nothing we store comes close to this, but a short length can't hold more
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.interrupt();
+        flush();
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.warn("Could not release the audit log lock", e);
+        }
+    }
+}
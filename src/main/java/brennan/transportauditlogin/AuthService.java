@@ -0,0 +1,72 @@
+package brennan.transportauditlogin;
+
+import com.google.gson.Gson;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The Firebase Auth REST calls (the Admin SDK can't check passwords), moved out of the LoginController.
+ * Every call goes through the AUTH resilience policy. FIREBASE_AUTH_URL in the .env file points
+ * them somewhere else, e.g. the FaultInjectingStubServer or the Auth emulator.
+ */
+public class AuthService {
+
+    private static final Dotenv dotenv = Dotenv.load();
+    private static final String DEFAULT_URL = "https://identitytoolkit.googleapis.com";
+
+    private final String baseUrl;
+    private final String apiKey;
+    private final Resilience resilience;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+    public AuthService(String baseUrl, String apiKey, Resilience resilience) {
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.resilience = resilience;
+    }
+
+    public static AuthService fromEnv() {
+        // The Auth emulator serves the same REST paths under its own host, and takes any API key
+        String emulator = dotenv.get("FIREBASE_AUTH_EMULATOR_HOST");
+        if (emulator != null && !emulator.isBlank() && dotenv.get("FIREBASE_AUTH_URL") == null) {
+            return new AuthService("http://" + emulator + "/identitytoolkit.googleapis.com",
+                    dotenv.get("FIREBASE_API_KEY", "fake-api-key"), Resilience.AUTH);
+        }
+        return new AuthService(dotenv.get("FIREBASE_AUTH_URL", DEFAULT_URL), dotenv.get("FIREBASE_API_KEY"), Resilience.AUTH);
+    }
+
+    // True if the email and password are right
+    public boolean verifyPassword(String email, String password) throws ExecutionException, InterruptedException {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("email", email);
+        payload.put("password", password);
+        payload.put("returnSecureToken", true);
+        return post("/v1/accounts:signInWithPassword", payload).statusCode() == 200;
+    }
+
+    // True if Firebase accepted the request (it says yes for unknown addresses too, on purpose)
+    public boolean sendPasswordResetEmail(String email) throws ExecutionException, InterruptedException {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("requestType", "PASSWORD_RESET");
+        payload.put("email", email);
+        return post("/v1/accounts:sendOobCode", payload).statusCode() == 200;
+    }
+
+    private HttpResponse<String> post(String path, Map<String, Object> payload) throws ExecutionException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path + "?key=" + apiKey))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(new Gson().toJson(payload)))
+                .build();
+        // Never hedged: two sign-ins at once would count double against Firebase's brute force protection
+        return resilience.call(() -> Resilience.send(httpClient, request));
+    }
+}
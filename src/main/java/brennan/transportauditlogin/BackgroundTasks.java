@@ -0,0 +1,76 @@
+package brennan.transportauditlogin;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The one place the screens run slow work (Firestore, Google Maps, Firebase Auth, files).
+ *
+ * Every task gets its own virtual thread, but each kind of resource has a fixed number of
+ * permits, so ten clicks on "Calculate Route" wait their turn instead of firing ten Maps requests
+ * at once. Tasks are started through a TaskScope, which belongs to one screen and cancels whatever
+ * is still running when that screen goes away (see TaskScope).
+ *
+ * The counters below are what describe() prints, so it's easy to see in the log what is running.
+ */
+public final class BackgroundTasks {
+
+    // What a task mostly waits on, and how many of those may run at the same time
+    public enum Resource {
+        FIRESTORE(16),
+        MAPS(4),
+        AUTH(2),
+        DISK(2);
+
+        final Semaphore permits;
+        final int limit;
+
+        Resource(int limit) {
+            this.limit = limit;
+            this.permits = new Semaphore(limit, true);
+        }
+    }
+
+    // What a running task can use to report progress and to check if it should stop
+    public interface Progress {
+        void update(String message);
+
+        boolean isCancelled();
+    }
+
+    // The work itself. It runs on a background thread and must not touch the screen.
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    private static final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("task-", 0).factory());
+
+    static final AtomicInteger queued = new AtomicInteger();
+    static final AtomicInteger running = new AtomicInteger();
+    static final AtomicLong completed = new AtomicLong();
+    static final AtomicLong failed = new AtomicLong();
+    static final AtomicLong cancelled = new AtomicLong();
+
+    private BackgroundTasks() {
+    }
+
+    static ExecutorService executor() {
+        return executor;
+    }
+
+    // e.g. "running 3, queued 0, done 41, failed 1, cancelled 2 | FIRESTORE 2/16 MAPS 1/4 AUTH 0/2 DISK 0/2"
+    public static String describe() {
+        StringBuilder text = new StringBuilder(String.format("running %d, queued %d, done %d, failed %d, cancelled %d |",
+                running.get(), queued.get(), completed.get(), failed.get(), cancelled.get()));
+        for (Resource resource : Resource.values()) {
+            text.append(' ').append(resource).append(' ')
+                    .append(resource.limit - resource.permits.availablePermits()).append('/').append(resource.limit);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package brennan.transportauditlogin;
+
+/**
+ * Stops calling an API that keeps failing.
+ *
+ * CLOSED: calls go through. After "threshold" failures in a row it turns OPEN.
+ * OPEN: calls fail straight away (no network, no waiting) for "openMillis".
+ * HALF_OPEN: one trial call is let through. If it works we're CLOSED again, if not OPEN again.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int threshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failuresInARow;
+    private long openedAt;
+    private boolean trialRunning;
+
+    public CircuitBreaker(int threshold, long openMillis) {
+        this.threshold = threshold;
+        this.openMillis = openMillis;
+    }
+
+    // True if a call may go ahead now. In HALF_OPEN only the first caller gets true.
+    public synchronized boolean allow() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialRunning = false;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> {
+                if (trialRunning) {
+                    yield false;
+                }
+                trialRunning = true;
+                yield true;
+            }
+        };
+    }
+
+    public synchronized void recordSuccess() {
+        failuresInARow = 0;
+        trialRunning = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        failuresInARow++;
+        trialRunning = false;
+        if (state == State.HALF_OPEN || failuresInARow >= threshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    // The call was given up (e.g. cancelled) without an answer either way
+    public synchronized void abandon() {
+        trialRunning = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    // How long until a trial call is allowed again (0 if not open)
+    public synchronized long retryAfterMillis() {
+        return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+    }
+}
@@ -1,29 +1,28 @@
 package brennan.transportauditlogin;
 
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.Firestore;
-import com.google.cloud.firestore.QueryDocumentSnapshot;
-import com.google.cloud.firestore.QuerySnapshot;
 import com.google.firebase.cloud.FirestoreClient;
 import io.github.cdimascio.dotenv.Dotenv;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.geometry.Orientation;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
-import javafx.scene.web.WebEngine;
+import javafx.scene.layout.StackPane;
 import javafx.scene.web.WebView;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.HashSet;
+import java.util.Set;
 
 public class DriverDashboardController {
 
@@ -37,10 +36,12 @@ public class DriverDashboardController {
     @FXML private ComboBox<String> expenseTypeCombo;
     @FXML private TextField manualMiles;
     @FXML private TextField manualCost;
+    @FXML private Label receiptLabel;
 
     @FXML private Label distLabel;
     @FXML private Label costLabel;
-    @FXML private WebView mapWebView;
+    @FXML private StackPane mapContainer;
+    @FXML private ToggleButton interactiveMapToggle;
 
     @FXML private TableView<Expense> tripTable;
     @FXML private TableColumn<Expense, String> colDate;
@@ -50,14 +51,40 @@ public class DriverDashboardController {
     @FXML private TableColumn<Expense, String> colStatus;
 
     // I only need to store the list of trips here.
-    // I removed the 'RATE_PER_MILE' variable from up here because I only used it in one method.
+    // The rate per mile lives in RateTable now, since payroll needs the same numbers.
     private final ObservableList<Expense> myTrips = FXCollections.observableArrayList();
 
     private String currentUsername;
 
+    // Paging state for the trip history table
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private String historyPageToken;
+    private boolean historyHasMore;
+    private boolean historyLoading;
+    private int historyGeneration;
+    private final Set<String> locallyAdded = new HashSet<>();
+
+    // The last route calculated, so a submitted mileage claim can be checked against it later
+    private GoogleMapsService.RouteInfo lastRoute;
+    private String lastRouteStart;
+    private String lastRouteEnd;
+    // The route picture is drawn locally; the real Google map is only built when the driver asks for it
+    private final RoutePreview routePreview = new RoutePreview();
+    private WebView interactiveMap;
+
+    // The photo picked with "Attach Receipt"; it is uploaded when the trip is submitted
+    private Path pendingReceipt;
+    private final ReceiptStore receiptStore = new LocalReceiptStore();
+
+    // Route lookups, saves and history pages run in here; logging out cancels whatever is still running
+    private final TaskScope tasks = new TaskScope("driver");
+
     public void initialize() {
+        SessionManager.addLogoutHook(tasks::close);
+        setupIdleRelease();
         setupTable();
-        setupMap();
+        setupInfiniteScroll();
+        mapContainer.getChildren().add(routePreview);
         setupInputs();
     }
 
@@ -72,10 +99,37 @@ public class DriverDashboardController {
         colCost.setCellFactory(FormatUtils.getCurrencyCellFactory());
     }
 
-    private void setupMap() {
-        // Loads a blank map at start so the user doesn't see a weird empty white box
-        WebEngine webEngine = mapWebView.getEngine();
-        webEngine.load("https://www.google.com/maps");
+    // The interactive map is the heaviest thing on this screen, so it goes first when nobody is using it.
+    // After 1 minute without input it is closed (back to the preview), after 3 the loaded trip history is dropped.
+    private void setupIdleRelease() {
+        SessionManager.addIdleListener(60, new SessionManager.IdleListener() {
+            @Override
+            public void onIdle() {
+                if (interactiveMap != null) {
+                    interactiveMapToggle.setSelected(false);
+                    closeInteractiveMap();
+                }
+            }
+
+            @Override
+            public void onActive() {
+                // Nothing to bring back: the preview never went away, and the map opens again with the toggle
+            }
+        });
+        SessionManager.addIdleListener(180, new SessionManager.IdleListener() {
+            @Override
+            public void onIdle() {
+                // Bumping the generation also throws away a page that is still loading
+                historyGeneration++;
+                historyLoading = false;
+                myTrips.clear();
+            }
+
+            @Override
+            public void onActive() {
+                loadMyHistory();
+            }
+        });
     }
 
     private void setupInputs() {
@@ -114,18 +168,29 @@ public class DriverDashboardController {
 
         // I create the maps service here instead of keeping it open all the time to save resources
         GoogleMapsService mapsService = new GoogleMapsService();
-        GoogleMapsService.RouteInfo route = mapsService.getRouteDetails(start, end);
-
-        if (route != null) {
-            updateUIWithRoute(route, start, end);
-        } else {
-            showAlert(Alert.AlertType.ERROR, "GPS Error", "Could not calculate route.");
-        }
+        distLabel.setText("Calculating...");
+        tasks.<GoogleMapsService.RouteInfo>task("route", BackgroundTasks.Resource.MAPS)
+                .onSuccess(route -> {
+                    if (route != null) {
+                        lastRoute = route;
+                        lastRouteStart = start;
+                        lastRouteEnd = end;
+                        updateUIWithRoute(route, start, end);
+                    } else {
+                        distLabel.setText("-");
+                        showAlert(Alert.AlertType.ERROR, "GPS Error", "Could not calculate route.");
+                    }
+                })
+                .onFailure(e -> {
+                    distLabel.setText("-");
+                    showAlert(Alert.AlertType.ERROR, "GPS Error", "Could not calculate route.");
+                })
+                .start(progress -> mapsService.getRouteDetails(start, end));
     }
 
     private void updateUIWithRoute(GoogleMapsService.RouteInfo route, String start, String end) {
-        // I moved the rate variable here because this is the only place it's used
-        double ratePerMile = 0.67;
+        // The rate comes from the same table the payroll run uses, so the estimate matches what gets paid
+        double ratePerMile = RateTable.shared().mileageRate(LocalDate.now());
 
         distLabel.setText(route.text);
         double cost = route.miles * ratePerMile;
@@ -135,19 +200,49 @@ public class DriverDashboardController {
         manualCost.setText(String.format("%.2f", cost));
         expenseTypeCombo.getSelectionModel().select("Mileage");
 
+        routePreview.show(route, start, end);
+        // An open interactive map follows the new route, otherwise it stays closed until asked for
+        if (interactiveMap != null) {
+            interactiveMap.getEngine().loadContent(generateMapHtml(embedUrl(start, end)));
+        }
+    }
+
+    @FXML
+    private void toggleInteractiveMap() {
+        if (!interactiveMapToggle.isSelected()) {
+            closeInteractiveMap();
+            return;
+        }
+        if (lastRoute == null) {
+            interactiveMapToggle.setSelected(false);
+            showAlert(Alert.AlertType.INFORMATION, "No Route", "Calculate a route first, then open the interactive map.");
+            return;
+        }
+        // The WebView (and the whole Google Maps page inside it) is only created here, on request
+        interactiveMap = new WebView();
+        interactiveMap.getEngine().loadContent(generateMapHtml(embedUrl(lastRouteStart, lastRouteEnd)));
+        mapContainer.getChildren().setAll(interactiveMap);
+    }
+
+    private void closeInteractiveMap() {
+        if (interactiveMap == null) {
+            return;
+        }
+        // Emptying the page first lets the engine drop the map's scripts and tiles right away
+        interactiveMap.getEngine().load(null);
+        interactiveMap = null;
+        mapContainer.getChildren().setAll(routePreview);
+    }
+
+    private String embedUrl(String start, String end) {
         Dotenv dotenv = Dotenv.load();
         String apiKey = dotenv.get("GOOGLE_MAPS_API_KEY");
 
-        String mapUrl = "https://www.google.com/maps/embed/v1/directions" +
+        return "https://www.google.com/maps/embed/v1/directions" +
                 "?key=" + apiKey +
                 "&origin=" + start.replace(" ", "+") +
                 "&destination=" + end.replace(" ", "+") +
                 "&mode=driving";
-
-        // I moved the messy HTML code into its own method (generateMapHtml)
-        // to make this part easier to read and fix the "Long Method" warning.
-        String htmlContent = generateMapHtml(mapUrl);
-        mapWebView.getEngine().loadContent(htmlContent);
     }
 
     // This little helper method handles the HTML string creation
@@ -188,40 +283,128 @@ public class DriverDashboardController {
         }
     }
 
-    private void saveExpenseToFirestore(String type, double cost, double miles) {
-        Map<String, Object> data = new HashMap<>();
-
-        data.put("employeeName", currentUsername);
-        data.put("date", LocalDate.now().toString());
-        data.put("type", type);
-        data.put("amount", cost);
-        data.put("mileage", miles);
-        data.put("status", "Pending");
+    @FXML
+    private void attachReceipt() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Attach Receipt");
+        fileChooser.getExtensionFilters().add(
+                new FileChooser.ExtensionFilter("Images", "*.jpg", "*.jpeg", "*.png", "*.gif", "*.bmp"));
+        File file = fileChooser.showOpenDialog(receiptLabel.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        if (file.length() > ReceiptStore.MAX_BYTES) {
+            showAlert(Alert.AlertType.WARNING, "Receipt Too Large", "Receipts can be at most 10 MB.");
+            return;
+        }
+        pendingReceipt = file.toPath();
+        receiptLabel.setText(file.getName());
+    }
 
-        Firestore db = FirestoreClient.getFirestore();
-        db.collection("expenses").add(data);
+    private void clearReceipt() {
+        pendingReceipt = null;
+        receiptLabel.setText("No receipt");
+    }
 
-        showAlert(Alert.AlertType.INFORMATION, "Success", "Trip log submitted.");
-        loadMyHistory();
+    private void saveExpenseToFirestore(String type, double cost, double miles) {
+        // The actual Firestore write lives in ExpenseService now, so the REST API saves expenses the same way
+        ExpenseService expenses = new ExpenseService(FirestoreClient.getFirestore());
+        String username = currentUsername;
+        GoogleMapsService.RouteInfo route = "Mileage".equals(type) ? lastRoute : null;
+        String origin = lastRouteStart;
+        String destination = lastRouteEnd;
+        Path receipt = pendingReceipt;
+        tasks.<Expense>task("submit", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onProgress(receiptLabel::setText)
+                .onSuccess(saved -> {
+                    // The new trip is today's, so it belongs at the top. No need to download the whole history again.
+                    myTrips.add(0, saved);
+                    locallyAdded.add(saved.getId());
+                    lastRoute = null;
+                    clearReceipt();
+                    showAlert(Alert.AlertType.INFORMATION, "Success", "Trip log submitted.");
+                })
+                .onFailure(e -> {
+                    if (receipt != null) {
+                        receiptLabel.setText(receipt.getFileName().toString());
+                    }
+                    if (e instanceof DuplicateExpenseException) {
+                        showAlert(Alert.AlertType.WARNING, "Already Submitted", "This trip log was already submitted a moment ago.");
+                    } else if (e instanceof IOException) {
+                        // Only the receipt upload reads files here
+                        showAlert(Alert.AlertType.ERROR, "Receipt Error", "Could not upload the receipt: " + e.getMessage());
+                    } else {
+                        showAlert(Alert.AlertType.ERROR, "Data Error", "Could not submit the trip log.");
+                    }
+                })
+                .start(progress -> {
+                    // The photo goes up first, in chunks, so the expense is only saved once its receipt is safe
+                    String receiptId = receipt == null ? null : ReceiptStore.upload(receiptStore, receipt, progress);
+                    return route != null
+                            ? expenses.submit(username, type, cost, miles, origin, destination, route.miles, receiptId)
+                            : expenses.submit(username, type, cost, miles, null, null, 0, receiptId);
+                });
     }
 
+    // Starts the history over from the newest page. The rows are fetched in a background
+    // task, newest first, and more pages are loaded as the driver scrolls down (see setupInfiniteScroll).
     private void loadMyHistory() {
+        historyGeneration++;
+        historyPageToken = null;
+        historyHasMore = true;
+        historyLoading = false;
+        locallyAdded.clear();
         myTrips.clear();
-        Firestore db = FirestoreClient.getFirestore();
+        tripTable.setItems(myTrips);
+        loadNextHistoryPage();
+    }
 
-        ApiFuture<QuerySnapshot> future = db.collection("expenses")
-                .whereEqualTo("employeeName", currentUsername)
-                .get();
-        try {
-            List<QueryDocumentSnapshot> docs = future.get().getDocuments();
-            for (QueryDocumentSnapshot doc : docs) {
-                myTrips.add(doc.toObject(Expense.class));
-            }
-            tripTable.setItems(myTrips);
-        } catch (InterruptedException | ExecutionException e) {
-            logger.error("Failed to load history", e);
-            showAlert(Alert.AlertType.ERROR, "Data Error", "Could not load history.");
+    private void loadNextHistoryPage() {
+        if (historyLoading || !historyHasMore || currentUsername == null) {
+            return;
         }
+        historyLoading = true;
+
+        // If the history gets restarted while this page is loading, the old result is thrown away
+        int generation = historyGeneration;
+        String pageToken = historyPageToken;
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.employeeName = currentUsername;
+
+        tasks.<ExpenseService.Page>task("history-page", BackgroundTasks.Resource.FIRESTORE)
+                .onSuccess(page -> {
+                    if (generation != historyGeneration) {
+                        return;
+                    }
+                    // A trip submitted while this page was loading may already be at the top
+                    page.items.removeIf(expense -> locallyAdded.contains(expense.getId()));
+                    myTrips.addAll(page.items);
+                    historyPageToken = page.nextPageToken;
+                    historyHasMore = page.nextPageToken != null;
+                    historyLoading = false;
+                })
+                .onFailure(e -> {
+                    historyLoading = false;
+                    showAlert(Alert.AlertType.ERROR, "Data Error", "Could not load history.");
+                })
+                .start(progress -> new ExpenseService(FirestoreClient.getFirestore()).list(filter, HISTORY_PAGE_SIZE, pageToken));
+    }
+
+    // Loads the next page when the table is scrolled to the bottom.
+    // The scroll bar only exists once the table has been drawn, so I wait for its skin first.
+    private void setupInfiniteScroll() {
+        tripTable.skinProperty().addListener((ignored1, ignored2, skin) -> {
+            for (Node node : tripTable.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL) {
+                    bar.valueProperty().addListener((ignored3, ignored4, value) -> {
+                        if (value.doubleValue() >= bar.getMax() * 0.95) {
+                            loadNextHistoryPage();
+                        }
+                    });
+                }
+            }
+        });
     }
 
     @FXML
@@ -0,0 +1,16 @@
+package brennan.transportauditlogin;
+
+// Thrown when the same expense was already submitted a moment ago (e.g. a double-click on Submit)
+public class DuplicateExpenseException extends Exception {
+
+    private final String existingId;
+
+    public DuplicateExpenseException(String existingId) {
+        super("This expense was already submitted (" + existingId + ")");
+        this.existingId = existingId;
+    }
+
+    public String getExistingId() {
+        return existingId;
+    }
+}
@@ -0,0 +1,71 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Finds expenses that were probably filed twice: same driver, same type, same day, and an
+ * amount and mileage that only differ by rounding. This catches older duplicates from before
+ * submissions were idempotent, and near-duplicates typed in again by hand.
+ *
+ * It reads the collection in pages of only the fields it needs and groups them in one hash map
+ * pass, so the cost is one sequential read of the collection, not a comparison of every pair.
+ */
+public class DuplicateSweep {
+
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateSweep.class);
+    private static final int PAGE_SIZE = 2_000;
+
+    private final Firestore db;
+
+    public DuplicateSweep(Firestore db) {
+        this.db = db;
+    }
+
+    public List<List<String>> findDuplicateGroups() throws ExecutionException, InterruptedException {
+        // key -> first document ID seen with that key
+        Map<String, String> firstSeen = new HashMap<>();
+        // key -> every document ID, only for keys that turned out to have more than one
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+
+        Query base = db.collection("expenses")
+                .select("employeeName", "type", "date", "amount", "mileage")
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+
+        long scanned = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            Query query = last == null ? base : base.startAfter(last);
+            List<QueryDocumentSnapshot> docs = query.get().get().getDocuments();
+            for (QueryDocumentSnapshot doc : docs) {
+                String key = nearDuplicateKey(doc);
+                String first = firstSeen.putIfAbsent(key, doc.getId());
+                if (first != null) {
+                    groups.computeIfAbsent(key, ignored -> new ArrayList<>(List.of(first))).add(doc.getId());
+                }
+            }
+            scanned += docs.size();
+            if (docs.size() < PAGE_SIZE) {
+                break;
+            }
+            last = docs.get(docs.size() - 1);
+        }
+
+        logger.info("Duplicate sweep scanned {} expenses and found {} groups", scanned, groups.size());
+        return new ArrayList<>(groups.values());
+    }
+
+    // Amounts are rounded to the dollar and miles to the whole mile, so $45.00 and $45.20 match
+    static String nearDuplicateKey(DocumentSnapshot doc) {
+        Double amount = doc.getDouble("amount");
+        Double mileage = doc.getDouble("mileage");
+        return doc.getString("employeeName") + "|" + doc.getString("type") + "|" + doc.getString("date")
+                + "|" + Math.round(amount == null ? 0 : amount)
+                + "|" + Math.round(mileage == null ? 0 : mileage);
+    }
+}
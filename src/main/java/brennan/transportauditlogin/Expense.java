@@ -1,5 +1,7 @@
 package brennan.transportauditlogin;
 
+import com.google.cloud.firestore.annotation.Exclude;
+
 public class Expense {
     private String id; // Firestore Document ID
     private String employeeName;
@@ -9,6 +11,18 @@ public class Expense {
     private double mileage;
     private String status; // "Pending", "Approved", "Rejected"
 
+    // Filled in when the driver used "Calculate Route", so claimed miles can be checked against the map
+    private String origin;
+    private String destination;
+    private double routeMiles;
+
+    // The photo of the receipt in the ReceiptStore, or null if none was attached
+    private String receiptId;
+
+    // Worked out by the AnomalyScorer on the manager screen, never saved to Firestore
+    private double riskScore;
+    private String riskReasons;
+
     // Empty constructor for Firestore
     public Expense() {
     }
@@ -59,4 +73,56 @@ public class Expense {
     public void setStatus(String status) {
         this.status = status;
     }
-}
\ No newline at end of file
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public double getRouteMiles() {
+        return routeMiles;
+    }
+
+    public void setRouteMiles(double routeMiles) {
+        this.routeMiles = routeMiles;
+    }
+
+    public String getReceiptId() {
+        return receiptId;
+    }
+
+    public void setReceiptId(String receiptId) {
+        this.receiptId = receiptId;
+    }
+
+    @Exclude
+    public double getRiskScore() {
+        return riskScore;
+    }
+
+    @Exclude
+    public void setRiskScore(double riskScore) {
+        this.riskScore = riskScore;
+    }
+
+    @Exclude
+    public String getRiskReasons() {
+        return riskReasons;
+    }
+
+    @Exclude
+    public void setRiskReasons(String riskReasons) {
+        this.riskReasons = riskReasons;
+    }
+}
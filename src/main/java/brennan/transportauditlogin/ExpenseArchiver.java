@@ -0,0 +1,447 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves closed (Approved/Rejected) expenses older than a cutoff out of Firestore into
+ * compressed archive segments, so the live collection only holds what still matters.
+ *
+ * A segment holds up to SEGMENT_ROWS expenses stored column by column (all the dates, then all
+ * the drivers, ...) with the text columns turned into numbers from a dictionary and the dates
+ * delta-encoded, then gzipped. Similar values end up next to each other, which compresses far
+ * better than JSON rows. index.json lists every segment with its date range and drivers, so
+ * a search only opens the segments that can match and reads each one straight through.
+ * It also keeps each segment's totals per date, driver, type and status, so the KPI totals can
+ * count archived expenses without opening any segment at all.
+ *
+ * The rollup totals are left alone: archived expenses are still part of the history.
+ */
+public class ExpenseArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpenseArchiver.class);
+
+    private static final int MAGIC = 0x45584152; // "EXAR"
+    // Version 2 added the receipt column at the end; version 1 segments are still read
+    private static final int VERSION = 2;
+    private static final int SEGMENT_ROWS = 50_000;
+    private static final int PAGE_SIZE = 1_000;
+    private static final int MAX_BATCH = 500;
+    private static final String INDEX = "index.json";
+
+    private final Firestore db;
+    private final ArchiveStore store;
+
+    public ExpenseArchiver(Firestore db, ArchiveStore store) {
+        this.db = db;
+        this.store = store;
+    }
+
+    // One line of index.json
+    public static class SegmentInfo {
+        public String name;
+        public String minDate;
+        public String maxDate;
+        public int rows;
+        public Set<String> drivers = new HashSet<>();
+        // null for segments archived before the index kept totals; filled in the first time they're needed
+        public List<Group> groups;
+
+        boolean mightContain(String from, String to, String driver) {
+            return (from == null || maxDate.compareTo(from) >= 0)
+                    && (to == null || minDate.compareTo(to) <= 0)
+                    && (driver == null || drivers.contains(driver));
+        }
+    }
+
+    // The totals of a segment's rows that share a date, driver, type and status
+    public static class Group {
+        public String date;
+        public String driver;
+        public String type;
+        public String status;
+        public long count;
+        public double amount;
+        public double mileage;
+    }
+
+    // --- Archiving ---
+
+    /**
+     * Archives every closed expense dated before the cutoff and returns how many were moved.
+     * Each segment is written and added to the index before its expenses are deleted, so a crash
+     * can leave an expense in both places but never in neither.
+     */
+    public long archiveOlderThan(LocalDate cutoff) throws ExecutionException, InterruptedException, IOException {
+        Query base = db.collection("expenses")
+                .whereIn("status", List.of("Approved", "Rejected"))
+                .whereLessThan("date", cutoff.toString())
+                .orderBy("date")
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+
+        List<Expense> pending = new ArrayList<>(SEGMENT_ROWS);
+        long archived = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            List<QueryDocumentSnapshot> docs = (last == null ? base : base.startAfter(last)).get().get().getDocuments();
+            for (QueryDocumentSnapshot doc : docs) {
+                Expense expense = ExpenseMapper.fromDocument(doc);
+                pending.add(expense);
+                if (pending.size() == SEGMENT_ROWS) {
+                    archived += moveToArchive(pending);
+                    pending.clear();
+                }
+            }
+            if (docs.size() < PAGE_SIZE) {
+                break;
+            }
+            last = docs.get(docs.size() - 1);
+        }
+        if (!pending.isEmpty()) {
+            archived += moveToArchive(pending);
+        }
+        logger.info("Archived {} expenses dated before {}", archived, cutoff);
+        return archived;
+    }
+
+    private int moveToArchive(List<Expense> expenses) throws IOException, ExecutionException, InterruptedException {
+        SegmentInfo info = new SegmentInfo();
+        info.name = String.format("seg-%d-%s.exa", System.currentTimeMillis(), expenses.get(0).getDate());
+        info.rows = expenses.size();
+        info.minDate = expenses.get(0).getDate();
+        info.maxDate = expenses.get(0).getDate();
+        for (Expense expense : expenses) {
+            if (expense.getDate().compareTo(info.minDate) < 0) info.minDate = expense.getDate();
+            if (expense.getDate().compareTo(info.maxDate) > 0) info.maxDate = expense.getDate();
+            info.drivers.add(expense.getEmployeeName());
+        }
+        info.groups = groupsOf(expenses);
+
+        byte[] segment = writeSegment(expenses);
+        store.put(info.name, segment);
+        synchronized (this) {
+            List<SegmentInfo> index = readIndex();
+            index.add(info);
+            writeIndex(index);
+        }
+
+        CollectionReference collection = db.collection("expenses");
+        for (int start = 0; start < expenses.size(); start += MAX_BATCH) {
+            WriteBatch batch = db.batch();
+            for (Expense expense : expenses.subList(start, Math.min(start + MAX_BATCH, expenses.size()))) {
+                batch.delete(collection.document(expense.getId()));
+            }
+            batch.commit().get();
+        }
+        logger.info("Wrote archive segment {} ({} rows, {} KB)", info.name, info.rows, segment.length / 1024);
+        return expenses.size();
+    }
+
+    // --- Reading ---
+
+    // Streams archived expenses within the dates (inclusive, null = open ended) and for the driver (null = all)
+    public void scan(LocalDate from, LocalDate to, String driver, Consumer<Expense> consumer) throws IOException {
+        String fromText = from == null ? null : from.toString();
+        String toText = to == null ? null : to.toString();
+        for (SegmentInfo info : segments()) {
+            if (!info.mightContain(fromText, toText, driver)) {
+                continue;
+            }
+            readSegment(info.name, expense -> {
+                boolean inRange = (fromText == null || expense.getDate().compareTo(fromText) >= 0)
+                        && (toText == null || expense.getDate().compareTo(toText) <= 0);
+                if (inRange && (driver == null || driver.equals(expense.getEmployeeName()))) {
+                    consumer.accept(expense);
+                }
+            });
+        }
+    }
+
+    /**
+     * Passes on the archived totals within the dates (inclusive, null = open ended) and for the
+     * driver (null = all), one Group per date, driver, type and status, straight from the index.
+     * A segment archived before the index kept totals is read once and its totals saved.
+     */
+    public void scanGroups(LocalDate from, LocalDate to, String driver, Consumer<Group> consumer) throws IOException {
+        String fromText = from == null ? null : from.toString();
+        String toText = to == null ? null : to.toString();
+        for (SegmentInfo info : segments()) {
+            if (!info.mightContain(fromText, toText, driver)) {
+                continue;
+            }
+            List<Group> groups = info.groups != null ? info.groups : addGroups(info);
+            for (Group group : groups) {
+                boolean inRange = (fromText == null || group.date.compareTo(fromText) >= 0)
+                        && (toText == null || group.date.compareTo(toText) <= 0);
+                if (inRange && (driver == null || driver.equals(group.driver))) {
+                    consumer.accept(group);
+                }
+            }
+        }
+    }
+
+    private List<Group> addGroups(SegmentInfo info) throws IOException {
+        List<Expense> expenses = new ArrayList<>(info.rows);
+        readSegment(info.name, expenses::add);
+        List<Group> groups = groupsOf(expenses);
+        synchronized (this) {
+            List<SegmentInfo> index = readIndex();
+            for (SegmentInfo entry : index) {
+                if (entry.name.equals(info.name)) {
+                    entry.groups = groups;
+                }
+            }
+            writeIndex(index);
+        }
+        logger.info("Added totals for archive segment {} to the index", info.name);
+        return groups;
+    }
+
+    static List<Group> groupsOf(List<Expense> expenses) {
+        Map<List<String>, Group> groups = new LinkedHashMap<>();
+        for (Expense expense : expenses) {
+            List<String> key = Arrays.asList(expense.getDate(), expense.getEmployeeName(), expense.getType(), expense.getStatus());
+            Group group = groups.computeIfAbsent(key, ignored -> {
+                Group created = new Group();
+                created.date = expense.getDate();
+                created.driver = expense.getEmployeeName();
+                created.type = expense.getType();
+                created.status = expense.getStatus();
+                return created;
+            });
+            group.count++;
+            group.amount += expense.getAmount();
+            group.mileage += expense.getMileage();
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    public synchronized List<SegmentInfo> segments() throws IOException {
+        return readIndex();
+    }
+
+    public long archivedCount() throws IOException {
+        long rows = 0;
+        for (SegmentInfo info : segments()) {
+            rows += info.rows;
+        }
+        return rows;
+    }
+
+    // --- Segment format ---
+
+    static byte[] writeSegment(List<Expense> expenses) throws IOException {
+        // Every string in the segment is stored once; 0 is reserved for null
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        codes.put("", 0);
+        int rows = expenses.size();
+        int[][] stringColumns = new int[6][rows];
+        for (int i = 0; i < rows; i++) {
+            Expense e = expenses.get(i);
+            stringColumns[0][i] = code(codes, e.getEmployeeName());
+            stringColumns[1][i] = code(codes, e.getType());
+            stringColumns[2][i] = code(codes, e.getStatus());
+            stringColumns[3][i] = code(codes, e.getOrigin());
+            stringColumns[4][i] = code(codes, e.getDestination());
+            stringColumns[5][i] = code(codes, e.getReceiptId());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+
+            out.writeInt(codes.size());
+            for (String value : codes.keySet()) {
+                out.writeUTF(value);
+            }
+            for (Expense e : expenses) {
+                out.writeUTF(e.getId());
+            }
+            // Dates as the difference from the previous row: mostly 0 or 1 since rows are in date order
+            int previousDay = 0;
+            for (Expense e : expenses) {
+                int day = (int) LocalDate.parse(e.getDate()).toEpochDay();
+                out.writeInt(day - previousDay);
+                previousDay = day;
+            }
+            for (int c = 0; c < 5; c++) {
+                for (int value : stringColumns[c]) {
+                    out.writeInt(value);
+                }
+            }
+            for (Expense e : expenses) out.writeDouble(e.getAmount());
+            for (Expense e : expenses) out.writeDouble(e.getMileage());
+            for (Expense e : expenses) out.writeDouble(e.getRouteMiles());
+            for (int value : stringColumns[5]) {
+                out.writeInt(value);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    void readSegment(String name, Consumer<Expense> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(store.open(name)), 1 << 16))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                throw new IOException(name + " is not an expense archive segment");
+            }
+            int rows = in.readInt();
+
+            String[] dictionary = new String[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = in.readUTF();
+            }
+            String[] ids = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                ids[i] = in.readUTF();
+            }
+            int[] days = new int[rows];
+            int day = 0;
+            for (int i = 0; i < rows; i++) {
+                day += in.readInt();
+                days[i] = day;
+            }
+            int[][] stringColumns = new int[6][rows];
+            for (int c = 0; c < 5; c++) {
+                for (int i = 0; i < rows; i++) {
+                    stringColumns[c][i] = in.readInt();
+                }
+            }
+            double[] amounts = readDoubles(in, rows);
+            double[] mileages = readDoubles(in, rows);
+            double[] routeMiles = readDoubles(in, rows);
+            if (version >= 2) {
+                for (int i = 0; i < rows; i++) {
+                    stringColumns[5][i] = in.readInt();
+                }
+            }
+
+            for (int i = 0; i < rows; i++) {
+                Expense expense = new Expense(ids[i], dictionary[stringColumns[0][i]], LocalDate.ofEpochDay(days[i]).toString(),
+                        dictionary[stringColumns[1][i]], amounts[i], mileages[i], dictionary[stringColumns[2][i]]);
+                expense.setOrigin(nullIfEmpty(dictionary[stringColumns[3][i]]));
+                expense.setDestination(nullIfEmpty(dictionary[stringColumns[4][i]]));
+                expense.setRouteMiles(routeMiles[i]);
+                expense.setReceiptId(nullIfEmpty(dictionary[stringColumns[5][i]]));
+                consumer.accept(expense);
+            }
+        }
+    }
+
+    private static int code(Map<String, Integer> codes, String value) {
+        return value == null ? 0 : codes.computeIfAbsent(value, ignored -> codes.size());
+    }
+
+    private static double[] readDoubles(DataInputStream in, int rows) throws IOException {
+        double[] values = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private static String nullIfEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    // --- Index ---
+
+    private List<SegmentInfo> readIndex() throws IOException {
+        List<SegmentInfo> index = new ArrayList<>();
+        if (!store.exists(INDEX)) {
+            return index;
+        }
+        try (Reader reader = new InputStreamReader(store.open(INDEX), StandardCharsets.UTF_8)) {
+            JsonArray segments = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("segments");
+            for (JsonElement element : segments) {
+                JsonObject json = element.getAsJsonObject();
+                SegmentInfo info = new SegmentInfo();
+                info.name = json.get("name").getAsString();
+                info.minDate = json.get("minDate").getAsString();
+                info.maxDate = json.get("maxDate").getAsString();
+                info.rows = json.get("rows").getAsInt();
+                for (JsonElement driver : json.getAsJsonArray("drivers")) {
+                    info.drivers.add(driver.getAsString());
+                }
+                if (json.has("groups")) {
+                    info.groups = new ArrayList<>();
+                    for (JsonElement group : json.getAsJsonArray("groups")) {
+                        info.groups.add(groupFromJson(group.getAsJsonArray()));
+                    }
+                }
+                index.add(info);
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(List<SegmentInfo> index) throws IOException {
+        JsonArray segments = new JsonArray();
+        for (SegmentInfo info : index) {
+            JsonObject json = new JsonObject();
+            json.addProperty("name", info.name);
+            json.addProperty("minDate", info.minDate);
+            json.addProperty("maxDate", info.maxDate);
+            json.addProperty("rows", info.rows);
+            JsonArray drivers = new JsonArray();
+            info.drivers.stream().sorted().forEach(drivers::add);
+            json.add("drivers", drivers);
+            if (info.groups != null) {
+                JsonArray groups = new JsonArray();
+                info.groups.forEach(group -> groups.add(groupToJson(group)));
+                json.add("groups", groups);
+            }
+            segments.add(json);
+        }
+        JsonObject root = new JsonObject();
+        root.add("segments", segments);
+        store.put(INDEX, root.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Groups are stored as [date, driver, type, status, count, amount, mileage]; there can be
+    // thousands per segment, so the field names aren't repeated for each one
+    private static JsonArray groupToJson(Group group) {
+        JsonArray json = new JsonArray();
+        json.add(group.date);
+        json.add(group.driver);
+        json.add(group.type);
+        json.add(group.status);
+        json.add(group.count);
+        json.add(group.amount);
+        json.add(group.mileage);
+        return json;
+    }
+
+    private static Group groupFromJson(JsonArray json) {
+        Group group = new Group();
+        group.date = json.get(0).getAsString();
+        group.driver = stringOrNull(json.get(1));
+        group.type = stringOrNull(json.get(2));
+        group.status = stringOrNull(json.get(3));
+        group.count = json.get(4).getAsLong();
+        group.amount = json.get(5).getAsDouble();
+        group.mileage = json.get(6).getAsDouble();
+        return group;
+    }
+
+    private static String stringOrNull(JsonElement element) {
+        return element.isJsonNull() ? null : element.getAsString();
+    }
+}
@@ -0,0 +1,116 @@
+package brennan.transportauditlogin;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Reads and writes the expense CSV format, so the export and the bulk import always agree on the columns.
+public class ExpenseCsv {
+
+    public static final String HEADER = "ID,Employee,Date,Type,Amount,Mileage,Status";
+
+    public static final Set<String> TYPES = Set.of("Mileage", "Fuel", "Maintenance", "Tolls", "Parking", "Other");
+    public static final Set<String> STATUSES = Set.of("Pending", "Approved", "Rejected");
+
+    public static String formatRow(Expense e) {
+        // Locale.ROOT so the numbers always use a "." no matter what the computer's language is
+        return String.join(",",
+                escape(e.getId()),
+                escape(e.getEmployeeName()),
+                escape(e.getDate()),
+                escape(e.getType()),
+                String.format(Locale.ROOT, "%.2f", e.getAmount()),
+                String.format(Locale.ROOT, "%.2f", e.getMileage()),
+                escape(e.getStatus()));
+    }
+
+    // Turns one CSV line into an Expense. Throws IllegalArgumentException with a readable
+    // message when the row is bad, which the importer reports back to the user.
+    public static Expense parseRow(String line) {
+        List<String> fields = split(line);
+        if (fields.size() != 7) {
+            throw new IllegalArgumentException("Expected 7 columns but found " + fields.size());
+        }
+
+        String id = fields.get(0).trim();
+        String employee = fields.get(1).trim();
+        String date = fields.get(2).trim();
+        String type = fields.get(3).trim();
+        String status = fields.get(6).trim().isEmpty() ? "Pending" : fields.get(6).trim();
+
+        if (employee.isEmpty()) {
+            throw new IllegalArgumentException("Employee is required");
+        }
+        try {
+            LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date must look like 2024-01-31 but was '" + date + "'");
+        }
+        if (!TYPES.contains(type)) {
+            throw new IllegalArgumentException("Unknown expense type '" + type + "'");
+        }
+        if (!STATUSES.contains(status)) {
+            throw new IllegalArgumentException("Unknown status '" + status + "'");
+        }
+
+        double amount = parseNumber(fields.get(4), "Amount");
+        double mileage = fields.get(5).trim().isEmpty() ? 0.0 : parseNumber(fields.get(5), "Mileage");
+
+        return new Expense(id.isEmpty() ? null : id, employee, date, type, amount, mileage, status);
+    }
+
+    private static double parseNumber(String text, String column) {
+        try {
+            double value = Double.parseDouble(text.trim().replace("$", ""));
+            if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new IllegalArgumentException(column + " can't be negative");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not a number: '" + text + "'");
+        }
+    }
+
+    // Quotes a value only when it needs it (commas, quotes or new lines inside)
+    static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    // Splits a line on commas, respecting "quoted, values" and "" escapes
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>(8);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+}
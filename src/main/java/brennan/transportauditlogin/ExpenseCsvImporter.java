@@ -0,0 +1,348 @@
+package brennan.transportauditlogin;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.BulkWriterOptions;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Imports a large expense CSV (same columns as the manager's CSV export) into Firestore.
+ * The file is streamed in chunks: each chunk is parsed and validated in parallel, then
+ * written with a rate limited BulkWriter. After every chunk the line number is saved to a
+ * ".import-progress" file next to the CSV, so an interrupted import picks up where it stopped.
+ * Rows without an ID get one from a hash of the file's contents plus the line number, so
+ * re-running a chunk never creates duplicates, while a different file that happens to have the
+ * same name (every month's "trips.csv") gets its own IDs.
+ *
+ * Rows are created, never overwritten: a row whose ID is already in the database (an export
+ * imported again) is left alone and not added to the dashboard totals a second time. The
+ * totals of each chunk are written with Accumulator.flushOnce before the checkpoint, so
+ * resuming after a crash between the two can't count a chunk twice either.
+ */
+public class ExpenseCsvImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpenseCsvImporter.class);
+
+    private static final int CHUNK_SIZE = 5_000;
+    // Content hash of the file a row was imported from
+    static final String IMPORTED_FROM = "importedFrom";
+
+    // Firestore's "500/50/5" guidance: start at 500 writes a second and let BulkWriter ramp up.
+    // IMPORT_MAX_OPS_PER_SECOND in the .env file caps it (the emulator can take a lot more).
+    private static final Dotenv dotenv = Dotenv.load();
+    private static final int DEFAULT_INITIAL_OPS = 500;
+    private static final int DEFAULT_MAX_OPS = 5_000;
+
+    private final Firestore db;
+    private final int initialOpsPerSecond;
+    private final int maxOpsPerSecond;
+
+    // Called after every chunk so the UI can show progress
+    public interface ProgressListener {
+        void onProgress(long rowsDone, long rowsWritten, int errors);
+    }
+
+    public ExpenseCsvImporter(Firestore db, int initialOpsPerSecond, int maxOpsPerSecond) {
+        this.db = db;
+        this.initialOpsPerSecond = initialOpsPerSecond;
+        this.maxOpsPerSecond = maxOpsPerSecond;
+    }
+
+    public static ExpenseCsvImporter withDefaults(Firestore db) {
+        int maxOps = Integer.parseInt(dotenv.get("IMPORT_MAX_OPS_PER_SECOND", String.valueOf(DEFAULT_MAX_OPS)));
+        return new ExpenseCsvImporter(db, Math.min(DEFAULT_INITIAL_OPS, maxOps), maxOps);
+    }
+
+    public ImportResult importFile(Path csv, ProgressListener listener) throws IOException, InterruptedException {
+        Path progressFile = csv.resolveSibling(csv.getFileName() + ".import-progress");
+        String fileHash = contentHash(csv);
+        long resumeAfter = readProgress(progressFile, fileHash);
+        String idPrefix = "import-" + fileHash + "-";
+
+        ImportResult result = new ImportResult();
+        result.resumedFromLine = resumeAfter;
+        long start = System.nanoTime();
+
+        CollectionReference expenses = db.collection("expenses");
+        BulkWriter writer = db.bulkWriter(BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(initialOpsPerSecond)
+                .setMaxOpsPerSecond(maxOpsPerSecond)
+                .build());
+
+        // Write failures come back asynchronously from the BulkWriter
+        Queue<RowError> writeErrors = new ConcurrentLinkedQueue<>();
+        AtomicLong alreadyPresent = new AtomicLong();
+        // Dashboard totals for the rows that were stored, applied once per chunk
+        ExpenseRollups.Accumulator rollups = new ExpenseRollups.Accumulator();
+
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.trim().equalsIgnoreCase(ExpenseCsv.HEADER)) {
+                throw new IOException("The first line must be the header: " + ExpenseCsv.HEADER);
+            }
+
+            long lineNumber = 1;
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            long[] chunkLines = new long[CHUNK_SIZE];
+            boolean more = true;
+            while (more) {
+                String line = reader.readLine();
+                more = line != null;
+                if (more) {
+                    lineNumber++;
+                    if (lineNumber <= resumeAfter || line.isBlank()) {
+                        continue;
+                    }
+                    chunkLines[chunk.size()] = lineNumber;
+                    chunk.add(line);
+                    if (chunk.size() < CHUNK_SIZE) {
+                        continue;
+                    }
+                }
+                if (chunk.isEmpty()) {
+                    continue;
+                }
+
+                List<ApiFuture<Void>> rows = writeChunk(chunk, chunkLines, fileHash, idPrefix, expenses, writer,
+                        result, writeErrors, alreadyPresent, rollups);
+                chunk.clear();
+
+                // Wait until every row of the chunk is stored and counted before recording it as done.
+                // The row futures only complete after their counting, so nothing lands in the next chunk.
+                writer.flush().get();
+                ApiFutures.allAsList(rows).get();
+                rollups.flushOnce(db, "import-" + fileHash + "-" + lineNumber);
+                writeProgress(progressFile, fileHash, lineNumber);
+
+                drain(writeErrors, result);
+                result.rowsAlreadyPresent += alreadyPresent.get();
+                result.rowsWritten -= alreadyPresent.getAndSet(0);
+                if (listener != null) {
+                    listener.onProgress(result.rowsRead, result.rowsWritten, result.errors.size());
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Import cancelled at line " + lineNumber);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Bulk write failed", e.getCause());
+        } finally {
+            closeQuietly(writer);
+        }
+
+        drain(writeErrors, result);
+        result.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // A finished import doesn't need its checkpoint any more
+        Files.deleteIfExists(progressFile);
+        writeErrorReport(csv, result);
+
+        logger.info("Imported {} of {} rows from {} in {} ms ({} errors)",
+                result.rowsWritten, result.rowsRead, csv, result.elapsedMillis, result.errors.size());
+        return result;
+    }
+
+    // Returns one future per written row, done once the row has been counted (or its failure recorded).
+    // They never fail, so they can be waited on together.
+    private List<ApiFuture<Void>> writeChunk(List<String> lines, long[] lineNumbers, String fileHash, String idPrefix,
+                                             CollectionReference expenses, BulkWriter writer, ImportResult result,
+                                             Queue<RowError> writeErrors, AtomicLong alreadyPresent,
+                                             ExpenseRollups.Accumulator rollups) {
+        List<ApiFuture<Void>> rows = new ArrayList<>(lines.size());
+        // Parse and validate the whole chunk in parallel, keeping each result at its own index
+        Expense[] parsed = new Expense[lines.size()];
+        String[] problems = new String[lines.size()];
+        IntStream.range(0, lines.size()).parallel().forEach(i -> {
+            try {
+                parsed[i] = ExpenseCsv.parseRow(lines.get(i));
+            } catch (IllegalArgumentException e) {
+                problems[i] = e.getMessage();
+            }
+        });
+
+        for (int i = 0; i < parsed.length; i++) {
+            long lineNumber = lineNumbers[i];
+            result.rowsRead++;
+            if (parsed[i] == null) {
+                result.errors.add(new RowError(lineNumber, problems[i]));
+                continue;
+            }
+
+            Expense expense = parsed[i];
+            String docId = expense.getId() != null ? expense.getId() : idPrefix + lineNumber;
+            String idProblem = documentIdProblem(docId);
+            if (idProblem != null) {
+                result.errors.add(new RowError(lineNumber, idProblem));
+                continue;
+            }
+            DocumentReference ref = expenses.document(docId);
+            Map<String, Object> data = ExpenseMapper.toMap(expense);
+            data.put(IMPORTED_FROM, fileHash);
+            ApiFuture<Void> created = ApiFutures.transform(writer.create(ref, data), ignored -> {
+                countRow(rollups, expense);
+                return null;
+            }, MoreExecutors.directExecutor());
+            // Most likely the document exists. Only a read tells that apart from a real failure.
+            rows.add(ApiFutures.catchingAsync(created, Throwable.class, writeFailure -> {
+                ApiFuture<DocumentSnapshot> existing = ApiFutures.catching(ref.get(), Throwable.class,
+                        readFailure -> null, MoreExecutors.directExecutor());
+                return ApiFutures.transform(existing, doc -> {
+                    if (doc == null || !doc.exists()) {
+                        writeErrors.add(new RowError(lineNumber, "Write failed: " + writeFailure.getMessage()));
+                    } else if (fileHash.equals(doc.getString(IMPORTED_FROM))) {
+                        // Created by an earlier, interrupted run of this same file. Its totals
+                        // weren't saved with a checkpoint, and flushOnce skips them if they were.
+                        countRow(rollups, expense);
+                    } else {
+                        alreadyPresent.incrementAndGet();
+                    }
+                    return null;
+                }, MoreExecutors.directExecutor());
+            }, MoreExecutors.directExecutor()));
+            result.rowsWritten++;
+        }
+        return rows;
+    }
+
+    private static void countRow(ExpenseRollups.Accumulator rollups, Expense expense) {
+        rollups.add(expense.getEmployeeName(), expense.getType(), expense.getDate(),
+                expense.getAmount(), expense.getMileage(), expense.getStatus());
+    }
+
+    private static void drain(Queue<RowError> writeErrors, ImportResult result) {
+        RowError error;
+        while ((error = writeErrors.poll()) != null) {
+            result.errors.add(error);
+            result.failedWrites++;
+            result.rowsWritten--;
+        }
+    }
+
+    private static void closeQuietly(BulkWriter writer) {
+        try {
+            writer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.warn("Bulk writer did not close cleanly: {}", e.getMessage());
+        }
+    }
+
+    // The checkpoint is "<content hash> <line>". One left by a different file with the same name is ignored.
+    private static long readProgress(Path progressFile, String fileHash) {
+        try {
+            if (Files.exists(progressFile)) {
+                String[] parts = Files.readString(progressFile).trim().split(" ");
+                if (parts.length == 2 && parts[0].equals(fileHash)) {
+                    return Long.parseLong(parts[1]);
+                }
+                logger.warn("Ignoring import checkpoint {} from a different file", progressFile);
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Ignoring unreadable import checkpoint {}", progressFile);
+        }
+        return 0;
+    }
+
+    private static void writeProgress(Path progressFile, String fileHash, long lineNumber) throws IOException {
+        Files.writeString(progressFile, fileHash + " " + lineNumber);
+    }
+
+    // First 16 hex digits of the file's SHA-256. Costs one extra read of the file, which is
+    // small next to writing it to Firestore.
+    static String contentHash(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Firestore rejects these IDs, and one bad row would otherwise fail the whole chunk
+    static String documentIdProblem(String id) {
+        if (id.contains("/")) {
+            return "ID can't contain '/': " + id;
+        }
+        if (id.equals(".") || id.equals("..") || (id.startsWith("__") && id.endsWith("__"))) {
+            return "Not a valid ID: " + id;
+        }
+        if (id.getBytes(StandardCharsets.UTF_8).length > 1500) {
+            return "ID is longer than 1500 bytes";
+        }
+        return null;
+    }
+
+    // Writes "<file>.errors.csv" listing every rejected row, or removes an old one if there were none
+    private static void writeErrorReport(Path csv, ImportResult result) throws IOException {
+        Path report = csv.resolveSibling(csv.getFileName() + ".errors.csv");
+        if (result.errors.isEmpty()) {
+            Files.deleteIfExists(report);
+            return;
+        }
+        result.errors.sort(Comparator.comparingLong(error -> error.line));
+        try (BufferedWriter out = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            out.write("Line,Error\n");
+            for (RowError error : result.errors) {
+                out.write(error.line + "," + ExpenseCsv.escape(error.message) + "\n");
+            }
+        }
+        result.errorReport = report;
+    }
+
+    // One rejected row
+    public static class RowError {
+        public final long line;
+        public final String message;
+
+        public RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
+    // Summary of a finished import
+    public static class ImportResult {
+        public long rowsRead;
+        public long rowsWritten;
+        // Rows whose ID was already in the database; they were left as they are
+        public long rowsAlreadyPresent;
+        public long failedWrites;
+        public long resumedFromLine;
+        public long elapsedMillis;
+        public Path errorReport;
+        public final List<RowError> errors = new ArrayList<>();
+
+        public double rowsPerSecond() {
+            return elapsedMillis == 0 ? rowsWritten : rowsWritten * 1000.0 / elapsedMillis;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package brennan.transportauditlogin;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * In-memory reporting cube behind the Trends window.
+ * Every expense is one row stored across plain arrays (one array per column), with the text
+ * columns (driver, type, status) replaced by small ints from a dictionary. The day, ISO week
+ * and month of each row are worked out once when it is added, so a query is a single loop
+ * over int/double arrays with no objects or date parsing, which takes milliseconds even over
+ * years of history. That is what makes clicking through month -> week -> day feel instant.
+ *
+ * Rows are added or updated one expense at a time (upsert by document ID), so it can be kept up
+ * to date from the same events that change the table instead of being rebuilt.
+ */
+public class ExpenseCube {
+
+    public enum Granularity { MONTH, WEEK, DAY }
+
+    public enum Measure { COUNT, AMOUNT, MILEAGE }
+
+    public enum Dimension { NONE, DRIVER, TYPE, STATUS }
+
+    // A split by driver shows the biggest ones and lumps the rest together
+    private static final int MAX_SERIES = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+    // Marks a removed row in the status column
+    private static final int DELETED = -1;
+    // Filter codes: match everything / match nothing (a value that isn't in the data)
+    private static final int ANY = -1;
+    private static final int UNKNOWN = -2;
+
+    private final Dictionary drivers = new Dictionary();
+    private final Dictionary types = new Dictionary();
+    private final Dictionary statuses = new Dictionary();
+    private final Map<String, Integer> rowById = new HashMap<>();
+
+    // The columns. Row i of the cube is epochDay[i], week[i], month[i], driver[i], ...
+    private int[] epochDay = new int[INITIAL_CAPACITY];
+    private int[] week = new int[INITIAL_CAPACITY];
+    private int[] month = new int[INITIAL_CAPACITY];
+    private int[] driver = new int[INITIAL_CAPACITY];
+    private int[] type = new int[INITIAL_CAPACITY];
+    private int[] status = new int[INITIAL_CAPACITY];
+    private double[] amount = new double[INITIAL_CAPACITY];
+    private double[] mileage = new double[INITIAL_CAPACITY];
+    private int rows;
+
+    private int minDay = Integer.MAX_VALUE;
+    private int maxDay = Integer.MIN_VALUE;
+
+    public synchronized void clear() {
+        rowById.clear();
+        rows = 0;
+        minDay = Integer.MAX_VALUE;
+        maxDay = Integer.MIN_VALUE;
+    }
+
+    public synchronized int size() {
+        return rowById.size();
+    }
+
+    // Adds the expense, or overwrites its row if it is already in the cube (e.g. a status change)
+    public synchronized void upsert(Expense expense) {
+        LocalDate date;
+        try {
+            date = LocalDate.parse(expense.getDate());
+        } catch (DateTimeParseException | NullPointerException e) {
+            return; // can't place it on a time axis
+        }
+
+        Integer existing = expense.getId() == null ? null : rowById.get(expense.getId());
+        int row;
+        if (existing != null) {
+            row = existing;
+        } else {
+            ensureCapacity(rows + 1);
+            row = rows++;
+            if (expense.getId() != null) {
+                rowById.put(expense.getId(), row);
+            }
+        }
+
+        int day = (int) date.toEpochDay();
+        epochDay[row] = day;
+        week[row] = weekIndex(day);
+        month[row] = date.getYear() * 12 + date.getMonthValue() - 1;
+        driver[row] = drivers.code(expense.getEmployeeName());
+        type[row] = types.code(expense.getType());
+        status[row] = statuses.code(expense.getStatus());
+        amount[row] = expense.getAmount();
+        mileage[row] = expense.getMileage();
+        minDay = Math.min(minDay, day);
+        maxDay = Math.max(maxDay, day);
+    }
+
+    // The row stays in the arrays but is skipped by every query
+    public synchronized void remove(String expenseId) {
+        Integer row = rowById.remove(expenseId);
+        if (row != null) {
+            status[row] = DELETED;
+        }
+    }
+
+    public synchronized LocalDate firstDay() {
+        return rowById.isEmpty() ? LocalDate.now() : LocalDate.ofEpochDay(minDay);
+    }
+
+    public synchronized LocalDate lastDay() {
+        return rowById.isEmpty() ? LocalDate.now() : LocalDate.ofEpochDay(maxDay);
+    }
+
+    // --- Queries ---
+
+    // What to aggregate. Null filters mean "all".
+    public static class Query {
+        public LocalDate from;
+        public LocalDate to;
+        public Granularity granularity = Granularity.MONTH;
+        public Measure measure = Measure.AMOUNT;
+        public Dimension split = Dimension.NONE;
+        public String driver;
+        public String type;
+        public String status;
+
+        public Query copy() {
+            Query copy = new Query();
+            copy.from = from;
+            copy.to = to;
+            copy.granularity = granularity;
+            copy.measure = measure;
+            copy.split = split;
+            copy.driver = driver;
+            copy.type = type;
+            copy.status = status;
+            return copy;
+        }
+    }
+
+    // values[series][bucket]. bucketStart/bucketEnd are the days each bucket covers (for drill-down).
+    public static class Result {
+        public final List<String> buckets = new ArrayList<>();
+        public final List<LocalDate> bucketStart = new ArrayList<>();
+        public final List<LocalDate> bucketEnd = new ArrayList<>();
+        public final List<String> series = new ArrayList<>();
+        public double[][] values;
+    }
+
+    public synchronized Result aggregate(Query query) {
+        LocalDate from = query.from != null ? query.from : firstDay();
+        LocalDate to = query.to != null ? query.to : lastDay();
+        int fromDay = (int) from.toEpochDay();
+        int toDay = (int) to.toEpochDay();
+
+        int[] bucketColumn = switch (query.granularity) {
+            case MONTH -> month;
+            case WEEK -> week;
+            case DAY -> epochDay;
+        };
+        int firstBucket = bucketOf(query.granularity, from);
+        int bucketCount = Math.max(0, bucketOf(query.granularity, to) - firstBucket + 1);
+
+        // Filters become dictionary codes; a value we've never seen can't match anything
+        int driverCode = codeOrAll(drivers, query.driver);
+        int typeCode = codeOrAll(types, query.type);
+        int statusCode = codeOrAll(statuses, query.status);
+        if (driverCode == UNKNOWN || typeCode == UNKNOWN || statusCode == UNKNOWN) {
+            return emptyResult(query.granularity, firstBucket, bucketCount, from, to);
+        }
+
+        int[] splitColumn = switch (query.split) {
+            case NONE -> null;
+            case DRIVER -> driver;
+            case TYPE -> type;
+            case STATUS -> status;
+        };
+        Dictionary splitDictionary = switch (query.split) {
+            case NONE -> null;
+            case DRIVER -> drivers;
+            case TYPE -> types;
+            case STATUS -> statuses;
+        };
+        int seriesCount = splitDictionary == null ? 1 : splitDictionary.size();
+
+        // The one pass over the data
+        double[][] sums = new double[seriesCount][bucketCount];
+        for (int i = 0; i < rows; i++) {
+            int day = epochDay[i];
+            if (day < fromDay || day > toDay || status[i] == DELETED) continue;
+            if (driverCode != ANY && driver[i] != driverCode) continue;
+            if (typeCode != ANY && type[i] != typeCode) continue;
+            if (statusCode != ANY && status[i] != statusCode) continue;
+
+            double value = switch (query.measure) {
+                case COUNT -> 1;
+                case AMOUNT -> amount[i];
+                case MILEAGE -> mileage[i];
+            };
+            sums[splitColumn == null ? 0 : splitColumn[i]][bucketColumn[i] - firstBucket] += value;
+        }
+
+        Result result = emptyResult(query.granularity, firstBucket, bucketCount, from, to);
+        if (splitDictionary == null) {
+            result.series.add(query.measure.name().charAt(0) + query.measure.name().substring(1).toLowerCase());
+            result.values = sums;
+        } else {
+            keepLargestSeries(result, sums, splitDictionary);
+        }
+        return result;
+    }
+
+    // Orders the series biggest first, keeps MAX_SERIES of them and adds the rest up as "Other"
+    private static void keepLargestSeries(Result result, double[][] sums, Dictionary dictionary) {
+        Integer[] order = new Integer[sums.length];
+        double[] totals = new double[sums.length];
+        for (int s = 0; s < sums.length; s++) {
+            order[s] = s;
+            for (double v : sums[s]) totals[s] += v;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(totals[b], totals[a]));
+
+        List<double[]> kept = new ArrayList<>();
+        double[] other = null;
+        for (int rank = 0; rank < order.length; rank++) {
+            int s = order[rank];
+            if (totals[s] == 0) break;
+            if (rank < MAX_SERIES) {
+                result.series.add(dictionary.value(s));
+                kept.add(sums[s]);
+            } else {
+                if (other == null) other = new double[sums[s].length];
+                for (int b = 0; b < other.length; b++) other[b] += sums[s][b];
+            }
+        }
+        if (other != null) {
+            result.series.add("Other");
+            kept.add(other);
+        }
+        result.values = kept.toArray(new double[0][]);
+    }
+
+    private static Result emptyResult(Granularity granularity, int firstBucket, int bucketCount, LocalDate from, LocalDate to) {
+        Result result = new Result();
+        for (int b = 0; b < bucketCount; b++) {
+            LocalDate start = bucketStartDay(granularity, firstBucket + b);
+            LocalDate end = bucketStartDay(granularity, firstBucket + b + 1).minusDays(1);
+            // The first and last buckets are cut to the range asked for
+            result.bucketStart.add(start.isBefore(from) ? from : start);
+            result.bucketEnd.add(end.isAfter(to) ? to : end);
+            result.buckets.add(switch (granularity) {
+                case MONTH -> String.format("%d-%02d", start.getYear(), start.getMonthValue());
+                case WEEK -> "Wk " + start;
+                case DAY -> start.toString();
+            });
+        }
+        result.values = new double[0][bucketCount];
+        return result;
+    }
+
+    // --- Buckets ---
+
+    // 1970-01-01 was a Thursday, so shifting by 3 makes every week start on a Monday
+    private static int weekIndex(int epochDay) {
+        return Math.floorDiv(epochDay + 3, 7);
+    }
+
+    private static int bucketOf(Granularity granularity, LocalDate date) {
+        return switch (granularity) {
+            case MONTH -> date.getYear() * 12 + date.getMonthValue() - 1;
+            case WEEK -> weekIndex((int) date.toEpochDay());
+            case DAY -> (int) date.toEpochDay();
+        };
+    }
+
+    private static LocalDate bucketStartDay(Granularity granularity, int bucket) {
+        return switch (granularity) {
+            case MONTH -> LocalDate.of(Math.floorDiv(bucket, 12), Math.floorMod(bucket, 12) + 1, 1);
+            case WEEK -> LocalDate.ofEpochDay(bucket * 7L - 3);
+            case DAY -> LocalDate.ofEpochDay(bucket);
+        };
+    }
+
+    private static int codeOrAll(Dictionary dictionary, String value) {
+        if (value == null || value.isEmpty() || value.equals("All")) {
+            return ANY;
+        }
+        return dictionary.find(value);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= epochDay.length) {
+            return;
+        }
+        int capacity = Math.max(needed, epochDay.length * 2);
+        epochDay = Arrays.copyOf(epochDay, capacity);
+        week = Arrays.copyOf(week, capacity);
+        month = Arrays.copyOf(month, capacity);
+        driver = Arrays.copyOf(driver, capacity);
+        type = Arrays.copyOf(type, capacity);
+        status = Arrays.copyOf(status, capacity);
+        amount = Arrays.copyOf(amount, capacity);
+        mileage = Arrays.copyOf(mileage, capacity);
+    }
+
+    public synchronized List<String> drivers() {
+        List<String> names = new ArrayList<>(drivers.values);
+        Collections.sort(names);
+        return names;
+    }
+
+    // Maps each distinct string to 0, 1, 2, ... in the order they are first seen
+    private static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int code(String value) {
+            String key = value == null ? "" : value;
+            Integer code = codes.get(key);
+            if (code == null) {
+                code = values.size();
+                codes.put(key, code);
+                values.add(key);
+            }
+            return code;
+        }
+
+        int find(String value) {
+            Integer code = codes.get(value);
+            return code == null ? UNKNOWN : code;
+        }
+
+        String value(int code) {
+            return values.get(code);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+}
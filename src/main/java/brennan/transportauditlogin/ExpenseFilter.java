@@ -0,0 +1,45 @@
+package brennan.transportauditlogin;
+
+// The filters a manager (or an API client) can apply to the expense list.
+// Any field left as null means "don't filter on this".
+public class ExpenseFilter {
+
+    public String date;          // "2024-05-01"
+    public String type;          // "Fuel", or null / "All" for every type
+    public String status;        // "Pending", "Approved", "Rejected"
+    public String employeeName;
+    public double minMiles;
+
+    public boolean matches(Expense expense) {
+        return matches(expense.getEmployeeName(), expense.getDate(), expense.getType(), expense.getStatus(), expense.getMileage());
+    }
+
+    public boolean matches(String employeeName, String date, String type, String status, double mileage) {
+        boolean dateMatch = this.date == null || this.date.equals(date);
+        boolean typeMatch = this.type == null || this.type.equals(type);
+        boolean statusMatch = this.status == null || this.status.equals(status);
+        boolean employeeMatch = this.employeeName == null || this.employeeName.equals(employeeName);
+        boolean mileageMatch = mileage >= minMiles;
+        return dateMatch && typeMatch && statusMatch && employeeMatch && mileageMatch;
+    }
+
+    // Same text for any two filters that match the same rows (call on a normalized filter)
+    public String cacheKey() {
+        return date + "|" + type + "|" + status + "|" + employeeName + "|" + minMiles;
+    }
+
+    // Turns blank strings and "All" into null so the rest of the code only has to check for null
+    public ExpenseFilter normalized() {
+        ExpenseFilter copy = new ExpenseFilter();
+        copy.date = clean(date);
+        copy.type = "All".equalsIgnoreCase(clean(type)) ? null : clean(type);
+        copy.status = clean(status);
+        copy.employeeName = clean(employeeName);
+        copy.minMiles = Math.max(0, minMiles);
+        return copy;
+    }
+
+    private static String clean(String value) {
+        return (value == null || value.isBlank()) ? null : value.trim();
+    }
+}
@@ -0,0 +1,251 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the expenses collection in memory and remembers the results of recent filters.
+ *
+ * A Firestore snapshot listener delivers the whole collection once and after that only the
+ * documents that changed, so the data here stays current without re-downloading everything.
+ * Each filter result (the matching IDs, newest first, plus the totals) is cached under the
+ * normalized filter, up to MAX_RESULTS of them, least recently used dropped first.
+ *
+ * When a document changes, only the cached results whose filter matched it before or matches it
+ * now are dropped. Switching back to "Fuel" after someone approved a Tolls expense is still
+ * served from memory. For the "before" side the cache keeps its own copy of the filterable
+ * fields of each expense, because the Expense objects it hands out can be edited by the screens.
+ *
+ * suspend() stops the listener and forgets everything (for when the dashboard sits idle);
+ * resume() starts over with a fresh snapshot.
+ *
+ * A ChangeListener passed to the constructor hears about every changed document, so the
+ * dashboard can keep its risk scores and trends cube up to date one expense at a time.
+ */
+public class ExpenseQueryCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpenseQueryCache.class);
+
+    private static final int MAX_RESULTS = 32;
+
+    // A cached filter result
+    public static class Result {
+        public final List<String> ids = new ArrayList<>();
+        public double amount;
+        public double mileage;
+        public int pending;
+    }
+
+    // One changed document: before is null for a new expense, after is null for a removed one
+    public record Change(String id, Expense before, Expense after) { }
+
+    public interface ChangeListener {
+        // Called on the Firestore listener thread, one snapshot at a time and in order.
+        // initial is true for the first snapshot after starting or resuming, which holds everything.
+        void onChanges(List<Change> changes, boolean initial);
+    }
+
+    // The fields filters look at, as Firestore last reported them
+    private record Bucket(String employeeName, String date, String type, String status, double mileage) {
+        static Bucket of(Expense e) {
+            return new Bucket(e.getEmployeeName(), e.getDate(), e.getType(), e.getStatus(), e.getMileage());
+        }
+
+        boolean matches(ExpenseFilter filter) {
+            return filter.matches(employeeName, date, type, status, mileage);
+        }
+    }
+
+    private final Map<String, Expense> byId = new HashMap<>();
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    // Filter key -> (filter, result). Access order makes it an LRU.
+    private final LinkedHashMap<String, Map.Entry<ExpenseFilter, Result>> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map.Entry<ExpenseFilter, Result>> eldest) {
+            return size() > MAX_RESULTS;
+        }
+    };
+
+    private final Firestore db;
+    private final ChangeListener changeListener;
+    private volatile CountDownLatch ready;
+    private ListenerRegistration registration;
+    // Bumped on every suspend/resume so a late event from an old listener is ignored
+    private int generation;
+    // Goes up on every change so callers can tell if anything moved since they last looked
+    private long version;
+    private long hits;
+    private long misses;
+
+    public ExpenseQueryCache(Firestore db) {
+        this(db, null);
+    }
+
+    public ExpenseQueryCache(Firestore db, ChangeListener changeListener) {
+        this.db = db;
+        this.changeListener = changeListener;
+        listen();
+    }
+
+    private synchronized void listen() {
+        CountDownLatch latch = new CountDownLatch(1);
+        int listening = ++generation;
+        ready = latch;
+        registration = db.collection("expenses").addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                logger.error("Expense listener failed", error);
+                return;
+            }
+            if (snapshot != null) {
+                List<Change> changes = apply(snapshot.getDocumentChanges(), listening);
+                // Outside the lock, so a big first snapshot doesn't hold up query() on the FX thread.
+                // Before the latch, so whoever waits in awaitReady() sees the listener's work done.
+                if (changes != null && changeListener != null) {
+                    try {
+                        changeListener.onChanges(changes, latch.getCount() > 0);
+                    } catch (RuntimeException e) {
+                        logger.error("Expense change listener failed", e);
+                    }
+                }
+            }
+            latch.countDown();
+        });
+    }
+
+    // Stops listening and drops every cached expense and result
+    public synchronized void suspend() {
+        if (registration == null) {
+            return;
+        }
+        registration.remove();
+        registration = null;
+        generation++;
+        byId.clear();
+        buckets.clear();
+        results.clear();
+        version++;
+    }
+
+    // Starts listening again; awaitReady() waits for the new first snapshot
+    public synchronized void resume() {
+        if (registration == null) {
+            listen();
+        }
+    }
+
+    // Returns what changed, or null if the event came from a listener that has since been stopped
+    private synchronized List<Change> apply(List<DocumentChange> changes, int from) {
+        if (from != generation) {
+            return null;
+        }
+        List<Change> applied = new ArrayList<>(changes.size());
+        for (DocumentChange change : changes) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            Bucket before = buckets.get(doc.getId());
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                Expense removed = byId.remove(doc.getId());
+                buckets.remove(doc.getId());
+                invalidate(before, null);
+                applied.add(new Change(doc.getId(), removed, null));
+                continue;
+            }
+            Expense expense = ExpenseMapper.fromDocument(doc);
+            Bucket after = Bucket.of(expense);
+            Expense previous = byId.put(doc.getId(), expense);
+            buckets.put(doc.getId(), after);
+            invalidate(before, after);
+            applied.add(new Change(doc.getId(), previous, expense));
+        }
+        version++;
+        return applied;
+    }
+
+    // Drops the cached results that this change can affect
+    private void invalidate(Bucket before, Bucket after) {
+        results.values().removeIf(entry -> (before != null && before.matches(entry.getKey()))
+                || (after != null && after.matches(entry.getKey())));
+    }
+
+    // Waits for the first snapshot. Returns false if it didn't arrive in time.
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return ready.await(timeout, unit);
+    }
+
+    public boolean isReady() {
+        return ready.getCount() == 0;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized List<Expense> all() {
+        return new ArrayList<>(byId.values());
+    }
+
+    public synchronized Expense get(String id) {
+        return byId.get(id);
+    }
+
+    // The expenses matching the filter, newest first, with their totals
+    public synchronized Result query(ExpenseFilter filter) {
+        ExpenseFilter f = filter.normalized();
+        String key = f.cacheKey();
+        Map.Entry<ExpenseFilter, Result> cached = results.get(key);
+        if (cached != null) {
+            hits++;
+            return cached.getValue();
+        }
+        misses++;
+
+        List<Expense> matching = new ArrayList<>();
+        Result result = new Result();
+        for (Expense expense : byId.values()) {
+            if (f.matches(expense)) {
+                matching.add(expense);
+                result.amount += expense.getAmount();
+                result.mileage += expense.getMileage();
+                if ("Pending".equals(expense.getStatus())) {
+                    result.pending++;
+                }
+            }
+        }
+        matching.sort(Comparator.comparing(Expense::getDate).reversed().thenComparing(Expense::getId, Comparator.reverseOrder()));
+        for (Expense expense : matching) {
+            result.ids.add(expense.getId());
+        }
+        results.put(key, Map.entry(f, result));
+        return result;
+    }
+
+    /**
+     * Records a status change this app just made, without waiting for the listener to report it.
+     * The listener's own event for it later changes nothing.
+     */
+    public synchronized void applyStatus(String id, String newStatus) {
+        Expense expense = byId.get(id);
+        if (expense == null) {
+            return;
+        }
+        Bucket before = buckets.get(id);
+        expense.setStatus(newStatus);
+        Bucket after = Bucket.of(expense);
+        buckets.put(id, after);
+        invalidate(before, after);
+        version++;
+    }
+
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public void close() {
+        suspend();
+    }
+}
@@ -0,0 +1,53 @@
+package brennan.transportauditlogin;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.time.LocalDate;
+
+// Renders expense reports as CSV or PDF. Used by the dashboard's Export buttons and by the
+// ReportScheduler, so an on-demand export and a scheduled report look the same.
+public final class ExpenseReportWriter {
+
+    public static final String DEFAULT_TITLE = "TransportAudit Expense Report";
+
+    private ExpenseReportWriter() {
+    }
+
+    // The header and row format live in ExpenseCsv so the bulk import can read these files back
+    public static void writeCsv(Writer writer, Iterable<Expense> rows) throws IOException {
+        writer.write(ExpenseCsv.HEADER + "\n");
+        for (Expense e : rows) {
+            writer.write(ExpenseCsv.formatRow(e) + "\n");
+        }
+    }
+
+    public static void writePdf(OutputStream out, String title, Iterable<Expense> rows) throws IOException {
+        Document document = new Document();
+        try {
+            PdfWriter.getInstance(document, out);
+            document.open();
+
+            document.add(new Paragraph(title));
+            document.add(new Paragraph("Generated on: " + LocalDate.now()));
+            document.add(new Paragraph("--------------------------------------------------"));
+
+            for (Expense e : rows) {
+                String line = String.format("Employee: %s | Type: %s | Amount: $%.2f | Miles: %.1f | Status: %s",
+                        e.getEmployeeName(), e.getType(), e.getAmount(), e.getMileage(), e.getStatus());
+                document.add(new Paragraph(line));
+            }
+        } catch (DocumentException e) {
+            throw new IOException("Could not build the PDF", e);
+        } finally {
+            if (document.isOpen()) {
+                document.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Pre-added totals for the dashboard KPIs, so they don't need every expense downloaded.
+ * The "rollups" collection has one small document per day, driver and expense type,
+ * plus one for everything, each holding count, amount, mileage and pending count:
+ *
+ *   rollups/all, rollups/day_2025-03-14, rollups/driver_Bob, rollups/type_Fuel
+ *
+ * ExpenseService updates them in the same transaction as the expense itself, using
+ * FieldValue.increment so two drivers submitting at once never overwrite each other.
+ * The documents every write touches (all, today's day, the types) are ShardedCounters,
+ * so they don't become a write hotspot; a driver's own document stays a single document.
+ * Bulk writers (CSV import, load generator) add up their rows in an Accumulator and apply it once.
+ *
+ * Filters the rollups can't answer (e.g. a date AND a type, or a minimum mileage) fall back to
+ * a Firestore count()/sum() aggregation query, which is still computed on the server.
+ *
+ * Archived expenses stay counted: ExpenseArchiver leaves the rollups alone when it moves rows out
+ * of Firestore, so the aggregation fallback and rebuild() add the matching archived rows as well.
+ * The fallback takes them from the per-segment totals in the archive index, so it opens no
+ * segments unless the filter has a minimum mileage.
+ */
+public class ExpenseRollups {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExpenseRollups.class);
+
+    static final String COLLECTION = "rollups";
+    static final String ALL = "all";
+    // Markers for Accumulator.flushOnce, kept apart so rebuild() doesn't delete them
+    static final String FLUSHES = "rollupFlushes";
+    // Firestore allows 500 writes per batch
+    private static final int MAX_BATCH = 500;
+    // Shards for the rollups shared by everyone. Can be raised later, never lowered (see ShardedCounter).
+    static final int HOT_SHARDS = 10;
+
+    private final Firestore db;
+    private final ExpenseArchiver archiver;
+
+    // With the archive in the local data directory, like the dashboard and ReimbursementRun use
+    public ExpenseRollups(Firestore db) {
+        this(db, new ExpenseArchiver(db, new LocalArchiveStore()));
+    }
+
+    public ExpenseRollups(Firestore db, ExpenseArchiver archiver) {
+        this.db = db;
+        this.archiver = archiver;
+    }
+
+    // Totals for one rollup document (or one aggregation query)
+    public static class Totals {
+        public long count;
+        public double amount;
+        public double mileage;
+        public long pending;
+
+        void add(long count, double amount, double mileage, long pending) {
+            this.count += count;
+            this.amount += amount;
+            this.mileage += mileage;
+            this.pending += pending;
+        }
+
+        static Totals from(DocumentSnapshot doc) {
+            Totals totals = new Totals();
+            if (doc.exists()) {
+                totals.count = longField(doc, "count");
+                totals.amount = doubleField(doc, "amount");
+                totals.mileage = doubleField(doc, "mileage");
+                totals.pending = longField(doc, "pending");
+            }
+            return totals;
+        }
+
+        // Adds up the shards of one sharded rollup
+        static Totals from(List<DocumentSnapshot> shards) {
+            Totals totals = new Totals();
+            for (DocumentSnapshot shard : shards) {
+                Totals part = from(shard);
+                totals.add(part.count, part.amount, part.mileage, part.pending);
+            }
+            return totals;
+        }
+    }
+
+    // --- Keys ---
+
+    // Every rollup document an expense counts towards
+    static List<String> keysFor(String employeeName, String type, String date) {
+        List<String> keys = new ArrayList<>(4);
+        keys.add(ALL);
+        if (date != null) {
+            keys.add(dayKey(date));
+        }
+        if (employeeName != null) {
+            keys.add(driverKey(employeeName));
+        }
+        if (type != null) {
+            keys.add(typeKey(type));
+        }
+        return keys;
+    }
+
+    static String dayKey(String date) {
+        return "day_" + date;
+    }
+
+    // Document IDs can't contain "/", so driver names are escaped
+    static String driverKey(String employeeName) {
+        return "driver_" + employeeName.replace("%", "%25").replace("/", "%2F");
+    }
+
+    static String typeKey(String type) {
+        return "type_" + type.replace("%", "%25").replace("/", "%2F");
+    }
+
+    // One driver can't write fast enough to need shards; everything else is shared by all drivers
+    static int shardsFor(String key) {
+        return key.startsWith("driver_") ? 1 : HOT_SHARDS;
+    }
+
+    static ShardedCounter counter(Firestore db, String key) {
+        return new ShardedCounter(db.collection(COLLECTION).document(key), shardsFor(key));
+    }
+
+    // --- Updates ---
+
+    // Adds one expense's change to its rollups inside an existing transaction.
+    // countDelta is +1 for a new expense; pendingDelta follows status changes.
+    static void apply(Firestore db, Transaction transaction, String employeeName, String type, String date,
+                      long countDelta, double amountDelta, double mileageDelta, long pendingDelta) {
+        Map<String, Object> increments = increments(countDelta, amountDelta, mileageDelta, pendingDelta);
+        if (increments.isEmpty()) {
+            return;
+        }
+        for (String key : keysFor(employeeName, type, date)) {
+            counter(db, key).increment(transaction, increments);
+        }
+    }
+
+    private static Map<String, Object> increments(long count, double amount, double mileage, long pending) {
+        Map<String, Object> data = new HashMap<>();
+        if (count != 0) data.put("count", FieldValue.increment(count));
+        if (amount != 0) data.put("amount", FieldValue.increment(amount));
+        if (mileage != 0) data.put("mileage", FieldValue.increment(mileage));
+        if (pending != 0) data.put("pending", FieldValue.increment(pending));
+        return data;
+    }
+
+    // Pending count change when an expense moves from oldStatus to newStatus
+    static long pendingDelta(String oldStatus, String newStatus) {
+        return (isPending(newStatus) ? 1 : 0) - (isPending(oldStatus) ? 1 : 0);
+    }
+
+    private static boolean isPending(String status) {
+        return "Pending".equals(status);
+    }
+
+    /**
+     * Adds up rows locally for bulk writers and writes the sums as increments in a few batches,
+     * instead of touching the same "all" document once per row.
+     * add() is thread safe because write callbacks arrive on the client's threads.
+     */
+    public static class Accumulator {
+        private final Map<String, Totals> pending = new HashMap<>();
+
+        public synchronized void add(String employeeName, String type, String date, double amount, double mileage, String status) {
+            long pendingCount = isPending(status) ? 1 : 0;
+            for (String key : keysFor(employeeName, type, date)) {
+                pending.computeIfAbsent(key, ignored -> new Totals()).add(1, amount, mileage, pendingCount);
+            }
+        }
+
+        public void add(Map<String, Object> expense) {
+            add((String) expense.get("employeeName"), (String) expense.get("type"), (String) expense.get("date"),
+                    number(expense.get("amount")), number(expense.get("mileage")), (String) expense.get("status"));
+        }
+
+        private synchronized Map<String, Totals> drain() {
+            Map<String, Totals> snapshot = new TreeMap<>(pending);
+            pending.clear();
+            return snapshot;
+        }
+
+        // Writes everything added so far and starts over
+        public void flushTo(Firestore db) throws ExecutionException, InterruptedException {
+            Map<String, Totals> snapshot = drain();
+            if (snapshot.isEmpty()) {
+                return;
+            }
+            WriteBatch batch = db.batch();
+            int inBatch = 0;
+            for (Map.Entry<String, Totals> entry : snapshot.entrySet()) {
+                Totals t = entry.getValue();
+                counter(db, entry.getKey()).increment(batch, increments(t.count, t.amount, t.mileage, t.pending));
+                if (++inBatch == MAX_BATCH) {
+                    batch.commit().get();
+                    batch = db.batch();
+                    inBatch = 0;
+                }
+            }
+            if (inBatch > 0) {
+                batch.commit().get();
+            }
+        }
+
+        /**
+         * Like flushTo, but safe to repeat. Every batch also creates a marker document named
+         * after flushId, so a batch that was already applied (an import resumed after a crash
+         * between this and its checkpoint) fails that precondition and is skipped instead of
+         * counting the rows twice. Keys go out in sorted order so a repeat makes the same batches.
+         */
+        public void flushOnce(Firestore db, String flushId) throws ExecutionException, InterruptedException {
+            List<Map.Entry<String, Totals>> entries = new ArrayList<>(drain().entrySet());
+            int batchNumber = 0;
+            for (int from = 0; from < entries.size(); from += MAX_BATCH - 1) {
+                WriteBatch batch = db.batch();
+                for (Map.Entry<String, Totals> entry : entries.subList(from, Math.min(entries.size(), from + MAX_BATCH - 1))) {
+                    Totals t = entry.getValue();
+                    counter(db, entry.getKey()).increment(batch, increments(t.count, t.amount, t.mileage, t.pending));
+                }
+                DocumentReference marker = db.collection(FLUSHES).document(flushId + "-" + batchNumber++);
+                batch.create(marker, Map.of("appliedAt", FieldValue.serverTimestamp()));
+                try {
+                    batch.commit().get();
+                } catch (ExecutionException e) {
+                    if (!marker.get().get().exists()) {
+                        throw e;
+                    }
+                    logger.info("Rollup batch {} was already applied, skipping it", marker.getId());
+                }
+            }
+        }
+    }
+
+    // --- Reads ---
+
+    /**
+     * KPI totals for whatever the manager filtered on.
+     * Reads one rollup document when the filter is empty or a single date/type/driver,
+     * otherwise asks Firestore to aggregate the matching expenses.
+     */
+    public Totals totals(ExpenseFilter filter) throws ExecutionException, InterruptedException {
+        ExpenseFilter f = filter.normalized();
+        String key = singleKey(f);
+        if (key != null) {
+            return Totals.from(counter(db, key).readShards());
+        }
+        return aggregate(f);
+    }
+
+    private static String singleKey(ExpenseFilter f) {
+        if (f.status != null || f.minMiles > 0) {
+            return null;
+        }
+        int filters = (f.date != null ? 1 : 0) + (f.type != null ? 1 : 0) + (f.employeeName != null ? 1 : 0);
+        if (filters == 0) return ALL;
+        if (filters > 1) return null;
+        if (f.date != null) return dayKey(f.date);
+        if (f.type != null) return typeKey(f.type);
+        return driverKey(f.employeeName);
+    }
+
+    // Server-side count()/sum() over the matching expenses; only the totals come back over the wire.
+    // The matching archived expenses are added on top, as the single-document rollups include them too.
+    Totals aggregate(ExpenseFilter f) throws ExecutionException, InterruptedException {
+        Totals totals = aggregateLive(f);
+        addArchived(f, totals);
+        return totals;
+    }
+
+    private Totals aggregateLive(ExpenseFilter f) throws ExecutionException, InterruptedException {
+        Query query = db.collection("expenses");
+        if (f.employeeName != null) query = query.whereEqualTo("employeeName", f.employeeName);
+        if (f.date != null) query = query.whereEqualTo("date", f.date);
+        if (f.type != null) query = query.whereEqualTo("type", f.type);
+        if (f.minMiles > 0) query = query.whereGreaterThanOrEqualTo("mileage", f.minMiles);
+
+        AggregateField.SumAggregateField amount = AggregateField.sum("amount");
+        AggregateField.SumAggregateField mileage = AggregateField.sum("mileage");
+        Totals totals = new Totals();
+        if (f.status != null) {
+            AggregateQuerySnapshot result = query.whereEqualTo("status", f.status)
+                    .aggregate(AggregateField.count(), amount, mileage).get().get();
+            totals.count = result.getCount();
+            totals.amount = orZero(result.getDouble(amount));
+            totals.mileage = orZero(result.getDouble(mileage));
+            totals.pending = "Pending".equals(f.status) ? totals.count : 0;
+            return totals;
+        }
+
+        var all = query.aggregate(AggregateField.count(), amount, mileage).get();
+        var pendingOnly = query.whereEqualTo("status", "Pending").count().get();
+        AggregateQuerySnapshot result = all.get();
+        totals.count = result.getCount();
+        totals.amount = orZero(result.getDouble(amount));
+        totals.mileage = orZero(result.getDouble(mileage));
+        totals.pending = pendingOnly.get().getCount();
+        return totals;
+    }
+
+    // Archived expenses are all closed, so they never add to the pending count
+    private void addArchived(ExpenseFilter f, Totals totals) throws ExecutionException {
+        LocalDate day = null;
+        if (f.date != null) {
+            try {
+                day = LocalDate.parse(f.date);
+            } catch (DateTimeParseException e) {
+                return; // the archive only holds proper dates, so nothing in it can match
+            }
+        }
+        try {
+            if (f.minMiles > 0) {
+                // The index only keeps totals, not each expense's mileage, so this one needs the rows
+                archiver.scan(day, day, f.employeeName, expense -> {
+                    if (f.matches(expense)) {
+                        totals.add(1, expense.getAmount(), expense.getMileage(), 0);
+                    }
+                });
+                return;
+            }
+            archiver.scanGroups(day, day, f.employeeName, group -> {
+                if (f.matches(group.driver, group.date, group.type, group.status, 0)) {
+                    totals.add(group.count, group.amount, group.mileage, 0);
+                }
+            });
+        } catch (IOException e) {
+            throw new ExecutionException("Could not read the expense archive", e);
+        }
+    }
+
+    /**
+     * Recomputes every rollup from the expenses collection and the archive.
+     * Needed once for data written before rollups existed, or if they ever drift.
+     * An expense that is in both (an archive run that stopped before deleting it) is counted once.
+     */
+    public long rebuild() throws ExecutionException, InterruptedException {
+        Accumulator accumulator = new Accumulator();
+        Set<String> archivedIds = new HashSet<>();
+        try {
+            archiver.scan(null, null, null, expense -> {
+                if (archivedIds.add(expense.getId())) {
+                    accumulator.add(expense.getEmployeeName(), expense.getType(), expense.getDate(),
+                            expense.getAmount(), expense.getMileage(), expense.getStatus());
+                }
+            });
+        } catch (IOException e) {
+            throw new ExecutionException("Could not read the expense archive", e);
+        }
+        Query base = db.collection("expenses")
+                .select("employeeName", "type", "date", "amount", "mileage", "status")
+                .orderBy(FieldPath.documentId())
+                .limit(2_000);
+        long scanned = 0;
+        DocumentSnapshot last = null;
+        while (true) {
+            List<QueryDocumentSnapshot> docs = (last == null ? base : base.startAfter(last)).get().get().getDocuments();
+            for (QueryDocumentSnapshot doc : docs) {
+                if (archivedIds.contains(doc.getId())) {
+                    continue;
+                }
+                accumulator.add(doc.getString("employeeName"), doc.getString("type"), doc.getString("date"),
+                        doubleField(doc, "amount"), doubleField(doc, "mileage"), doc.getString("status"));
+            }
+            scanned += docs.size();
+            if (docs.size() < 2_000) {
+                break;
+            }
+            last = docs.get(docs.size() - 1);
+        }
+
+        // Clear the old rollups (and their shards) before writing the fresh totals, since they are increments
+        List<DocumentReference> old = new ArrayList<>();
+        for (DocumentReference ref : db.collection(COLLECTION).listDocuments()) {
+            old.add(ref);
+            old.addAll(ShardedCounter.extraShards(ref));
+        }
+        WriteBatch batch = db.batch();
+        int inBatch = 0;
+        for (DocumentReference ref : old) {
+            batch.delete(ref);
+            if (++inBatch == MAX_BATCH) {
+                batch.commit().get();
+                batch = db.batch();
+                inBatch = 0;
+            }
+        }
+        if (inBatch > 0) {
+            batch.commit().get();
+        }
+        accumulator.flushTo(db);
+        logger.info("Rebuilt rollups from {} expenses and {} archived ones", scanned, archivedIds.size());
+        return scanned + archivedIds.size();
+    }
+
+    // --- Helpers ---
+
+    private static double doubleField(DocumentSnapshot doc, String field) {
+        Double value = doc.getDouble(field);
+        return value == null ? 0 : value;
+    }
+
+    private static long longField(DocumentSnapshot doc, String field) {
+        Long value = doc.getLong(field);
+        return value == null ? 0 : value;
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : 0;
+    }
+
+    private static double orZero(Double value) {
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,220 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The expense operations shared by the dashboards and the REST API server.
+ * I pulled these out of the controllers so both the JavaFX screens and ApiServer
+ * go through exactly the same Firestore code.
+ */
+public class ExpenseService {
+
+    private static final String COLLECTION = "expenses";
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final Firestore db;
+    // Null means the app's shared log, opened the first time a status changes
+    private final AuditLog auditLog;
+
+    public ExpenseService(Firestore db) {
+        this(db, null);
+    }
+
+    public ExpenseService(Firestore db, AuditLog auditLog) {
+        this.db = db;
+        this.auditLog = auditLog;
+    }
+
+    // Stores a new "Pending" expense for today and returns it with its new document ID
+    public Expense submit(String employeeName, String type, double amount, double mileage)
+            throws ExecutionException, InterruptedException, DuplicateExpenseException {
+        return submit(employeeName, type, amount, mileage, null, null, 0);
+    }
+
+    // Same as above, but also records the route the driver calculated so the claimed
+    // mileage can later be checked against it (origin/destination may be null)
+    public Expense submit(String employeeName, String type, double amount, double mileage,
+                          String origin, String destination, double routeMiles)
+            throws ExecutionException, InterruptedException, DuplicateExpenseException {
+        return submit(employeeName, type, amount, mileage, origin, destination, routeMiles, null);
+    }
+
+    // And with the ID of a receipt already uploaded to the ReceiptStore (may be null)
+    public Expense submit(String employeeName, String type, double amount, double mileage,
+                          String origin, String destination, double routeMiles, String receiptId)
+            throws ExecutionException, InterruptedException, DuplicateExpenseException {
+        Expense expense = new Expense(null, employeeName, LocalDate.now().toString(), type, amount, mileage, "Pending");
+        if (routeMiles > 0) {
+            expense.setOrigin(origin);
+            expense.setDestination(destination);
+            expense.setRouteMiles(routeMiles);
+        }
+        expense.setReceiptId(receiptId);
+        Map<String, Object> data = ExpenseMapper.toMap(expense);
+
+        // The document ID comes from the content + a time bucket, so the same submission twice
+        // lands on the same document. Recent keys are remembered locally to skip the round trip.
+        long now = System.currentTimeMillis();
+        String key = IdempotencyKeys.forExpense(employeeName, type, amount, mileage, now);
+        String previousKey = IdempotencyKeys.forPreviousBucket(employeeName, type, amount, mileage, now);
+        if (IdempotencyKeys.seenRecently(key)) {
+            throw new DuplicateExpenseException(key);
+        }
+        if (IdempotencyKeys.seenRecently(previousKey)) {
+            throw new DuplicateExpenseException(previousKey);
+        }
+
+        DocumentReference ref = db.collection(COLLECTION).document(key);
+        boolean created = db.runTransaction(transaction -> {
+            if (transaction.get(ref).get().exists()) {
+                return false;
+            }
+            transaction.create(ref, data);
+            ExpenseRollups.apply(db, transaction, employeeName, type, expense.getDate(), 1, amount, mileage, 1);
+            return true;
+        }).get();
+
+        IdempotencyKeys.remember(key);
+        if (!created) {
+            throw new DuplicateExpenseException(key);
+        }
+        expense.setId(key);
+        return expense;
+    }
+
+    // Changes the status of one expense (and the pending counts in its rollups) and records
+    // who did it in the audit log. Returns the status it had before, or null if there is no expense with that ID.
+    public String updateStatus(String expenseId, String newStatus, String manager) throws ExecutionException, InterruptedException {
+        return updateStatus(expenseId, null, newStatus, manager);
+    }
+
+    // The same, but only if the expense is still "Pending", so a decision made from a stale list
+    // can't overwrite someone else's. Returns the status it had: anything other than "Pending"
+    // means it was left alone. Null if there is no expense with that ID.
+    public String updateStatusIfPending(String expenseId, String newStatus, String manager) throws ExecutionException, InterruptedException {
+        return updateStatus(expenseId, "Pending", newStatus, manager);
+    }
+
+    // expectedStatus null means change it whatever it is now
+    private String updateStatus(String expenseId, String expectedStatus, String newStatus, String manager)
+            throws ExecutionException, InterruptedException {
+        // Opened before the change, so a log that can't be opened stops it instead of leaving it unrecorded
+        AuditLog log = auditLog != null ? auditLog : AuditLog.shared();
+        DocumentReference ref = db.collection(COLLECTION).document(expenseId);
+        boolean[] changed = new boolean[1];
+        String oldStatus = db.runTransaction(transaction -> {
+            changed[0] = false;
+            DocumentSnapshot snapshot = transaction.get(ref).get();
+            if (!snapshot.exists()) {
+                return null;
+            }
+            String status = snapshot.getString("status");
+            if (expectedStatus != null && !expectedStatus.equals(status)) {
+                return status == null ? "" : status;
+            }
+            changed[0] = true;
+            transaction.update(ref, "status", newStatus, ExpenseMapper.UPDATED_AT, FieldValue.serverTimestamp());
+            ExpenseRollups.apply(db, transaction, snapshot.getString("employeeName"), snapshot.getString("type"),
+                    snapshot.getString("date"), 0, 0, 0, ExpenseRollups.pendingDelta(status, newStatus));
+            return status == null ? "" : status;
+        }).get();
+
+        // Only after the transaction committed, so the log never shows a change that didn't happen
+        if (changed[0]) {
+            log.append(expenseId, manager, oldStatus, newStatus);
+        }
+        return oldStatus;
+    }
+
+    public Expense get(String expenseId) throws ExecutionException, InterruptedException {
+        // Reads go through the FIRESTORE policy: a timeout instead of hanging, and a hedged second read if it's slow
+        DocumentSnapshot doc = Resilience.FIRESTORE.read(() -> db.collection(COLLECTION).document(expenseId).get().get());
+        if (!doc.exists()) {
+            return null;
+        }
+        return ExpenseMapper.fromDocument(doc);
+    }
+
+    /**
+     * Lists expenses newest first, one page at a time.
+     * Equality filters go to Firestore; the mileage minimum is applied here because Firestore
+     * can't combine a range filter on mileage with ordering by date. The page token is an opaque
+     * cursor (date + document ID of the last row) so paging stays stable while new rows arrive.
+     * Note: each combination of equality filters needs a composite index with date/__name__ descending.
+     */
+    public Page list(ExpenseFilter filter, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        ExpenseFilter f = filter.normalized();
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        Query base = db.collection(COLLECTION);
+        if (f.employeeName != null) base = base.whereEqualTo("employeeName", f.employeeName);
+        if (f.date != null) base = base.whereEqualTo("date", f.date);
+        if (f.type != null) base = base.whereEqualTo("type", f.type);
+        if (f.status != null) base = base.whereEqualTo("status", f.status);
+        base = base.orderBy("date", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+
+        String[] cursor = decodeToken(pageToken);
+        Page page = new Page();
+
+        // Keep reading until the page is full, because the mileage filter can drop rows
+        boolean exhausted = false;
+        while (page.items.size() < size && !exhausted) {
+            Query query = base.limit(size);
+            if (cursor != null) {
+                query = query.startAfter(cursor[0], cursor[1]);
+            }
+            Query pageQuery = query;
+            List<QueryDocumentSnapshot> docs = Resilience.FIRESTORE.read(() -> pageQuery.get().get()).getDocuments();
+            exhausted = docs.size() < size;
+
+            int consumed = 0;
+            while (consumed < docs.size() && page.items.size() < size) {
+                QueryDocumentSnapshot doc = docs.get(consumed++);
+                cursor = new String[]{doc.getString("date"), doc.getId()};
+                Expense expense = ExpenseMapper.fromDocument(doc);
+                if (f.matches(expense)) {
+                    page.items.add(expense);
+                }
+            }
+            if (exhausted && consumed == docs.size()) {
+                cursor = null; // nothing left after this page
+            }
+        }
+
+        page.nextPageToken = cursor == null ? null : encodeToken(cursor[0], cursor[1]);
+        return page;
+    }
+
+    static String encodeToken(String date, String id) {
+        String raw = date + "\n" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String[] decodeToken(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\n", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Bad page token");
+            }
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad page token", e);
+        }
+    }
+
+    // One page of results plus the token to ask for the next one (null on the last page)
+    public static class Page {
+        public final List<Expense> items = new ArrayList<>();
+        public String nextPageToken;
+    }
+}
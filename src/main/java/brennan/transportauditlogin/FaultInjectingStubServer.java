@@ -0,0 +1,255 @@
+package brennan.transportauditlogin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pretend Firebase Auth + Google Maps that misbehaves on purpose, for checking the Resilience layer.
+ *
+ * It answers the same paths the app calls (sign in, reset email, directions, geocode). A share of
+ * requests fail with a 503 (--error-rate), hang for a while (--slow-rate, --slow-ms), or the server
+ * can be told to fail everything (--outage) to watch the circuit breakers open.
+ * Only the password "password" signs in.
+ *
+ * Point the app at it with FIREBASE_AUTH_URL=http://localhost:8089 and GOOGLE_MAPS_URL=http://localhost:8089
+ * in .env, or run the built-in check, which fires --calls requests through AuthService and GoogleRouteProvider:
+ *   FaultInjectingStubServer --error-rate=0.3 --slow-rate=0.1 --slow-ms=3000 --demo --calls=200
+ *
+ * The faults can be changed while it runs: POST /_faults?error=0.5&slow=0.2&slowMs=2000&outage=false
+ */
+public class FaultInjectingStubServer {
+
+    private volatile double errorRate;
+    private volatile double slowRate;
+    private volatile long slowMillis = 3_000;
+    private volatile boolean outage;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedDelays = new AtomicLong();
+    private HttpServer server;
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 256);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/_faults")) {
+                changeFaults(exchange.getRequestURI().getQuery());
+                send(exchange, 200, describe());
+                return;
+            }
+            requests.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < slowRate) {
+                injectedDelays.incrementAndGet();
+                try {
+                    Thread.sleep(slowMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (outage || random.nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "{\"error\":\"injected\"}");
+                return;
+            }
+
+            if (path.endsWith("accounts:signInWithPassword")) {
+                boolean ok = body.contains("\"password\":\"password\"");
+                send(exchange, ok ? 200 : 400, ok ? "{\"idToken\":\"stub\"}" : "{\"error\":{\"message\":\"INVALID_PASSWORD\"}}");
+            } else if (path.endsWith("accounts:sendOobCode")) {
+                send(exchange, 200, "{\"email\":\"stub\"}");
+            } else if (path.equals("/maps/api/directions/json")) {
+                send(exchange, 200, directions(random.nextDouble(1_000, 80_000)));
+            } else if (path.equals("/maps/api/geocode/json")) {
+                send(exchange, 200, geocode(random.nextDouble(40, 41), random.nextDouble(-74, -73)));
+            } else {
+                send(exchange, 404, "{}");
+            }
+        }
+    }
+
+    private void changeFaults(String query) {
+        if (query == null) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            String[] parts = pair.split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "error" -> errorRate = Double.parseDouble(value);
+                case "slow" -> slowRate = Double.parseDouble(value);
+                case "slowMs" -> slowMillis = Long.parseLong(value);
+                case "outage" -> outage = Boolean.parseBoolean(value);
+                default -> { }
+            }
+        }
+    }
+
+    public String describe() {
+        return String.format("stub: %d requests, %d errors injected, %d delayed (error %.2f, slow %.2f x %d ms, outage %s)",
+                requests.get(), injectedErrors.get(), injectedDelays.get(), errorRate, slowRate, slowMillis, outage);
+    }
+
+    private static String directions(double meters) {
+        JsonObject distance = new JsonObject();
+        distance.addProperty("text", String.format("%.1f mi", GoogleMapsService.metersToMiles(meters)));
+        distance.addProperty("value", meters);
+        JsonObject leg = new JsonObject();
+        leg.add("distance", distance);
+        JsonArray legs = new JsonArray();
+        legs.add(leg);
+        JsonObject overview = new JsonObject();
+        overview.addProperty("points", PolylineCodec.encode(new double[]{40.71, -74.0, 40.73, -74.17}));
+        JsonObject route = new JsonObject();
+        route.add("legs", legs);
+        route.add("overview_polyline", overview);
+        JsonArray routes = new JsonArray();
+        routes.add(route);
+        JsonObject root = new JsonObject();
+        root.add("routes", routes);
+        return root.toString();
+    }
+
+    private static String geocode(double lat, double lng) {
+        JsonObject location = new JsonObject();
+        location.addProperty("lat", lat);
+        location.addProperty("lng", lng);
+        JsonObject geometry = new JsonObject();
+        geometry.add("location", location);
+        JsonObject result = new JsonObject();
+        result.addProperty("place_id", "stub-" + lat + "," + lng);
+        result.add("geometry", geometry);
+        result.addProperty("formatted_address", "Stub Street");
+        JsonArray results = new JsonArray();
+        results.add(result);
+        JsonObject root = new JsonObject();
+        root.add("results", results);
+        return root.toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // --- Command line ---
+
+    public static void main(String[] args) throws Exception {
+        FaultInjectingStubServer stub = new FaultInjectingStubServer();
+        int port = 8089;
+        boolean demo = false;
+        int calls = 200;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "port" -> port = Integer.parseInt(value);
+                case "error-rate" -> stub.errorRate = Double.parseDouble(value);
+                case "slow-rate" -> stub.slowRate = Double.parseDouble(value);
+                case "slow-ms" -> stub.slowMillis = Long.parseLong(value);
+                case "outage" -> stub.outage = true;
+                case "demo" -> demo = true;
+                case "calls" -> calls = Integer.parseInt(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        stub.start(demo ? 0 : port);
+        if (!demo) {
+            System.out.println("Stub server on http://localhost:" + stub.port() + " - " + stub.describe());
+            return;
+        }
+        runDemo(stub, calls);
+        stub.stop();
+        System.exit(0);
+    }
+
+    // Fires the calls from many threads at once, like a room full of people clicking, and prints what got through
+    private static void runDemo(FaultInjectingStubServer stub, int calls) throws InterruptedException {
+        String baseUrl = "http://localhost:" + stub.port();
+        AuthService auth = new AuthService(baseUrl, "stub-key", Resilience.AUTH);
+        GoogleRouteProvider maps = new GoogleRouteProvider("stub-key", baseUrl);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                boolean login = i % 2 == 0;
+                futures.add(clients.submit(() -> {
+                    long start = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = login ? auth.verifyPassword("driver@example.com", "password") : maps.getRoute("A", "B") != null;
+                    } catch (ExecutionException e) {
+                        ok = false;
+                    }
+                    latencies.add((System.nanoTime() - start) / 1_000_000);
+                    (ok ? succeeded : failed).incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                }
+            }
+        }
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%d calls: %d succeeded, %d failed%n", calls, succeeded.get(), failed.get());
+        System.out.printf("Latency ms: p50 %d, p95 %d, p99 %d, max %d%n", percentile(sorted, 0.50),
+                percentile(sorted, 0.95), percentile(sorted, 0.99), sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1));
+        System.out.println(stub.describe());
+        System.out.println(Resilience.AUTH.describe());
+        System.out.println(Resilience.MAPS.describe());
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.isEmpty() ? 0 : sorted.get((int) Math.min(sorted.size() - 1, Math.floor(p * sorted.size())));
+    }
+}
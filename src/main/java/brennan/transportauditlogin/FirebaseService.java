@@ -1,41 +1,77 @@
 package brennan.transportauditlogin;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.FirestoreOptions;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
+import io.github.cdimascio.dotenv.Dotenv;
 
 import java.io.IOException;
 import java.io.InputStream;
 
 public class FirebaseService {
 
+    // Project ID used with the emulators when FIREBASE_PROJECT_ID isn't set.
+    // The "demo-" prefix makes the emulators refuse to talk to any real Google service.
+    public static final String DEFAULT_EMULATOR_PROJECT = "demo-transportaudit";
+
+    private static final Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+    // FIRESTORE_EMULATOR_HOST (e.g. localhost:8080) in the environment or the .env file
+    // points the whole app at the local Firestore emulator instead of the real database
+    public static boolean usesEmulator() {
+        String host = dotenv.get("FIRESTORE_EMULATOR_HOST");
+        return host != null && !host.isBlank();
+    }
+
     public static void initialize() {
+        // Initialize the app only if it hasn't been initialized yet
+        if (!FirebaseApp.getApps().isEmpty()) {
+            return;
+        }
         try {
-            // The path to your service account key JSON file
-            // This assumes the file is in 'src/main/resources'
-            String serviceAccountPath = "/transportaudit-9d899-firebase-adminsdk-fbsvc-56357b1945.json";
-
-            // Load the service account file from the resources
-            InputStream serviceAccount = FirebaseService.class.getResourceAsStream(serviceAccountPath);
-
-            if (serviceAccount == null) {
-                throw new IOException("Cannot find " + serviceAccountPath + ". Make sure it's in src/main/resources/");
-            }
-
-            FirebaseOptions options = FirebaseOptions.builder()
-                    .setCredentials(GoogleCredentials.fromStream(serviceAccount))
-                    .setDatabaseUrl("https://transportaudit-9d899-default-rtdb.firebaseio.com") // You can find this in your Firebase console
-                    .build();
-
-            // Initialize the app only if it hasn't been initialized yet
-            if (FirebaseApp.getApps().isEmpty()) {
-                FirebaseApp.initializeApp(options);
-                System.out.println("Firebase has been initialized.");
-            }
+            FirebaseOptions options = usesEmulator() ? emulatorOptions() : productionOptions();
+            FirebaseApp.initializeApp(options);
+            System.out.println("Firebase has been initialized" + (usesEmulator() ? " (emulator)." : "."));
         } catch (IOException e) {
             e.printStackTrace();
             // Handle initialization error (e.g., exit the app)
             System.exit(1);
         }
     }
+
+    private static FirebaseOptions productionOptions() throws IOException {
+        // The path to your service account key JSON file
+        // This assumes the file is in 'src/main/resources'
+        String serviceAccountPath = "/transportaudit-9d899-firebase-adminsdk-fbsvc-56357b1945.json";
+
+        // Load the service account file from the resources
+        InputStream serviceAccount = FirebaseService.class.getResourceAsStream(serviceAccountPath);
+
+        if (serviceAccount == null) {
+            throw new IOException("Cannot find " + serviceAccountPath + ". Make sure it's in src/main/resources/");
+        }
+
+        return FirebaseOptions.builder()
+                .setCredentials(GoogleCredentials.fromStream(serviceAccount))
+                .setDatabaseUrl("https://transportaudit-9d899-default-rtdb.firebaseio.com") // You can find this in your Firebase console
+                .build();
+    }
+
+    // The emulators don't check credentials, so no service account file is needed (or used).
+    // For the Admin SDK's Auth calls, FIREBASE_AUTH_EMULATOR_HOST has to be a real environment
+    // variable because the SDK only reads it from there; AuthService also picks it up from .env.
+    private static FirebaseOptions emulatorOptions() {
+        String projectId = dotenv.get("FIREBASE_PROJECT_ID", DEFAULT_EMULATOR_PROJECT);
+        FirestoreOptions firestore = FirestoreOptions.newBuilder()
+                .setProjectId(projectId)
+                .setEmulatorHost(dotenv.get("FIRESTORE_EMULATOR_HOST"))
+                .build();
+        return FirebaseOptions.builder()
+                .setProjectId(projectId)
+                .setCredentials(GoogleCredentials.create(new AccessToken("owner", null)))
+                .setFirestoreOptions(firestore)
+                .build();
+    }
 }
@@ -0,0 +1,142 @@
+package brennan.transportauditlogin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which place each normalized address resolved to.
+ * It is a bounded LRU (least recently used entries are dropped first) and entries also
+ * expire after a while in case Google's data changes. The whole cache is saved to a small
+ * JSON file so repeat addresses stay free across app restarts.
+ */
+public class GeocodeCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeocodeCache.class);
+
+    // Saving is batched so a burst of lookups doesn't rewrite the file every time
+    private static final int SAVE_EVERY_CHANGES = 20;
+    private static final long SAVE_EVERY_MILLIS = 30_000;
+
+    private final Path file;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, GeocodingService.Place> entries;
+    private int unsavedChanges;
+    private long lastSave = System.currentTimeMillis();
+
+    private long hits;
+    private long misses;
+
+    public GeocodeCache(Path file, int maxEntries, long ttlMillis) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        // "true" makes the map keep access order, which is what turns it into an LRU
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, GeocodingService.Place> eldest) {
+                return size() > GeocodeCache.this.maxEntries;
+            }
+        };
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::save, "geocode-cache-save"));
+    }
+
+    public synchronized GeocodingService.Place get(String key) {
+        GeocodingService.Place place = entries.get(key);
+        if (place != null && System.currentTimeMillis() - place.resolvedAt > ttlMillis) {
+            entries.remove(key);
+            place = null;
+        }
+        if (place == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return place;
+    }
+
+    public synchronized void put(String key, GeocodingService.Place place) {
+        entries.put(key, place);
+        unsavedChanges++;
+        if (unsavedChanges >= SAVE_EVERY_CHANGES || System.currentTimeMillis() - lastSave > SAVE_EVERY_MILLIS) {
+            save();
+        }
+    }
+
+    public synchronized double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized void save() {
+        if (unsavedChanges == 0) {
+            return;
+        }
+        JsonArray array = new JsonArray();
+        for (Map.Entry<String, GeocodingService.Place> entry : entries.entrySet()) {
+            GeocodingService.Place place = entry.getValue();
+            JsonObject json = new JsonObject();
+            json.addProperty("key", entry.getKey());
+            json.addProperty("placeId", place.placeId);
+            json.addProperty("lat", place.lat);
+            json.addProperty("lng", place.lng);
+            json.addProperty("formattedAddress", place.formattedAddress);
+            json.addProperty("resolvedAt", place.resolvedAt);
+            array.add(json);
+        }
+
+        // Write to a temp file first so a crash mid-write can't corrupt the cache
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(array.toString());
+        } catch (IOException e) {
+            logger.warn("Could not save geocode cache: {}", e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            unsavedChanges = 0;
+            lastSave = System.currentTimeMillis();
+        } catch (IOException e) {
+            logger.warn("Could not replace geocode cache file: {}", e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            // The file is written oldest first, so re-inserting keeps the LRU order
+            for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                JsonObject json = element.getAsJsonObject();
+                GeocodingService.Place place = new GeocodingService.Place(
+                        json.get("placeId").getAsString(),
+                        json.get("lat").getAsDouble(),
+                        json.get("lng").getAsDouble(),
+                        json.get("formattedAddress").getAsString(),
+                        json.get("resolvedAt").getAsLong());
+                entries.put(json.get("key").getAsString(), place);
+            }
+            logger.info("Loaded {} cached geocodes", entries.size());
+        } catch (Exception e) {
+            logger.warn("Ignoring unreadable geocode cache {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package brennan.transportauditlogin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Resolves a typed address to a Google place ID and coordinates.
+ * Addresses are normalized first and looked up in the GeocodeCache, so each distinct
+ * address only costs one Geocoding API call no matter how the driver types it.
+ */
+public class GeocodingService {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeocodingService.class);
+
+    private final String apiKey;
+    private final String baseUrl;
+    private final GeocodeCache cache;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final Gson gson = new Gson();
+
+    public GeocodingService(String apiKey, GeocodeCache cache) {
+        this(apiKey, GoogleMapsService.DEFAULT_MAPS_URL, cache);
+    }
+
+    public GeocodingService(String apiKey, String baseUrl, GeocodeCache cache) {
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
+        this.cache = cache;
+    }
+
+    // Returns the place for an address, or null if it can't be resolved right now
+    public Place resolve(String address) {
+        // Coordinates don't need a lookup at all
+        double[] latLng = LocalRouteProvider.parseLatLng(address);
+        if (latLng != null) {
+            return new Place(null, latLng[0], latLng[1], address.trim(), System.currentTimeMillis());
+        }
+
+        String key = AddressNormalizer.normalize(address);
+        if (key.isEmpty()) {
+            return null;
+        }
+
+        Place cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Place place = geocode(address);
+        if (place != null) {
+            cache.put(key, place);
+        }
+        return place;
+    }
+
+    public GeocodeCache getCache() {
+        return cache;
+    }
+
+    private Place geocode(String address) {
+        try {
+            String url = String.format(
+                    "%s/maps/api/geocode/json?address=%s&key=%s",
+                    baseUrl, URLEncoder.encode(address, StandardCharsets.UTF_8), apiKey
+            );
+            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url)).GET().build();
+            HttpResponse<String> response = Resilience.MAPS.read(() -> Resilience.send(httpClient, request));
+            if (response.statusCode() != 200) {
+                logger.warn("Geocoding API returned HTTP {}", response.statusCode());
+                return null;
+            }
+
+            JsonArray results = gson.fromJson(response.body(), JsonObject.class).getAsJsonArray("results");
+            if (results == null || results.isEmpty()) {
+                return null;
+            }
+            JsonObject first = results.get(0).getAsJsonObject();
+            JsonObject location = first.getAsJsonObject("geometry").getAsJsonObject("location");
+            return new Place(
+                    first.get("place_id").getAsString(),
+                    location.get("lat").getAsDouble(),
+                    location.get("lng").getAsDouble(),
+                    first.get("formatted_address").getAsString(),
+                    System.currentTimeMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Geocoding failed for '{}': {}", address, e.getMessage());
+        }
+        return null;
+    }
+
+    // A resolved address. placeId is null when the user typed raw coordinates.
+    public static class Place {
+        public String placeId;
+        public double lat;
+        public double lng;
+        public String formattedAddress;
+        public long resolvedAt;
+
+        public Place(String placeId, double lat, double lng, String formattedAddress, long resolvedAt) {
+            this.placeId = placeId;
+            this.lat = lat;
+            this.lng = lng;
+            this.formattedAddress = formattedAddress;
+            this.resolvedAt = resolvedAt;
+        }
+
+        // The form every RouteProvider understands
+        public String toLatLng() {
+            return lat + "," + lng;
+        }
+
+        // Stable identity for the route cache: the place ID if we have one, otherwise rounded coordinates
+        public String cacheKey() {
+            return placeId != null ? placeId : String.format(Locale.ROOT, "%.5f,%.5f", lat, lng);
+        }
+    }
+}
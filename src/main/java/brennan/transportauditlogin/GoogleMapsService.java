@@ -1,70 +1,119 @@
 package brennan.transportauditlogin;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import io.github.cdimascio.dotenv.Dotenv;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The controllers still only talk to this class, but it now asks a list of RouteProviders in order.
+// If OSM_EXTRACT_PATH is set in the .env file, the offline road graph is tried first and Google is
+// only used as a fallback (set GOOGLE_ROUTE_FALLBACK=false to never call Google at all).
+// Addresses are geocoded (and cached) first, so every provider gets plain coordinates and
+// repeat trips between the same two places are answered from the route cache.
 public class GoogleMapsService {
 
+    private static final Logger logger = LoggerFactory.getLogger(GoogleMapsService.class);
+
     // Load API key from .env file
     private static final Dotenv dotenv = Dotenv.load();
     private static final String API_KEY = dotenv.get("GOOGLE_MAPS_API_KEY");
+    static final String DEFAULT_MAPS_URL = "https://maps.googleapis.com";
+    // Lets the Google calls be pointed at a stub server for testing
+    private static final String MAPS_URL = dotenv.get("GOOGLE_MAPS_URL", DEFAULT_MAPS_URL);
 
-    private final HttpClient httpClient = HttpClient.newHttpClient();
-    private final Gson gson = new Gson();
+    private static final double MILES_PER_METER = 0.000621371;
 
-    public RouteInfo getRouteDetails(String origin, String destination) {
-        try {
-            // Encode addresses (e.g., "New York" -> "New%20York")
-            String encodedOrigin = URLEncoder.encode(origin, StandardCharsets.UTF_8);
-            String encodedDest = URLEncoder.encode(destination, StandardCharsets.UTF_8);
+    // Geocodes are kept for 30 days; routes between two known places are kept in memory only
+    private static final int GEOCODE_CACHE_SIZE = 5_000;
+    private static final long GEOCODE_TTL_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    private static final int ROUTE_CACHE_SIZE = 1_000;
 
-            String url = String.format(
-                    "https://maps.googleapis.com/maps/api/directions/json?origin=%s&destination=%s&key=%s",
-                    encodedOrigin, encodedDest, API_KEY
-            );
+    public RouteInfo getRouteDetails(String origin, String destination) {
+        GeocodingService.Place from = Providers.GEOCODER.resolve(origin);
+        GeocodingService.Place to = Providers.GEOCODER.resolve(destination);
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
+        // If either address can't be geocoded (e.g. we're offline and it isn't cached yet),
+        // I still pass the raw text through so Google gets a chance to make sense of it.
+        if (from == null || to == null) {
+            return askProviders(origin, destination);
+        }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        String routeKey = from.cacheKey() + "|" + to.cacheKey();
+        RouteInfo cached;
+        synchronized (Providers.ROUTES) {
+            cached = Providers.ROUTES.get(routeKey);
+        }
+        if (cached != null) {
+            return cached;
+        }
 
-            if (response.statusCode() == 200) {
-                return parseRoute(response.body());
+        RouteInfo route = askProviders(from.toLatLng(), to.toLatLng());
+        if (route != null && route.polyline == null) {
+            // No shape from the provider: the preview at least gets the two ends
+            route.polyline = PolylineCodec.encode(new double[]{from.lat, from.lng, to.lat, to.lng});
+        }
+        if (route != null) {
+            synchronized (Providers.ROUTES) {
+                Providers.ROUTES.put(routeKey, route);
             }
+        }
+        return route;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    private RouteInfo askProviders(String origin, String destination) {
+        for (RouteProvider provider : Providers.ALL) {
+            long start = System.nanoTime();
+            RouteInfo route = provider.getRoute(origin, destination);
+            if (route != null) {
+                logger.debug("Route answered by {} in {} ms", provider.getName(), (System.nanoTime() - start) / 1_000_000);
+                return route;
+            }
         }
         return null;
     }
 
-    private RouteInfo parseRoute(String json) {
-        try {
-            JsonObject jsonObject = gson.fromJson(json, JsonObject.class);
-            JsonObject route = jsonObject.getAsJsonArray("routes").get(0).getAsJsonObject();
-            JsonObject leg = route.getAsJsonArray("legs").get(0).getAsJsonObject();
+    static double metersToMiles(double meters) {
+        return meters * MILES_PER_METER;
+    }
 
-            // Extract Distance
-            JsonObject distObj = leg.getAsJsonObject("distance");
-            String distText = distObj.get("text").getAsString(); // e.g. "15.4 mi"
-            double distValueMeters = distObj.get("value").getAsDouble();
+    // The providers and caches live in a holder class so the road graph is only loaded the first time
+    // a route is requested, and then shared by every GoogleMapsService instance.
+    private static final class Providers {
+        static final List<RouteProvider> ALL = build();
 
-            // Convert meters to miles
-            double miles = distValueMeters * 0.000621371;
+        static final GeocodingService GEOCODER = new GeocodingService(API_KEY, MAPS_URL,
+                new GeocodeCache(AppPaths.dataDir().resolve("geocode-cache.json"), GEOCODE_CACHE_SIZE, GEOCODE_TTL_MILLIS));
 
-            return new RouteInfo(distText, miles);
-        } catch (Exception e) {
-            System.err.println("Error parsing Maps JSON: " + e.getMessage());
-            return null;
+        // Small LRU of finished routes, keyed by "originPlace|destinationPlace"
+        static final Map<String, RouteInfo> ROUTES = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RouteInfo> eldest) {
+                return size() > ROUTE_CACHE_SIZE;
+            }
+        };
+
+        private static List<RouteProvider> build() {
+            List<RouteProvider> providers = new ArrayList<>();
+
+            String extract = dotenv.get("OSM_EXTRACT_PATH");
+            if (extract != null && !extract.isBlank() && Files.exists(Path.of(extract))) {
+                try {
+                    providers.add(new LocalRouteProvider(RoadGraph.open(Path.of(extract))));
+                } catch (Exception e) {
+                    logger.error("Could not load offline road graph, using Google only", e);
+                }
+            }
+
+            if (!"false".equalsIgnoreCase(dotenv.get("GOOGLE_ROUTE_FALLBACK", "true"))) {
+                providers.add(new GoogleRouteProvider(API_KEY, MAPS_URL));
+            }
+            return List.copyOf(providers);
         }
     }
 
@@ -72,10 +121,17 @@ public class GoogleMapsService {
     public static class RouteInfo {
         public String text;
         public double miles;
+        // The shape of the route in PolylineCodec format, or null if the provider didn't give one
+        public String polyline;
 
         public RouteInfo(String text, double miles) {
             this.text = text;
             this.miles = miles;
         }
+
+        public RouteInfo(String text, double miles, String polyline) {
+            this(text, miles);
+            this.polyline = polyline;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package brennan.transportauditlogin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+// This is the original Google Directions code that used to live in GoogleMapsService.
+// It is now just one RouteProvider, used as the fallback when the offline graph can't answer.
+public class GoogleRouteProvider implements RouteProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(GoogleRouteProvider.class);
+
+    private final String apiKey;
+    private final String baseUrl;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    private final Gson gson = new Gson();
+
+    public GoogleRouteProvider(String apiKey) {
+        this(apiKey, GoogleMapsService.DEFAULT_MAPS_URL);
+    }
+
+    // baseUrl is only different for testing, e.g. against the FaultInjectingStubServer
+    public GoogleRouteProvider(String apiKey, String baseUrl) {
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public GoogleMapsService.RouteInfo getRoute(String origin, String destination) {
+        try {
+            // Encode addresses (e.g., "New York" -> "New%20York")
+            String encodedOrigin = URLEncoder.encode(origin, StandardCharsets.UTF_8);
+            String encodedDest = URLEncoder.encode(destination, StandardCharsets.UTF_8);
+
+            String url = String.format(
+                    "%s/maps/api/directions/json?origin=%s&destination=%s&key=%s",
+                    baseUrl, encodedOrigin, encodedDest, apiKey
+            );
+
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .GET()
+                    .build();
+
+            // Timeouts, retries, hedging and the circuit breaker all come from the MAPS policy.
+            // Directions lookups are read-only, so sending a second one when the first is slow is fine.
+            HttpResponse<String> response = Resilience.MAPS.read(() -> Resilience.send(httpClient, request));
+
+            if (response.statusCode() == 200) {
+                return parseRoute(response.body());
+            }
+            logger.warn("Directions API returned HTTP {}", response.statusCode());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Directions API call failed: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private GoogleMapsService.RouteInfo parseRoute(String json) {
+        try {
+            JsonObject jsonObject = gson.fromJson(json, JsonObject.class);
+            JsonObject route = jsonObject.getAsJsonArray("routes").get(0).getAsJsonObject();
+            JsonObject leg = route.getAsJsonArray("legs").get(0).getAsJsonObject();
+
+            // Extract Distance
+            JsonObject distObj = leg.getAsJsonObject("distance");
+            String distText = distObj.get("text").getAsString(); // e.g. "15.4 mi"
+            double distValueMeters = distObj.get("value").getAsDouble();
+
+            // The simplified shape of the whole route, drawn by the RoutePreview
+            String polyline = null;
+            JsonObject overview = route.getAsJsonObject("overview_polyline");
+            if (overview != null && overview.has("points")) {
+                polyline = overview.get("points").getAsString();
+            }
+
+            return new GoogleMapsService.RouteInfo(distText, GoogleMapsService.metersToMiles(distValueMeters), polyline);
+        } catch (Exception e) {
+            logger.warn("Error parsing Maps JSON: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "google";
+    }
+}
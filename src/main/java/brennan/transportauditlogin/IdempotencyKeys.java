@@ -0,0 +1,66 @@
+package brennan.transportauditlogin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Makes submitting an expense idempotent.
+ * The document ID is a hash of the driver, the content of the expense and a 10 minute time bucket,
+ * so a double-click (or a client retry) writes to the same document instead of creating a second one.
+ * A small in-memory set of recent keys lets us reject the obvious repeats without a round trip.
+ */
+public class IdempotencyKeys {
+
+    static final long BUCKET_MINUTES = 10;
+    private static final int RECENT_LIMIT = 1024;
+    private static final long RECENT_MILLIS = 30 * 60 * 1000;
+
+    // key -> when it was submitted. Access order + size limit makes it a small LRU.
+    private static final Map<String, Long> recent = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > RECENT_LIMIT;
+        }
+    };
+
+    public static String forExpense(String employeeName, String type, double amount, double mileage, long epochMillis) {
+        return forBucket(employeeName, type, amount, mileage, epochMillis / 60_000 / BUCKET_MINUTES);
+    }
+
+    // The key the same expense would have had in the previous time bucket.
+    // Checking both means a double-click right on a bucket boundary is still caught.
+    public static String forPreviousBucket(String employeeName, String type, double amount, double mileage, long epochMillis) {
+        return forBucket(employeeName, type, amount, mileage, epochMillis / 60_000 / BUCKET_MINUTES - 1);
+    }
+
+    private static String forBucket(String employeeName, String type, double amount, double mileage, long bucket) {
+        String content = String.format(Locale.ROOT, "%s|%s|%.2f|%.1f|%d", employeeName, type, amount, mileage, bucket);
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return "exp-" + HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static synchronized boolean seenRecently(String key) {
+        Long when = recent.get(key);
+        if (when == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - when > RECENT_MILLIS) {
+            recent.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    public static synchronized void remember(String key) {
+        recent.put(key, System.currentTimeMillis());
+    }
+}
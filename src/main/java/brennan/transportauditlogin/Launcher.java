@@ -2,12 +2,21 @@ package brennan.transportauditlogin;
 
 import javafx.application.Application;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 public class
 Launcher {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // Initializes Firebase *before* launching the app
         FirebaseService.initialize();
 
+        // "--server" starts the headless REST API instead of the JavaFX window
+        if (Arrays.asList(args).contains("--server")) {
+            ApiServer.startFromCommandLine(args);
+            return;
+        }
+
         // Launch the JavaFX application
         Application.launch(TransportAuditApp.class, args);
     }
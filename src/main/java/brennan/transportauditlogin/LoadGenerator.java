@@ -0,0 +1,428 @@
+package brennan.transportauditlogin;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.*;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.firebase.cloud.FirestoreClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Produces realistic fake expenses for capacity planning.
+ * I replaced the single hard-coded "Demo User" row with this so we can test with real volumes:
+ * a few drivers file most trips (Zipf), weekdays are busier than weekends, amounts follow
+ * a log-normal spread per expense type, and older expenses are much more likely to be closed.
+ * Rows are written with batched writes at a fixed rate. It can also replay concurrent
+ * submit/approve traffic to see how the dashboards behave under load.
+ * Can be run from the manager dashboard or from the command line (see main).
+ */
+public class LoadGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    // Firestore allows at most 500 writes in one batch
+    private static final int MAX_BATCH = 500;
+    private static final int MAX_BATCHES_IN_FLIGHT = 8;
+
+    private static final String[] TYPES = {"Mileage", "Fuel", "Tolls", "Parking", "Maintenance", "Other"};
+    private static final double[] TYPE_WEIGHTS = {0.45, 0.25, 0.10, 0.08, 0.07, 0.05};
+    // Median amount and spread (log-normal sigma) for each type above. Mileage uses miles instead.
+    private static final double[] TYPE_MEDIAN = {25.0, 55.0, 8.0, 12.0, 180.0, 30.0};
+    private static final double[] TYPE_SIGMA = {0.8, 0.35, 0.6, 0.5, 0.9, 1.0};
+
+    private final Firestore db;
+    private final Settings settings;
+    private final Random random;
+    private final double[] driverCumulative;
+
+    // Everything that can be tuned from the command line
+    public static class Settings {
+        public long count = 1_000;
+        public int drivers = 200;
+        public int days = 365;
+        public int writesPerSecond = 500;
+        public int batchSize = MAX_BATCH;
+        public long seed = 42;
+        public String collection = "expenses";
+    }
+
+    public LoadGenerator(Firestore db, Settings settings) {
+        this.db = db;
+        this.settings = settings;
+        this.random = new Random(settings.seed);
+
+        // Zipf weights: driver k files roughly 1/k^1.1 as many trips as the busiest driver
+        driverCumulative = new double[settings.drivers];
+        double total = 0;
+        for (int k = 0; k < settings.drivers; k++) {
+            total += 1.0 / Math.pow(k + 1, 1.1);
+            driverCumulative[k] = total;
+        }
+        for (int k = 0; k < settings.drivers; k++) {
+            driverCumulative[k] /= total;
+        }
+    }
+
+    // --- Generating rows ---
+
+    Map<String, Object> nextExpense(LocalDate today) {
+        int typeIndex = pick(TYPE_WEIGHTS);
+        String type = TYPES[typeIndex];
+        double value = logNormal(TYPE_MEDIAN[typeIndex], TYPE_SIGMA[typeIndex]);
+
+        double miles = 0.0;
+        double amount = value;
+        if ("Mileage".equals(type)) {
+            miles = round(value, 1);
+        }
+
+        LocalDate date = pickDate(today);
+        if ("Mileage".equals(type)) {
+            // The rate in force on the trip's date, so generated claims match what payroll would pay
+            amount = miles * RateTable.shared().mileageRate(date);
+        }
+        Expense expense = new Expense(null, driverName(pickDriver()), date.toString(), type, round(amount, 2), miles,
+                pickStatus(today.toEpochDay() - date.toEpochDay()));
+        return ExpenseMapper.toMap(expense);
+    }
+
+    private int pickDriver() {
+        int index = Arrays.binarySearch(driverCumulative, random.nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, driverCumulative.length - 1);
+    }
+
+    static String driverName(int index) {
+        return String.format("Driver %04d", index + 1);
+    }
+
+    // Weekends get under half the trips of a weekday
+    private LocalDate pickDate(LocalDate today) {
+        while (true) {
+            LocalDate date = today.minusDays(random.nextInt(settings.days));
+            DayOfWeek day = date.getDayOfWeek();
+            boolean weekend = day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+            if (!weekend || random.nextDouble() < 0.4) {
+                return date;
+            }
+        }
+    }
+
+    // New expenses are mostly pending; after two weeks nearly all have been decided
+    private String pickStatus(long ageDays) {
+        double pending = ageDays >= 14 ? 0.05 : 1.0 - ageDays / 16.0;
+        double roll = random.nextDouble();
+        if (roll < pending) {
+            return "Pending";
+        }
+        return roll < pending + (1 - pending) * 0.9 ? "Approved" : "Rejected";
+    }
+
+    private int pick(double[] weights) {
+        double roll = random.nextDouble();
+        for (int i = 0; i < weights.length; i++) {
+            roll -= weights[i];
+            if (roll <= 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private double logNormal(double median, double sigma) {
+        return median * Math.exp(sigma * random.nextGaussian());
+    }
+
+    private static double round(double value, int places) {
+        double scale = Math.pow(10, places);
+        return Math.round(value * scale) / scale;
+    }
+
+    // --- Writing ---
+
+    // Writes settings.count expenses and returns how many were stored
+    public long generate(ProgressListener listener) throws InterruptedException {
+        CollectionReference collection = db.collection(settings.collection);
+        int batchSize = Math.max(1, Math.min(settings.batchSize, MAX_BATCH));
+        // How long each batch should take so we stay at the requested rate
+        long nanosPerBatch = (long) (batchSize * 1e9 / Math.max(1, settings.writesPerSecond));
+
+        Semaphore inFlight = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+        AtomicLong written = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        // Only the real expenses collection has dashboard rollups
+        ExpenseRollups.Accumulator rollups = settings.collection.equals("expenses") ? new ExpenseRollups.Accumulator() : null;
+        LocalDate today = LocalDate.now();
+        long start = System.nanoTime();
+        long nextBatchAt = start;
+
+        for (long done = 0; done < settings.count; ) {
+            WriteBatch batch = db.batch();
+            int size = (int) Math.min(batchSize, settings.count - done);
+            List<DocumentReference> refs = new ArrayList<>(size);
+            List<Map<String, Object>> rows = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                // Deterministic IDs so running the same seed twice doesn't double the data. Rows are
+                // created rather than set, so a rerun leaves the existing ones (and their totals) alone.
+                DocumentReference ref = collection.document("load-" + settings.seed + "-" + (done + i));
+                Map<String, Object> row = nextExpense(today);
+                refs.add(ref);
+                rows.add(row);
+                batch.create(ref, row);
+            }
+            done += size;
+
+            long wait = nextBatchAt - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            nextBatchAt += nanosPerBatch;
+
+            inFlight.acquire();
+            ApiFutures.addCallback(batch.commit(), new ApiFutureCallback<>() {
+                @Override
+                public void onSuccess(List<WriteResult> results) {
+                    written.addAndGet(size);
+                    if (rollups != null) {
+                        rows.forEach(rollups::add);
+                    }
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    // Usually some of these IDs are there from an earlier run with the same seed, which
+                    // fails the whole batch. Going one row at a time still stores (and counts) the new ones.
+                    List<ApiFuture<Void>> singles = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        singles.add(createOne(refs.get(i), rows.get(i), rollups, written, skipped, failed));
+                    }
+                    ApiFutures.successfulAsList(singles).addListener(inFlight::release, MoreExecutors.directExecutor());
+                }
+            }, MoreExecutors.directExecutor());
+
+            if (listener != null) {
+                listener.onProgress(done, settings.count);
+            }
+        }
+
+        // Wait for the last batches to finish
+        inFlight.acquire(MAX_BATCHES_IN_FLIGHT);
+        inFlight.release(MAX_BATCHES_IN_FLIGHT);
+        if (rollups != null) {
+            try {
+                rollups.flushTo(db);
+            } catch (ExecutionException e) {
+                logger.warn("Could not update rollups: {}", e.getMessage());
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("Generated {} expenses ({} already there, {} failed) in {} s, {} writes/sec",
+                written.get(), skipped.get(), failed.get(), String.format("%.1f", seconds),
+                String.format("%.0f", written.get() / seconds));
+        return written.get();
+    }
+
+    // Creates one row and counts it; a row that already exists is counted as skipped instead
+    private static ApiFuture<Void> createOne(DocumentReference ref, Map<String, Object> row,
+                                             ExpenseRollups.Accumulator rollups,
+                                             AtomicLong written, AtomicLong skipped, AtomicLong failed) {
+        ApiFuture<Void> created = ApiFutures.transform(ref.create(row), result -> {
+            written.incrementAndGet();
+            if (rollups != null) {
+                rollups.add(row);
+            }
+            return null;
+        }, MoreExecutors.directExecutor());
+        ApiFuture<Void> checked = ApiFutures.catchingAsync(created, Throwable.class,
+                t -> ApiFutures.transform(ref.get(), snapshot -> {
+                    if (snapshot.exists()) {
+                        skipped.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                        logger.warn("Could not create {}: {}", ref.getId(), t.getMessage());
+                    }
+                    return null;
+                }, MoreExecutors.directExecutor()), MoreExecutors.directExecutor());
+        return ApiFutures.catching(checked, Throwable.class, t -> {
+            failed.incrementAndGet();
+            logger.warn("Could not create {}: {}", ref.getId(), t.getMessage());
+            return null;
+        }, MoreExecutors.directExecutor());
+    }
+
+    public interface ProgressListener {
+        void onProgress(long done, long total);
+    }
+
+    // --- Concurrent traffic replay ---
+
+    // Runs "submitters" drivers filing new expenses and "approvers" managers approving pending
+    // ones at the same time for the given duration, and reports latency percentiles for each.
+    // Everything goes through ExpenseService like the app does, so the rollups and audit log are
+    // kept up to date and their cost is part of the measured latency. That means the replay always
+    // works on the real "expenses" collection; settings.collection only applies to generate().
+    public TrafficReport replayTraffic(int seconds, int submitters, int approvers) throws InterruptedException {
+        ExpenseService service = new ExpenseService(db);
+        CollectionReference collection = db.collection("expenses");
+        LatencyRecorder submitLatency = new LatencyRecorder();
+        LatencyRecorder approveLatency = new LatencyRecorder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        LocalDate today = LocalDate.now();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < submitters; i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        Map<String, Object> data;
+                        synchronized (this) {
+                            data = nextExpense(today);
+                        }
+                        long start = System.nanoTime();
+                        try {
+                            service.submit((String) data.get("employeeName"), (String) data.get("type"),
+                                    (Double) data.get("amount"), (Double) data.get("mileage"));
+                            submitLatency.record(System.nanoTime() - start);
+                        } catch (DuplicateExpenseException e) {
+                            // Same driver, type and amount twice in one time bucket; just draw another
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < approvers; i++) {
+                executor.submit(() -> {
+                    Random local = new Random();
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        List<QueryDocumentSnapshot> pending = collection.whereEqualTo("status", "Pending")
+                                .limit(20).get().get().getDocuments();
+                        if (pending.isEmpty()) {
+                            Thread.sleep(100);
+                            continue;
+                        }
+                        String id = pending.get(local.nextInt(pending.size())).getId();
+                        service.updateStatusIfPending(id, local.nextDouble() < 0.9 ? "Approved" : "Rejected", "load-replay");
+                        approveLatency.record(System.nanoTime() - start);
+                    }
+                    return null;
+                });
+            }
+        }
+
+        TrafficReport report = new TrafficReport(submitLatency, approveLatency, seconds);
+        logger.info("Traffic replay finished:\n{}", report);
+        return report;
+    }
+
+    // Collects latencies in nanoseconds. I only sort once at the end to get percentiles.
+    static class LatencyRecorder {
+        private long[] samples = new long[1024];
+        private int size;
+
+        synchronized void record(long nanos) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = nanos;
+        }
+
+        synchronized int count() {
+            return size;
+        }
+
+        synchronized double percentileMillis(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(size - 1, Math.ceil(percentile / 100.0 * size) - 1);
+            return sorted[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    public static class TrafficReport {
+        public final int submits;
+        public final int approvals;
+        public final double submitP50, submitP95, submitP99;
+        public final double approveP50, approveP95, approveP99;
+        public final int seconds;
+
+        TrafficReport(LatencyRecorder submit, LatencyRecorder approve, int seconds) {
+            this.seconds = seconds;
+            this.submits = submit.count();
+            this.approvals = approve.count();
+            this.submitP50 = submit.percentileMillis(50);
+            this.submitP95 = submit.percentileMillis(95);
+            this.submitP99 = submit.percentileMillis(99);
+            this.approveP50 = approve.percentileMillis(50);
+            this.approveP95 = approve.percentileMillis(95);
+            this.approveP99 = approve.percentileMillis(99);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "Submits:   %d (%.1f/s) p50 %.1f ms, p95 %.1f ms, p99 %.1f ms%n"
+                            + "Approvals: %d (%.1f/s) p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+                    submits, submits / (double) seconds, submitP50, submitP95, submitP99,
+                    approvals, approvals / (double) seconds, approveP50, approveP95, approveP99);
+        }
+    }
+
+    // --- Command line ---
+
+    // Example: --count=2000000 --rate=2000 --drivers=500 --days=730
+    //          --replay=60 --submitters=50 --approvers=5
+    public static void main(String[] args) throws InterruptedException {
+        Settings settings = new Settings();
+        int replaySeconds = 0;
+        int submitters = 20;
+        int approvers = 3;
+
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "count" -> settings.count = Long.parseLong(value);
+                case "drivers" -> settings.drivers = Integer.parseInt(value);
+                case "days" -> settings.days = Integer.parseInt(value);
+                case "rate" -> settings.writesPerSecond = Integer.parseInt(value);
+                case "batch" -> settings.batchSize = Integer.parseInt(value);
+                case "seed" -> settings.seed = Long.parseLong(value);
+                case "collection" -> settings.collection = value;
+                case "replay" -> replaySeconds = Integer.parseInt(value);
+                case "submitters" -> submitters = Integer.parseInt(value);
+                case "approvers" -> approvers = Integer.parseInt(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        FirebaseService.initialize();
+        LoadGenerator generator = new LoadGenerator(FirestoreClient.getFirestore(), settings);
+        if (settings.count > 0) {
+            generator.generate((done, total) -> {
+                if (done % 50_000 < settings.batchSize) {
+                    logger.info("{} / {} expenses queued", done, total);
+                }
+            });
+        }
+        if (replaySeconds > 0) {
+            System.out.println(generator.replayTraffic(replaySeconds, submitters, approvers));
+        }
+        System.exit(0);
+    }
+}
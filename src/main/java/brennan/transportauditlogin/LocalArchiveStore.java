@@ -0,0 +1,56 @@
+package brennan.transportauditlogin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Stand-in for object storage: every object is a file in a folder (the data directory's "archive" by default)
+public class LocalArchiveStore implements ArchiveStore {
+
+    private final Path dir;
+
+    public LocalArchiveStore() {
+        this(AppPaths.dataDir("archive"));
+    }
+
+    public LocalArchiveStore(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void put(String name, byte[] data) throws IOException {
+        // Write to a temp file and rename, so a reader never sees half an object (like a real object store)
+        Path tmp = dir.resolve(name + ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public InputStream open(String name) throws IOException {
+        return Files.newInputStream(dir.resolve(name));
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return Files.exists(dir.resolve(name));
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> !name.endsWith(".tmp"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(dir.resolve(name));
+    }
+}
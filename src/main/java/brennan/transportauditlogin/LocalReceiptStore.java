@@ -0,0 +1,131 @@
+package brennan.transportauditlogin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Stand-in for a storage bucket: receipts are files in the data directory's "receipts" folder.
+ * Chunks are written to a .part file while a hash of the content is worked out on the way, and
+ * commit renames it to <sha-256>.<ext>. The same photo attached twice is stored once.
+ */
+public class LocalReceiptStore implements ReceiptStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalReceiptStore.class);
+    // Receipt IDs are only ever hashes we made, so nothing like "../" can get into a path
+    private static final Pattern RECEIPT_ID = Pattern.compile("^[0-9a-f]{64}\\.[a-z]{3,4}$");
+
+    private final Path dir;
+    private final Path uploads;
+    private final Map<String, Upload> open = new ConcurrentHashMap<>();
+
+    private static final class Upload {
+        final String extension;
+        final Path part;
+        final OutputStream out;
+        final MessageDigest digest;
+        long bytes;
+
+        Upload(String extension, Path part, OutputStream out, MessageDigest digest) {
+            this.extension = extension;
+            this.part = part;
+            this.out = out;
+            this.digest = digest;
+        }
+    }
+
+    public LocalReceiptStore() {
+        this(AppPaths.dataDir("receipts"));
+    }
+
+    public LocalReceiptStore(Path dir) {
+        this.dir = dir;
+        this.uploads = dir.resolve("uploads");
+    }
+
+    @Override
+    public String begin(String extension) throws IOException {
+        if (!EXTENSIONS.contains(extension)) {
+            throw new IOException("Unsupported receipt type: " + extension);
+        }
+        Files.createDirectories(uploads);
+        String uploadId = UUID.randomUUID().toString();
+        Path part = uploads.resolve(uploadId + ".part");
+        try {
+            open.put(uploadId, new Upload(extension, part, Files.newOutputStream(part), MessageDigest.getInstance("SHA-256")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return uploadId;
+    }
+
+    @Override
+    public void append(String uploadId, byte[] chunk, int length) throws IOException {
+        Upload upload = upload(uploadId);
+        if (upload.bytes + length > MAX_BYTES) {
+            throw new IOException("Receipt is too large");
+        }
+        upload.out.write(chunk, 0, length);
+        upload.digest.update(chunk, 0, length);
+        upload.bytes += length;
+    }
+
+    @Override
+    public String commit(String uploadId) throws IOException {
+        Upload upload = upload(uploadId);
+        open.remove(uploadId);
+        upload.out.close();
+        String receiptId = HexFormat.of().formatHex(upload.digest.digest()) + "." + upload.extension;
+        Path target = dir.resolve(receiptId);
+        if (Files.exists(target)) {
+            Files.delete(upload.part);
+        } else {
+            Files.move(upload.part, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        logger.info("Stored receipt {} ({} bytes)", receiptId, upload.bytes);
+        return receiptId;
+    }
+
+    @Override
+    public void abort(String uploadId) {
+        Upload upload = open.remove(uploadId);
+        if (upload == null) {
+            return;
+        }
+        try {
+            upload.out.close();
+            Files.deleteIfExists(upload.part);
+        } catch (IOException e) {
+            logger.warn("Could not clean up receipt upload {}", uploadId, e);
+        }
+    }
+
+    @Override
+    public InputStream open(String receiptId) throws IOException {
+        if (receiptId == null || !RECEIPT_ID.matcher(receiptId).matches()) {
+            throw new IOException("Not a receipt ID: " + receiptId);
+        }
+        return Files.newInputStream(dir.resolve(receiptId));
+    }
+
+    private Upload upload(String uploadId) throws IOException {
+        Upload upload = open.get(uploadId);
+        if (upload == null) {
+            throw new IOException("No upload in progress with ID " + uploadId);
+        }
+        return upload;
+    }
+}
@@ -0,0 +1,299 @@
+package brennan.transportauditlogin;
+
+import java.util.Arrays;
+
+/**
+ * Works out driving distances offline using a RoadGraph loaded from an OpenStreetMap extract.
+ * It only understands "lat,lng" positions because it has no address lookup of its own,
+ * so for plain street addresses it returns null and GoogleMapsService falls back to Google.
+ */
+public class LocalRouteProvider implements RouteProvider {
+
+    // Size of one spatial grid cell in micro-degrees (about 1km)
+    private static final int CELL_E6 = 10_000;
+    // How far (in cells) I look for the closest road before giving up
+    private static final int MAX_SNAP_RING = 5;
+    private static final double METERS_PER_DEGREE = 111_195;
+    // Enough points for a preview a few hundred pixels wide
+    private static final int MAX_PREVIEW_POINTS = 500;
+
+    private final RoadGraph graph;
+
+    // Spatial grid: node ids sorted by cell, so the nodes of one cell are a contiguous run
+    private final long[] cellKeys;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    // Scratch arrays for A*, reused between searches. The "stamp" trick means I never
+    // have to clear them: a node only counts as visited if its stamp matches this search.
+    private final float[] bestDistance;
+    // The node each best distance came from, to walk the path back for the preview
+    private final int[] parent;
+    private final int[] stamp;
+    private int currentStamp;
+    private int[] heapNodes = new int[1024];
+    private float[] heapKeys = new float[1024];
+    private int heapSize;
+
+    public LocalRouteProvider(RoadGraph graph) {
+        this.graph = graph;
+        int n = graph.nodeCount();
+        this.bestDistance = new float[n];
+        this.parent = new int[n];
+        this.stamp = new int[n];
+
+        // Sort the nodes by cell key so lookups are just a binary search
+        long[] keyOfNode = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keyOfNode[i] = cellKey(Math.floorDiv(graph.latE6[i], CELL_E6), Math.floorDiv(graph.lonE6[i], CELL_E6));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keyOfNode[a], keyOfNode[b]));
+
+        cellNodes = new int[n];
+        long[] keys = new long[n];
+        int[] starts = new int[n + 1];
+        int cells = 0;
+        for (int i = 0; i < n; i++) {
+            cellNodes[i] = order[i];
+            long key = keyOfNode[order[i]];
+            if (cells == 0 || keys[cells - 1] != key) {
+                keys[cells] = key;
+                starts[cells] = i;
+                cells++;
+            }
+        }
+        starts[cells] = n;
+        cellKeys = Arrays.copyOf(keys, cells);
+        cellStart = Arrays.copyOf(starts, cells + 1);
+    }
+
+    @Override
+    public synchronized GoogleMapsService.RouteInfo getRoute(String origin, String destination) {
+        double[] from = parseLatLng(origin);
+        double[] to = parseLatLng(destination);
+        if (from == null || to == null) {
+            return null;
+        }
+
+        int source = nearestNode(from[0], from[1]);
+        int target = nearestNode(to[0], to[1]);
+        if (source < 0 || target < 0) {
+            return null;
+        }
+
+        double meters = shortestPathMeters(source, target);
+        if (Double.isInfinite(meters)) {
+            return null;
+        }
+        double miles = GoogleMapsService.metersToMiles(meters);
+        return new GoogleMapsService.RouteInfo(String.format("%.1f mi", miles), miles, pathPolyline(source, target));
+    }
+
+    // The nodes of the last search from target back to source, turned into a polyline.
+    // Long routes have tens of thousands of nodes, so only every few are kept (the ends always are).
+    private String pathPolyline(int source, int target) {
+        int length = 1;
+        for (int node = target; node != source; node = parent[node]) {
+            length++;
+        }
+        int step = Math.max(1, length / MAX_PREVIEW_POINTS);
+        double[] points = new double[(length / step + 3) * 2];
+        int count = 0;
+        int index = 0;
+        for (int node = target; ; node = parent[node], index++) {
+            if (node == source || node == target || index % step == 0) {
+                points[count++] = graph.lat(node);
+                points[count++] = graph.lon(node);
+            }
+            if (node == source) {
+                break;
+            }
+        }
+        // Walked backwards, so flip it to start at the origin
+        double[] forward = new double[count];
+        for (int i = 0; i < count; i += 2) {
+            forward[i] = points[count - 2 - i];
+            forward[i + 1] = points[count - 1 - i];
+        }
+        return PolylineCodec.encode(forward);
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    // A* search over the CSR arrays with a plain binary heap of (node, key) pairs.
+    // Nodes can sit in the heap more than once; stale entries are skipped when popped.
+    double shortestPathMeters(int source, int target) {
+        if (++currentStamp == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            currentStamp = 1;
+        }
+        heapSize = 0;
+
+        double targetLat = graph.lat(target);
+        double targetLon = graph.lon(target);
+
+        setDistance(source, 0f, source);
+        push(source, (float) estimate(source, targetLat, targetLon));
+
+        while (heapSize > 0) {
+            float key = heapKeys[0];
+            int node = pop();
+            float distance = bestDistance[node];
+            if (node == target) {
+                return distance;
+            }
+            // Skip entries that were pushed before a shorter path to this node was found
+            if (key > distance + estimate(node, targetLat, targetLon) + 0.5f) {
+                continue;
+            }
+            for (int e = graph.edgeStart[node]; e < graph.edgeStart[node + 1]; e++) {
+                int next = graph.edgeTarget[e];
+                float candidate = distance + graph.edgeMeters[e];
+                if (stamp[next] != currentStamp || candidate < bestDistance[next]) {
+                    setDistance(next, candidate, node);
+                    push(next, candidate + (float) estimate(next, targetLat, targetLon));
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    private double estimate(int node, double targetLat, double targetLon) {
+        return RoadGraph.haversineMeters(graph.lat(node), graph.lon(node), targetLat, targetLon);
+    }
+
+    private void setDistance(int node, float distance, int from) {
+        stamp[node] = currentStamp;
+        bestDistance[node] = distance;
+        parent[node] = from;
+    }
+
+    // Finds the road node closest to a position, searching outwards ring by ring through the grid
+    int nearestNode(double lat, double lng) {
+        int latE6 = (int) Math.round(lat * 1e6);
+        int lonE6 = (int) Math.round(lng * 1e6);
+        int cellLat = Math.floorDiv(latE6, CELL_E6);
+        int cellLon = Math.floorDiv(lonE6, CELL_E6);
+
+        int best = -1;
+        double bestMeters = Double.MAX_VALUE;
+        for (int ring = 0; ring <= MAX_SNAP_RING; ring++) {
+            for (int dLat = -ring; dLat <= ring; dLat++) {
+                for (int dLon = -ring; dLon <= ring; dLon++) {
+                    if (Math.max(Math.abs(dLat), Math.abs(dLon)) != ring) {
+                        continue; // inner cells were already checked
+                    }
+                    int cell = Arrays.binarySearch(cellKeys, cellKey(cellLat + dLat, cellLon + dLon));
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int node = cellNodes[i];
+                        double meters = RoadGraph.haversineMeters(lat, lng, graph.lat(node), graph.lon(node));
+                        if (meters < bestMeters) {
+                            bestMeters = meters;
+                            best = node;
+                        }
+                    }
+                }
+            }
+            // Anything in the next rings is at least this far away, so once the best node so far
+            // is closer than that it must be the nearest. (Square cells need more than one extra ring.)
+            if (best >= 0 && bestMeters <= metersBeyondRing(lat, lng, cellLat, cellLon, ring)) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    // A lower bound for the distance from the point to any position outside the square of cells
+    // made by rings 0..ring around it
+    private static double metersBeyondRing(double lat, double lng, int cellLat, int cellLon, int ring) {
+        double south = (double) (cellLat - ring) * CELL_E6 / 1e6;
+        double north = (double) (cellLat + ring + 1) * CELL_E6 / 1e6;
+        double west = (double) (cellLon - ring) * CELL_E6 / 1e6;
+        double east = (double) (cellLon + ring + 1) * CELL_E6 / 1e6;
+        // Degrees of longitude shrink towards the poles, so use the latitude where they are shortest
+        double widestLat = Math.min(90, Math.max(Math.abs(south), Math.abs(north)));
+        double latGap = Math.min(lat - south, north - lat) * METERS_PER_DEGREE;
+        double lonGap = Math.min(lng - west, east - lng) * METERS_PER_DEGREE * Math.cos(Math.toRadians(widestLat));
+        // A little slack for the flat approximation
+        return Math.max(0, Math.min(latGap, lonGap)) * 0.99;
+    }
+
+    private static long cellKey(int cellLat, int cellLon) {
+        return ((long) cellLat << 32) | (cellLon & 0xffffffffL);
+    }
+
+    // Accepts "40.7128,-74.0060" style input, anything else returns null
+    static double[] parseLatLng(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.trim().split("\\s*,\\s*");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            double lat = Double.parseDouble(parts[0]);
+            double lng = Double.parseDouble(parts[1]);
+            if (Math.abs(lat) > 90 || Math.abs(lng) > 180) {
+                return null;
+            }
+            return new double[]{lat, lng};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // --- Binary min-heap on primitive arrays ---
+
+    private void push(int node, float key) {
+        if (heapSize == heapNodes.length) {
+            heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapNodes[i] = heapNodes[parent];
+            heapKeys[i] = heapKeys[parent];
+            i = parent;
+        }
+        heapNodes[i] = node;
+        heapKeys[i] = key;
+    }
+
+    private int pop() {
+        int top = heapNodes[0];
+        int lastNode = heapNodes[--heapSize];
+        float lastKey = heapKeys[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (heapKeys[child] >= lastKey) {
+                break;
+            }
+            heapNodes[i] = heapNodes[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapNodes[i] = lastNode;
+        heapKeys[i] = lastKey;
+        return top;
+    }
+}
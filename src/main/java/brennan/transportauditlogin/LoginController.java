@@ -1,14 +1,11 @@
 package brennan.transportauditlogin;
 
-import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.UserRecord;
 import com.google.firebase.cloud.FirestoreClient;
-import com.google.gson.Gson;
-import io.github.cdimascio.dotenv.Dotenv;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -24,13 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URL;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Controller for the Login Screen.
@@ -43,11 +34,17 @@ public class LoginController {
     // This removes the warnings and is better for debugging.
     private static final Logger logger = LoggerFactory.getLogger(LoginController.class);
 
-    // Loads the API keys from the .env file so they aren't hardcoded in the code
-    private static final Dotenv dotenv = Dotenv.load();
-    private static final String FIREBASE_WEB_API_KEY = dotenv.get("FIREBASE_API_KEY");
+    // The password check and reset email (with timeouts, retries and a circuit breaker).
+    // The API key still comes from the .env file so it isn't hardcoded.
+    private final AuthService auth = AuthService.fromEnv();
 
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    // The password check and profile lookup run in here so the window doesn't freeze while they wait.
+    // It is closed as soon as we leave this screen.
+    private final TaskScope tasks = new TaskScope("login");
+
+    // Who logged in; null username means the password was wrong
+    private record LoginResult(String username, boolean manager) {
+    }
 
     @FXML private GridPane rootPane;
     @FXML private TextField emailField;
@@ -87,65 +84,53 @@ public class LoginController {
             return;
         }
 
-        try {
-            // 1. Verify Password via REST API because the Admin SDK doesn't check passwords
-            if (!verifyPassword(email, password)) {
-                showAlert(Alert.AlertType.ERROR, "Login Failed", "Invalid email or password.");
-                passwordField.clear();
-                return;
-            }
-
-            // 2. Get the User Record to find their username
-            UserRecord userRecord = FirebaseAuth.getInstance().getUserByEmail(email);
-            String username = userRecord.getDisplayName();
-
-            // Fallback: If no username is set, just use the email
-            if (username == null || username.isEmpty()) {
-                username = email;
-            }
-
-            // 3. Check Firestore to see if they are a "Manager" or "Driver"
-            Firestore db = FirestoreClient.getFirestore();
-            ApiFuture<DocumentSnapshot> future = db.collection("users").document(userRecord.getUid()).get();
-            DocumentSnapshot document = future.get();
+        tasks.<LoginResult>task("login", BackgroundTasks.Resource.AUTH)
+                .onSuccess(result -> {
+                    if (result.username() == null) {
+                        showAlert(Alert.AlertType.ERROR, "Login Failed", "Invalid email or password.");
+                        passwordField.clear();
+                    } else if (result.manager()) {
+                        // 4. Send them to the correct dashboard based on their role
+                        openManagerDashboard(result.username());
+                    } else {
+                        // I removed the email parameter here because we don't need it anymore.
+                        openDriverDashboard(result.username());
+                    }
+                })
+                .onFailure(e -> {
+                    if (e instanceof FirebaseAuthException) {
+                        showAlert(Alert.AlertType.ERROR, "Login Failed", "User not found or database error.");
+                    } else if (e.getCause() instanceof Resilience.CircuitOpenException
+                            || e.getCause() instanceof Resilience.RateLimitedException) {
+                        showAlert(Alert.AlertType.ERROR, "Login Unavailable", e.getCause().getMessage());
+                    } else {
+                        showAlert(Alert.AlertType.ERROR, "System Error", "An unexpected error occurred.");
+                    }
+                })
+                .start(progress -> login(email, password));
+    }
 
-            String role = "N/A";
-            if (document.exists()) {
-                role = document.getString("role");
-            }
+    // Runs in the background: everything here waits on Firebase
+    private LoginResult login(String email, String password) throws Exception {
+        // 1. Verify Password via REST API because the Admin SDK doesn't check passwords
+        if (!auth.verifyPassword(email, password)) {
+            return new LoginResult(null, false);
+        }
 
-            // 4. Send them to the correct dashboard based on their role
-            if ("Manager".equalsIgnoreCase(role)) {
-                openManagerDashboard(username);
-            } else {
-                // I removed the email parameter here because we don't need it anymore.
-                openDriverDashboard(username);
-            }
+        // 2. Get the User Record to find their username
+        UserRecord userRecord = FirebaseAuth.getInstance().getUserByEmail(email);
+        String username = userRecord.getDisplayName();
 
-        } catch (FirebaseAuthException e) {
-            showAlert(Alert.AlertType.ERROR, "Login Failed", "User not found or database error.");
-        } catch (Exception e) {
-            logger.error("Login system error", e); // Fixed warning by using logger
-            showAlert(Alert.AlertType.ERROR, "System Error", "An unexpected error occurred.");
+        // Fallback: If no username is set, just use the email
+        if (username == null || username.isEmpty()) {
+            username = email;
         }
-    }
 
-    // Helper method to check the password with Firebase
-    private boolean verifyPassword(String email, String password) throws IOException, InterruptedException {
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("email", email);
-        payload.put("password", password);
-        payload.put("returnSecureToken", true);
-        String jsonPayload = new Gson().toJson(payload);
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://identitytoolkit.googleapis.com/v1/accounts:signInWithPassword?key=" + FIREBASE_WEB_API_KEY))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
-                .build();
-
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        return response.statusCode() == 200;
+        // 3. Check Firestore to see if they are a "Manager" or "Driver"
+        Firestore db = FirestoreClient.getFirestore();
+        DocumentSnapshot document = Resilience.FIRESTORE.read(() -> db.collection("users").document(userRecord.getUid()).get().get());
+        UserProfile profile = UserProfileMapper.fromDocument(document);
+        return new LoginResult(username, profile != null && profile.isManager());
     }
 
     // --- Navigation Methods ---
@@ -160,6 +145,7 @@ public class LoginController {
             managerController.setManagerName(username);
 
             Stage stage = (Stage) emailField.getScene().getWindow();
+            tasks.close();
             stage.setScene(scene);
             stage.centerOnScreen();
             SessionManager.startSessionTimer(scene, stage);
@@ -180,6 +166,7 @@ public class LoginController {
             driverController.setDriverProfile(username);
 
             Stage stage = (Stage) emailField.getScene().getWindow();
+            tasks.close();
             stage.setScene(scene);
             stage.centerOnScreen();
             SessionManager.startSessionTimer(scene, stage);
@@ -194,6 +181,7 @@ public class LoginController {
             FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/register-view.fxml"));
             Scene scene = new Scene(fxmlLoader.load(), 450, 400);
             Stage stage = (Stage) ((Node) event.getSource()).getScene().getWindow();
+            tasks.close();
             stage.setScene(scene);
         } catch (IOException e) {
             logger.error("Failed to open Register View", e); // Fixed warning
@@ -207,32 +195,16 @@ public class LoginController {
             showAlert(Alert.AlertType.WARNING, "Forgot Password", "Please enter your email address first.");
             return;
         }
-        try {
-            boolean success = sendPasswordResetEmail(email);
-            if (success) {
-                showAlert(Alert.AlertType.INFORMATION, "Email Sent", "If an account exists, a reset link has been sent.");
-            } else {
-                showAlert(Alert.AlertType.ERROR, "Error", "Could not send reset email. Check address.");
-            }
-        } catch (Exception e) {
-            logger.error("Forgot Password error", e); // Fixed warning
-            showAlert(Alert.AlertType.ERROR, "Error", "An unexpected error occurred.");
-        }
-    }
-
-    private boolean sendPasswordResetEmail(String email) throws IOException, InterruptedException {
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("requestType", "PASSWORD_RESET");
-        payload.put("email", email);
-        String jsonPayload = new Gson().toJson(payload);
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://identitytoolkit.googleapis.com/v1/accounts:sendOobCode?key=" + FIREBASE_WEB_API_KEY))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonPayload))
-                .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        return response.statusCode() == 200;
+        tasks.<Boolean>task("password-reset", BackgroundTasks.Resource.AUTH)
+                .onSuccess(success -> {
+                    if (success) {
+                        showAlert(Alert.AlertType.INFORMATION, "Email Sent", "If an account exists, a reset link has been sent.");
+                    } else {
+                        showAlert(Alert.AlertType.ERROR, "Error", "Could not send reset email. Check address.");
+                    }
+                })
+                .onFailure(e -> showAlert(Alert.AlertType.ERROR, "Error", "An unexpected error occurred."))
+                .start(progress -> auth.sendPasswordResetEmail(email));
     }
 
     private void showAlert(Alert.AlertType alertType, String title, String message) {
@@ -1,18 +1,20 @@
 package brennan.transportauditlogin;
 
-import com.lowagie.text.Document;
-import com.lowagie.text.Paragraph;
-import com.lowagie.text.pdf.PdfWriter;
-import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.StackPane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.slf4j.Logger;
@@ -22,9 +24,23 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 public class ManagerDashboardController {
 
@@ -49,22 +65,133 @@ public class ManagerDashboardController {
     @FXML private TableColumn<Expense, Double> colAmount;
     @FXML private TableColumn<Expense, Double> colMileage;
     @FXML private TableColumn<Expense, String> colStatus;
+    @FXML private TableColumn<Expense, Double> colRisk;
+    @FXML private TableColumn<Expense, String> colReceipt;
+    @FXML private Label statusLabel;
 
     // This list holds the data that gets shown in the table
     private final ObservableList<Expense> expenseList = FXCollections.observableArrayList();
 
+    // Scores each expense against the driver's own history so odd claims stand out
+    private final AnomalyScorer anomalyScorer = new AnomalyScorer();
+
+    // Columnar copy of every loaded expense for the Trends window
+    private final ExpenseCube cube = new ExpenseCube();
+
+    // Old closed expenses live in archive files instead of Firestore. They are read once
+    // in the background (for Trends) and again only after another archive run.
+    private final ExpenseArchiver archiver = new ExpenseArchiver(FirestoreClient.getFirestore(), new LocalArchiveStore());
+    private final ReceiptStore receiptStore = new LocalReceiptStore();
+    private final ThumbnailCache thumbnails = new ThumbnailCache(receiptStore);
+    private List<Expense> archivedExpenses = List.of();
+
+    private String managerName = "";
+
+    // Live copy of the expenses with cached filter results, shut down on logout
+    // Its change listener keeps the risk scores current (see onExpensesChanged)
+    private final ExpenseQueryCache queryCache = new ExpenseQueryCache(FirestoreClient.getFirestore(), this::onExpensesChanged);
+    private final Map<String, ExpenseRollups.Totals> kpiCache = new HashMap<>();
+    // Weekly and monthly reports made in the background while the dashboard is idle
+    private final ReportScheduler reports = new ReportScheduler(FirestoreClient.getFirestore(), ReportScheduler.Settings.fromEnv());
+    private long loadedVersion = -1;
+    private long kpiRequest;
+
+    // Everything slow this screen starts runs in here, and it is all cancelled on logout
+    private final TaskScope tasks = new TaskScope("manager");
+
     // This method runs automatically when the screen loads
     @FXML
     public void initialize() {
+        SessionManager.addLogoutHook(tasks::close);
+        SessionManager.addLogoutHook(queryCache::close);
+        SessionManager.addLogoutHook(thumbnails::close);
+        SessionManager.addLogoutHook(reports::close);
+        setupIdleRelease();
+        setupReports();
         setupTable();
         // I populate the filter dropdown here so I don't have to do it manually in SceneBuilder
         filterType.setItems(FXCollections.observableArrayList("All", "Mileage", "Fuel", "Maintenance", "Tolls", "Other"));
         filterType.getSelectionModel().selectFirst();
-        loadData();
+        waitForExpenses();
+        loadArchive();
+    }
+
+    // The cache gets the whole collection once and then only the changes, so only
+    // the first load has to wait. That wait happens in the background.
+    private void waitForExpenses() {
+        setStatus("Loading expenses...");
+        tasks.<Boolean>task("expense-cache", BackgroundTasks.Resource.FIRESTORE)
+                .onSuccess(ready -> {
+                    setStatus("");
+                    if (ready) {
+                        loadData();
+                    } else {
+                        showAlert("Error", "Could not load expenses from the database.");
+                    }
+                })
+                .start(progress -> queryCache.awaitReady(30, TimeUnit.SECONDS));
+    }
+
+    // A dashboard left open over lunch shouldn't keep every expense in memory and a live Firestore
+    // listener running. After 2 minutes without input the table rows go, after 4 the cache, the
+    // listener, the archive rows and the trends data go too. The first input afterwards loads it all again.
+    private void setupIdleRelease() {
+        SessionManager.addIdleListener(120, new SessionManager.IdleListener() {
+            @Override
+            public void onIdle() {
+                expenseList.clear();
+                kpiCache.clear();
+                thumbnails.clearMemory();
+            }
+
+            @Override
+            public void onActive() {
+                loadData();
+            }
+        });
+        SessionManager.addIdleListener(240, new SessionManager.IdleListener() {
+            @Override
+            public void onIdle() {
+                logger.info("Dashboard idle, releasing cached expenses");
+                queryCache.suspend();
+                archivedExpenses = List.of();
+                cube.clear();
+                synchronized (anomalyScorer) {
+                    anomalyScorer.reset();
+                }
+                loadedVersion = -1;
+            }
+
+            @Override
+            public void onActive() {
+                queryCache.resume();
+                waitForExpenses();
+                loadArchive();
+            }
+        });
+    }
+
+    // The scheduler only makes reports while nobody is using the dashboard
+    private void setupReports() {
+        reports.setUserActive(true);
+        SessionManager.addIdleListener(reports.idleSeconds(), new SessionManager.IdleListener() {
+            @Override
+            public void onIdle() {
+                reports.setUserActive(false);
+            }
+
+            @Override
+            public void onActive() {
+                reports.setUserActive(true);
+            }
+        });
+        reports.start();
     }
 
     // Called by the Login screen to greet the manager by name
     public void setManagerName(String username) {
+        // Kept so approvals and rejections are recorded under this name in the audit log
+        managerName = username;
         if (welcomeLabel != null) {
             welcomeLabel.setText("Welcome, " + username);
         }
@@ -83,68 +210,206 @@ public class ManagerDashboardController {
         // It makes the cost column look like money ($10.00) instead of just a number (10.0).
         // This also fixed a "duplicate code" warning I was getting.
         colAmount.setCellFactory(FormatUtils.getCurrencyCellFactory());
+
+        // Risk column: the number is sortable like any other column, and hovering shows why it was flagged
+        colRisk.setCellValueFactory(new PropertyValueFactory<>("riskScore"));
+        colRisk.setCellFactory(ignored -> new TableCell<>() {
+            @Override
+            protected void updateItem(Double item, boolean empty) {
+                super.updateItem(item, empty);
+                Expense expense = getTableRow() == null ? null : getTableRow().getItem();
+                if (empty || item == null || expense == null) {
+                    setText(null);
+                    setTooltip(null);
+                    setStyle("");
+                    return;
+                }
+                setText(String.format("%.0f", item));
+                setStyle(item >= AnomalyScorer.REVIEW_THRESHOLD ? "-fx-text-fill: red; -fx-font-weight: bold;" : "");
+                String reasons = expense.getRiskReasons();
+                setTooltip(reasons == null || reasons.isEmpty() ? null : new Tooltip(reasons));
+            }
+        });
+
+        // Receipt column: a small picture, made in the background the first time (see ThumbnailCache).
+        // Cells are reused while scrolling, so a thumbnail that arrives late is only shown if the
+        // cell still holds the same receipt. Double-clicking opens the full photo.
+        colReceipt.setCellValueFactory(new PropertyValueFactory<>("receiptId"));
+        colReceipt.setCellFactory(ignored -> new TableCell<>() {
+            private final ImageView view = new ImageView();
+
+            {
+                view.setFitHeight(24);
+                view.setPreserveRatio(true);
+                setOnMouseClicked(click -> {
+                    if (click.getClickCount() == 2 && getItem() != null) {
+                        showReceipt(getItem());
+                    }
+                });
+            }
+
+            @Override
+            protected void updateItem(String receiptId, boolean empty) {
+                super.updateItem(receiptId, empty);
+                setText(null);
+                if (empty || receiptId == null) {
+                    setGraphic(null);
+                    return;
+                }
+                Image cached = thumbnails.getIfLoaded(receiptId);
+                if (cached != null) {
+                    view.setImage(cached);
+                    setGraphic(view);
+                    return;
+                }
+                setGraphic(null);
+                setText("...");
+                thumbnails.load(receiptId).whenComplete((image, error) -> Platform.runLater(() -> {
+                    if (!receiptId.equals(getItem())) {
+                        return;
+                    }
+                    if (error != null) {
+                        setText("?");
+                        return;
+                    }
+                    setText(null);
+                    view.setImage(image);
+                    setGraphic(view);
+                }));
+            }
+        });
+    }
+
+    // The full-size receipt in its own window, read from the store off the FX thread
+    private void showReceipt(String receiptId) {
+        tasks.<Image>task("receipt", BackgroundTasks.Resource.DISK)
+                .onSuccess(image -> {
+                    ImageView view = new ImageView(image);
+                    view.setPreserveRatio(true);
+                    view.setFitWidth(Math.min(image.getWidth(), 800));
+                    view.setFitHeight(Math.min(image.getHeight(), 700));
+                    Scene scene = new Scene(new StackPane(view));
+                    SessionManager.watchScene(scene);
+                    Stage stage = new Stage();
+                    stage.setTitle("TransportAudit - Receipt");
+                    stage.setScene(scene);
+                    stage.show();
+                })
+                .onFailure(e -> showAlert("Error", "Could not open the receipt."))
+                .start(progress -> {
+                    try (InputStream in = receiptStore.open(receiptId)) {
+                        return new Image(in);
+                    }
+                });
     }
 
     @FXML
     private void loadData() {
+        // Still waiting for the first snapshot; initialize() calls this again once it's here
+        if (!queryCache.isReady()) {
+            return;
+        }
         expenseList.clear(); // Clear the list first so we don't get duplicates
-        Firestore db = FirestoreClient.getFirestore();
-        ApiFuture<QuerySnapshot> future = db.collection("expenses").get();
-
-        try {
-            List<QueryDocumentSnapshot> documents = future.get().getDocuments();
-            double totalCost = 0;
-            double totalMiles = 0;
-            int pendingCount = 0;
-
-            double minMiles = parseMinMiles();
 
-            for (DocumentSnapshot doc : documents) {
-                // I convert the database document into an Expense object
-                Expense expense = doc.toObject(Expense.class);
-
-                // I added a check here just in case the data is bad, so the app doesn't crash
-                if (expense != null) {
-                    expense.setId(doc.getId());
+        // The KPI numbers only need reloading when some expense changed. Risk scores and the
+        // trends cube are kept current by the cache's change listener.
+        long version = queryCache.version();
+        if (version != loadedVersion) {
+            kpiCache.clear();
+            loadedVersion = version;
+        }
 
-                    // Only add the expense if it matches the filters the user set
-                    if (matchesFilters(expense, minMiles)) {
-                        expenseList.add(expense);
-                        totalCost += expense.getAmount();
-                        totalMiles += expense.getMileage();
+        // Repeat filters are served from the cache (matching IDs, newest first, and totals)
+        ExpenseFilter filter = currentFilter();
+        ExpenseQueryCache.Result result = queryCache.query(filter);
+        for (String id : result.ids) {
+            Expense expense = queryCache.get(id);
+            if (expense != null) {
+                expenseList.add(expense);
+            }
+        }
+        expenseTable.setItems(expenseList);
+        loadKpis(filter, result);
+    }
 
-                        // Count how many are pending so I can show the red alert number
-                        if ("Pending".equals(expense.getStatus())) {
-                            pendingCount++;
-                        }
+    // The KPI numbers come from the rollup documents (or a server-side aggregation), which also
+    // count archived expenses. Until they arrive (or if they can't be read) the totals of the table are shown.
+    private void loadKpis(ExpenseFilter filter, ExpenseQueryCache.Result result) {
+        String key = filter.cacheKey();
+        ExpenseRollups.Totals cached = kpiCache.get(key);
+        if (cached != null) {
+            updateAnalyticsLabels(cached.amount, cached.mileage, (int) cached.pending);
+            return;
+        }
+        updateAnalyticsLabels(result.amount, result.mileage, result.pending);
+
+        // Only the newest request may update the labels, in case the filters changed in the meantime
+        long request = ++kpiRequest;
+        long version = loadedVersion;
+        tasks.<ExpenseRollups.Totals>task("kpi-totals", BackgroundTasks.Resource.FIRESTORE)
+                .onSuccess(totals -> {
+                    if (version == loadedVersion) {
+                        kpiCache.put(key, totals);
+                    }
+                    if (request == kpiRequest) {
+                        updateAnalyticsLabels(totals.amount, totals.mileage, (int) totals.pending);
                     }
+                })
+                .start(progress -> new ExpenseRollups(FirestoreClient.getFirestore(), archiver).totals(filter));
+    }
+
+    // Runs on the cache's listener thread, so scoring and the trends cube never hold up the screen,
+    // and only for the expenses that changed. Scoring goes oldest first, so every expense is compared with what came
+    // before it; all expenses feed the statistics, not just the ones that match the filters.
+    // A removed expense stays in the statistics until newer claims push it out of the window.
+    private void onExpensesChanged(List<ExpenseQueryCache.Change> changes, boolean initial) {
+        List<Expense> added = new ArrayList<>();
+        synchronized (anomalyScorer) {
+            if (initial) {
+                anomalyScorer.reset();
+            }
+            for (ExpenseQueryCache.Change change : changes) {
+                Expense before = change.before();
+                Expense after = change.after();
+                if (after == null) {
+                    cube.remove(change.id());
+                    continue;
+                }
+                cube.upsert(after);
+                if (before == null) {
+                    added.add(after);
+                } else if (sameClaim(before, after)) {
+                    // Usually a status change: the score can't have moved
+                    after.setRiskScore(before.getRiskScore());
+                    after.setRiskReasons(before.getRiskReasons());
+                } else {
+                    // Already in the statistics once, so only score it again
+                    anomalyScorer.score(after);
                 }
             }
-
-            // Sorting Logic:
-            // I sort the list here so the newest dates always show up at the top.
-            expenseList.sort((e1, e2) -> e2.getDate().compareTo(e1.getDate()));
-
-            expenseTable.setItems(expenseList);
-            updateAnalyticsLabels(totalCost, totalMiles, pendingCount);
-
-        } catch (InterruptedException | ExecutionException e) {
-            // Using the logger to report the error
-            logger.error("Failed to load data", e);
+            added.sort(Comparator.comparing(Expense::getDate));
+            added.forEach(anomalyScorer::scoreAndObserve);
+        }
+        if (!initial && expenseTable != null) {
+            Platform.runLater(expenseTable::refresh);
         }
     }
 
-    // Checks if an expense matches the selected filters (Date, Type, Min Miles)
-    private boolean matchesFilters(Expense expense, double minMiles) {
-        boolean dateMatch = (filterDate.getValue() == null) ||
-                expense.getDate().equals(filterDate.getValue().toString());
-
-        boolean typeMatch = filterType.getValue().equals("All") ||
-                (filterType.getValue() != null && filterType.getValue().equals(expense.getType()));
-
-        boolean mileageMatch = expense.getMileage() >= minMiles;
+    // Whether two versions of an expense would get the same risk score
+    private static boolean sameClaim(Expense a, Expense b) {
+        return Objects.equals(a.getEmployeeName(), b.getEmployeeName()) && Objects.equals(a.getType(), b.getType())
+                && Objects.equals(a.getDate(), b.getDate()) && a.getAmount() == b.getAmount()
+                && a.getMileage() == b.getMileage() && a.getRouteMiles() == b.getRouteMiles();
+    }
 
-        return dateMatch && typeMatch && mileageMatch;
+    // Builds the filter from the Date, Type and Min Miles boxes.
+    // The matching itself is in ExpenseFilter so the REST API filters exactly the same way.
+    private ExpenseFilter currentFilter() {
+        ExpenseFilter filter = new ExpenseFilter();
+        filter.date = (filterDate.getValue() == null) ? null : filterDate.getValue().toString();
+        filter.type = filterType.getValue();
+        filter.minMiles = parseMinMiles();
+        return filter.normalized();
     }
 
     // Helper to safely get the number from the "Min Miles" text box
@@ -165,6 +430,159 @@ public class ManagerDashboardController {
         pendingCountLabel.setText(String.valueOf(pending));
     }
 
+    // Shows only the pending expenses that look suspicious, riskiest first.
+    // "Apply Filters" or "Reset" goes back to the normal list.
+    @FXML
+    private void showReviewQueue() {
+        ObservableList<Expense> queue = FXCollections.observableArrayList();
+        for (Expense expense : expenseList) {
+            if ("Pending".equals(expense.getStatus()) && expense.getRiskScore() >= AnomalyScorer.REVIEW_THRESHOLD) {
+                queue.add(expense);
+            }
+        }
+        queue.sort(Comparator.comparingDouble(Expense::getRiskScore).reversed());
+        expenseTable.setItems(queue);
+        if (queue.isEmpty()) {
+            showAlert("Review Queue", "No pending expenses look unusual right now.");
+        }
+    }
+
+    // Opens Review Mode for the pending expenses matching the current filters.
+    // One key per decision; the dashboard reloads once all decisions are saved.
+    @FXML
+    private void openReviewMode() {
+        List<Expense> pending = new ArrayList<>();
+        for (Expense expense : expenseList) {
+            if ("Pending".equals(expense.getStatus())) {
+                pending.add(expense);
+            }
+        }
+        if (pending.isEmpty()) {
+            showAlert("Review Mode", "There are no pending expenses to review.");
+            return;
+        }
+        try {
+            FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/review-queue.fxml"));
+            Scene scene = new Scene(fxmlLoader.load(), 700, 400);
+            SessionManager.watchScene(scene);
+            Stage stage = new Stage();
+            stage.setTitle("TransportAudit - Review Mode");
+            stage.setScene(scene);
+            stage.show();
+
+            ReviewQueueController reviewController = fxmlLoader.getController();
+            reviewController.start(pending, managerName, queryCache, this::loadData);
+        } catch (IOException e) {
+            logger.error("Failed to open Review Mode", e);
+        }
+    }
+
+    // Opens the Trends window with charts built from the expenses already loaded here
+    @FXML
+    private void openTrends() {
+        try {
+            FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/trends-view.fxml"));
+            Scene scene = new Scene(fxmlLoader.load(), 900, 550);
+            SessionManager.watchScene(scene);
+            TrendsController trendsController = fxmlLoader.getController();
+            trendsController.setCube(cube);
+
+            Stage stage = new Stage();
+            stage.setTitle("TransportAudit - Trends");
+            stage.setScene(scene);
+            stage.show();
+        } catch (IOException e) {
+            logger.error("Failed to open Trends", e);
+        }
+    }
+
+    // Moves approved/rejected expenses older than N months out of Firestore into the archive files
+    @FXML
+    private void archiveOldExpenses() {
+        TextInputDialog dialog = new TextInputDialog("12");
+        dialog.setTitle("Archive Old Expenses");
+        dialog.setHeaderText("Archive approved and rejected expenses older than how many months?");
+        dialog.setContentText("Months:");
+
+        Optional<String> answer = dialog.showAndWait();
+        if (answer.isEmpty()) {
+            return;
+        }
+        int months;
+        try {
+            months = Integer.parseInt(answer.get().trim());
+        } catch (NumberFormatException e) {
+            showAlert("Error", "Please enter a whole number.");
+            return;
+        }
+
+        LocalDate cutoff = LocalDate.now().minusMonths(months);
+        setStatus("Archiving expenses from before " + cutoff + "...");
+        tasks.<Long>task("archive", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onSuccess(moved -> {
+                    setStatus("");
+                    showAlert("Archive", moved + " expenses from before " + cutoff + " were archived.");
+                    loadArchive();
+                    loadData();
+                })
+                .onFailure(e -> {
+                    setStatus("");
+                    showAlert("Error", "Archiving stopped early: " + e.getMessage() + "\nRun it again to continue.");
+                })
+                .start(progress -> archiver.archiveOlderThan(cutoff));
+    }
+
+    private void loadArchive() {
+        tasks.<List<Expense>>task("archive-read", BackgroundTasks.Resource.DISK)
+                .onSuccess(archived -> {
+                    archivedExpenses = archived;
+                    archived.forEach(cube::upsert);
+                })
+                .start(progress -> {
+                    List<Expense> archived = new ArrayList<>();
+                    archiver.scan(null, null, null, archived::add);
+                    return archived;
+                });
+    }
+
+    // Scans the whole collection for expenses that look like they were filed twice and shows them
+    // together in the table. Runs in the background since it reads every expense.
+    @FXML
+    private void findDuplicates() {
+        DuplicateSweep sweep = new DuplicateSweep(FirestoreClient.getFirestore());
+        tasks.<List<List<String>>>task("duplicate-sweep", BackgroundTasks.Resource.FIRESTORE)
+                .onSuccess(this::showDuplicates)
+                .onFailure(e -> showAlert("Error", "Could not check for duplicates."))
+                .start(progress -> sweep.findDuplicateGroups());
+    }
+
+    private void showDuplicates(List<List<String>> groups) {
+        if (groups.isEmpty()) {
+            showAlert("Find Duplicates", "No duplicate expenses were found.");
+            return;
+        }
+        Map<String, Expense> byId = new HashMap<>();
+        for (Expense expense : expenseList) {
+            byId.put(expense.getId(), expense);
+        }
+        // Keep each group's rows next to each other so they are easy to compare
+        ObservableList<Expense> duplicates = FXCollections.observableArrayList();
+        int total = 0;
+        for (List<String> group : groups) {
+            total += group.size();
+            for (String id : group) {
+                Expense expense = byId.get(id);
+                if (expense != null) {
+                    duplicates.add(expense);
+                }
+            }
+        }
+        expenseTable.setItems(duplicates);
+        showAlert("Find Duplicates", groups.size() + " groups (" + total + " expenses) look like duplicates."
+                + (duplicates.size() < total ? "\nOnly the ones matching the current filters are shown." : ""));
+    }
+
     @FXML
     private void approveExpense() {
         updateStatus("Approved");
@@ -183,10 +601,83 @@ public class ManagerDashboardController {
             return;
         }
 
-        FirestoreClient.getFirestore().collection("expenses").document(selected.getId()).update("status", newStatus);
-        selected.setStatus(newStatus);
-        expenseTable.refresh();
-        loadData(); // Reload to reflect changes
+        String manager = managerName;
+        tasks.<Boolean>task("update-status", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onSuccess(ignored -> {
+                    queryCache.applyStatus(selected.getId(), newStatus);
+                    cube.upsert(selected);
+                    expenseTable.refresh();
+                    loadData(); // Reload to reflect changes
+                })
+                .onFailure(e -> showAlert("Error", "Could not update the expense."))
+                .start(progress -> {
+                    new ExpenseService(FirestoreClient.getFirestore()).updateStatus(selected.getId(), newStatus, manager);
+                    return true;
+                });
+    }
+
+    // Shows every status change of the selected expense from the audit log
+    @FXML
+    private void showHistory() {
+        Expense selected = expenseTable.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            showAlert("No Selection", "Please select an expense.");
+            return;
+        }
+        // Opening the log the first time reads every segment, so not on the FX thread
+        tasks.<List<AuditLog.Entry>>task("audit-history", BackgroundTasks.Resource.DISK)
+                .onSuccess(history -> {
+                    if (history.isEmpty()) {
+                        showAlert("History", "The status of this expense has not been changed yet.");
+                        return;
+                    }
+                    StringBuilder text = new StringBuilder();
+                    for (AuditLog.Entry entry : history) {
+                        text.append(String.format("%s  %s: %s -> %s%n", Instant.ofEpochMilli(entry.timestamp).atZone(ZoneId.systemDefault())
+                                .toLocalDateTime().withNano(0), entry.manager, entry.oldStatus, entry.newStatus));
+                    }
+                    showAlert("History", text.toString());
+                })
+                .onFailure(e -> showAlert("Error", "Could not read the audit log: " + e.getMessage()))
+                .start(progress -> AuditLog.shared().history(selected.getId()));
+    }
+
+    // Writes the whole audit log to a CSV, streamed straight from the log files
+    @FXML
+    private void exportAudit() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Audit Log");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+        File file = fileChooser.showSaveDialog(null);
+        if (file == null) {
+            return;
+        }
+
+        tasks.<File>task("export-audit", BackgroundTasks.Resource.DISK)
+                .onSuccess(ignored -> showAlert("Success", "Audit log exported successfully."))
+                .onFailure(e -> showAlert("Error", "Could not export the audit log."))
+                .start(progress -> {
+                    try (FileWriter writer = new FileWriter(file)) {
+                        writer.write("Timestamp,ExpenseID,Manager,OldStatus,NewStatus\n");
+                        IOException[] failure = new IOException[1];
+                        AuditLog.shared().replay(entry -> {
+                            if (failure[0] != null) {
+                                return;
+                            }
+                            try {
+                                writer.write(Instant.ofEpochMilli(entry.timestamp) + "," + ExpenseCsv.escape(entry.expenseId) + ","
+                                        + ExpenseCsv.escape(entry.manager) + "," + entry.oldStatus + "," + entry.newStatus + "\n");
+                            } catch (IOException e) {
+                                failure[0] = e;
+                            }
+                        });
+                        if (failure[0] != null) {
+                            throw failure[0];
+                        }
+                    }
+                    return file;
+                });
     }
 
     @FXML
@@ -197,27 +688,24 @@ public class ManagerDashboardController {
         File file = fileChooser.showSaveDialog(null);
 
         if (file != null) {
-            try {
-                Document document = new Document();
-                PdfWriter.getInstance(document, new FileOutputStream(file));
-                document.open();
-
-                document.add(new Paragraph("TransportAudit Expense Report"));
-                document.add(new Paragraph("Generated on: " + java.time.LocalDate.now()));
-                document.add(new Paragraph("--------------------------------------------------"));
-
-                for (Expense e : expenseList) {
-                    String line = String.format("Employee: %s | Type: %s | Amount: $%.2f | Miles: %.1f | Status: %s",
-                            e.getEmployeeName(), e.getType(), e.getAmount(), e.getMileage(), e.getStatus());
-                    document.add(new Paragraph(line));
+            // The rows are copied here because the table's list may only be touched on the FX thread.
+            // Matching archived expenses go in too, like in the CSV export.
+            List<Expense> rows = new ArrayList<>(expenseList);
+            ExpenseFilter filter = currentFilter();
+            for (Expense archived : archivedExpenses) {
+                if (filter.matches(archived)) {
+                    rows.add(archived);
                 }
-
-                document.close();
-                showAlert("Success", "PDF Report exported successfully.");
-            } catch (Exception e) {
-                logger.error("PDF Export failed", e);
-                showAlert("Error", "Could not export PDF.");
             }
+            tasks.<File>task("export-pdf", BackgroundTasks.Resource.DISK)
+                    .onSuccess(ignored -> showAlert("Success", "PDF Report exported successfully."))
+                    .onFailure(e -> showAlert("Error", "Could not export PDF."))
+                    .start(progress -> {
+                        try (FileOutputStream out = new FileOutputStream(file)) {
+                            ExpenseReportWriter.writePdf(out, ExpenseReportWriter.DEFAULT_TITLE, rows);
+                        }
+                        return file;
+                    });
         }
     }
 
@@ -229,34 +717,231 @@ public class ManagerDashboardController {
         File file = fileChooser.showSaveDialog(null);
 
         if (file != null) {
-            try (FileWriter writer = new FileWriter(file)) {
-                // Write the header row
-                writer.write("ID,Employee,Date,Type,Amount,Mileage,Status\n");
-                // Write each expense row
-                for (Expense e : expenseList) {
-                    writer.write(String.format("%s,%s,%s,%s,%.2f,%.2f,%s\n",
-                            e.getId(), e.getEmployeeName(), e.getDate(), e.getType(), e.getAmount(), e.getMileage(), e.getStatus()));
-                }
-                showAlert("Success", "CSV Report exported successfully.");
-            } catch (IOException e) {
-                logger.error("CSV Export failed", e);
-            }
+            List<Expense> rows = new ArrayList<>(expenseList);
+            ExpenseFilter filter = currentFilter();
+            boolean includeArchive = !archivedExpenses.isEmpty();
+            tasks.<File>task("export-csv", BackgroundTasks.Resource.DISK)
+                    .onSuccess(ignored -> showAlert("Success", "CSV Report exported successfully."))
+                    .onFailure(e -> showAlert("Error", "Could not export CSV."))
+                    .start(progress -> {
+                        try (FileWriter writer = new FileWriter(file)) {
+                            ExpenseReportWriter.writeCsv(writer, rows);
+                            // Archived expenses that match the filters go in too, read straight from the archive files
+                            if (includeArchive) {
+                                LocalDate day = filter.date == null ? null : LocalDate.parse(filter.date);
+                                IOException[] failure = new IOException[1];
+                                archiver.scan(day, day, null, e -> {
+                                    if (failure[0] == null && filter.matches(e)) {
+                                        try {
+                                            writer.write(ExpenseCsv.formatRow(e) + "\n");
+                                        } catch (IOException ex) {
+                                            failure[0] = ex;
+                                        }
+                                    }
+                                });
+                                if (failure[0] != null) {
+                                    throw failure[0];
+                                }
+                            }
+                        }
+                        return file;
+                    });
+        }
+    }
+
+    // The ready-made weekly and monthly reports. Saving one is a file copy, nothing is read from Firestore.
+    @FXML
+    private void showReports() {
+        tasks.<List<ReportScheduler.Artifact>>task("reports-list", BackgroundTasks.Resource.DISK)
+                .onSuccess(this::openReportsDialog)
+                .onFailure(e -> showAlert("Error", "Could not list the reports."))
+                .start(progress -> reports.latest());
+    }
+
+    private void openReportsDialog(List<ReportScheduler.Artifact> artifacts) {
+        ListView<ReportScheduler.Artifact> list = new ListView<>(FXCollections.observableArrayList(artifacts));
+        list.setPlaceholder(new Label("No reports yet. Use Refresh Now, or leave the dashboard idle for a bit."));
+        list.setPrefSize(460, 220);
+        list.getSelectionModel().selectFirst();
+
+        ButtonType saveCsv = new ButtonType("Save CSV...");
+        ButtonType savePdf = new ButtonType("Save PDF...");
+        ButtonType refresh = new ButtonType("Refresh Now");
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Reports");
+        dialog.setHeaderText(reports.lastResult());
+        dialog.getDialogPane().setContent(list);
+        dialog.getDialogPane().getButtonTypes().addAll(saveCsv, savePdf, refresh, ButtonType.CLOSE);
+
+        Optional<ButtonType> choice = dialog.showAndWait();
+        if (choice.isEmpty() || choice.get() == ButtonType.CLOSE) {
+            return;
+        }
+        if (choice.get() == refresh) {
+            setStatus("Updating reports...");
+            tasks.<List<ReportScheduler.Artifact>>task("reports-refresh", BackgroundTasks.Resource.FIRESTORE)
+                    .onSuccess(updated -> {
+                        setStatus("");
+                        openReportsDialog(updated);
+                    })
+                    .onFailure(e -> {
+                        setStatus("");
+                        showAlert("Error", "Could not update the reports.");
+                    })
+                    .start(progress -> reports.refreshNow().get());
+            return;
+        }
+        ReportScheduler.Artifact selected = list.getSelectionModel().getSelectedItem();
+        if (selected == null) {
+            showAlert("No Selection", "Please select a report.");
+            return;
+        }
+        boolean csv = choice.get() == saveCsv;
+        Path source = csv ? selected.csv() : selected.pdf();
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Report");
+        fileChooser.setInitialFileName(selected.period().folder() + (csv ? ".csv" : ".pdf"));
+        fileChooser.getExtensionFilters().add(csv
+                ? new FileChooser.ExtensionFilter("CSV Files", "*.csv")
+                : new FileChooser.ExtensionFilter("PDF Files", "*.pdf"));
+        File file = fileChooser.showSaveDialog(null);
+        if (file == null) {
+            return;
+        }
+        tasks.<Path>task("report-save", BackgroundTasks.Resource.DISK)
+                .onSuccess(ignored -> showAlert("Success", "Report saved."))
+                .onFailure(e -> showAlert("Error", "Could not save the report."))
+                .start(progress -> Files.copy(source, file.toPath(), StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    // Works out what every driver is owed for a month of approved expenses and saves the payroll file
+    @FXML
+    private void runPayroll() {
+        TextInputDialog dialog = new TextInputDialog(YearMonth.now().minusMonths(1).toString());
+        dialog.setTitle("Payroll Run");
+        dialog.setHeaderText("Reimburse approved expenses for which month?");
+        dialog.setContentText("Month (YYYY-MM):");
+
+        Optional<String> answer = dialog.showAndWait();
+        if (answer.isEmpty()) {
+            return;
+        }
+        YearMonth month;
+        try {
+            month = YearMonth.parse(answer.get().trim());
+        } catch (DateTimeParseException e) {
+            showAlert("Error", "Please enter the month like 2025-01.");
+            return;
+        }
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.atEndOfMonth();
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Save Payroll File");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+        Path suggested = ReimbursementRun.defaultFile(from, to);
+        fileChooser.setInitialDirectory(suggested.getParent().toFile());
+        fileChooser.setInitialFileName(suggested.getFileName().toString());
+        File file = fileChooser.showSaveDialog(null);
+        if (file == null) {
+            return;
         }
+
+        ReimbursementRun run = new ReimbursementRun(FirestoreClient.getFirestore(), archiver, RateTable.shared());
+        setStatus("Payroll run for " + month + "...");
+        tasks.<ReimbursementRun.Result>task("payroll", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onProgress(this::setStatus)
+                .onSuccess(result -> {
+                    setStatus("");
+                    showAlert("Payroll Run", result.describe() + "\nSaved to " + file.getName());
+                })
+                .onFailure(e -> {
+                    setStatus("");
+                    showAlert("Error", "The payroll run failed: " + e.getMessage());
+                })
+                .start(progress -> {
+                    ReimbursementRun.Result result = run.run(from, to, progress);
+                    ReimbursementRun.writePayroll(result, file.toPath());
+                    return result;
+                });
     }
 
+    // Bulk import of a CSV in the same format as the export (e.g. a fleet operator's spreadsheet).
+    // The import runs as a background task so the dashboard stays usable while thousands of rows upload.
+    @FXML
+    private void importCSV() {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import Expenses CSV");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+        File file = fileChooser.showOpenDialog(null);
+        if (file == null) {
+            return;
+        }
+
+        ExpenseCsvImporter importer = ExpenseCsvImporter.withDefaults(FirestoreClient.getFirestore());
+        tasks.<ExpenseCsvImporter.ImportResult>task("csv-import", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onProgress(this::setStatus)
+                .onSuccess(result -> {
+                    setStatus("");
+                    String summary = String.format("Imported %d of %d rows (%.0f rows/sec).", result.rowsWritten, result.rowsRead, result.rowsPerSecond());
+                    if (result.rowsAlreadyPresent > 0) {
+                        summary += String.format("\n%d rows were already in the database and were left as they are.", result.rowsAlreadyPresent);
+                    }
+                    if (result.resumedFromLine > 0) {
+                        summary += "\nResumed after line " + result.resumedFromLine + ".";
+                    }
+                    if (result.errorReport != null) {
+                        summary += "\n" + result.errors.size() + " rows had errors, see " + result.errorReport.getFileName();
+                    }
+                    showAlert("Import Finished", summary);
+                    loadData();
+                })
+                .onFailure(e -> {
+                    setStatus("");
+                    showAlert("Import Failed", "Could not import the file: " + e.getMessage()
+                            + "\nRun the import again to resume where it stopped.");
+                })
+                .start(progress -> importer.importFile(file.toPath(), (done, written, errors) ->
+                        progress.update(String.format("Importing: %,d rows read, %,d written, %d errors", done, written, errors))));
+    }
+
+    // Uses the LoadGenerator to create a realistic batch of fake expenses (drivers, types, dates,
+    // amounts and statuses all vary). Bigger runs are better done with the LoadGenerator command line.
     @FXML
     private void generateTestData() {
-        Firestore db = FirestoreClient.getFirestore();
-        java.util.Map<String, Object> data = new HashMap<>();
-        data.put("employeeName", "Demo User");
-        data.put("date", java.time.LocalDate.now().toString());
-        data.put("type", "Fuel");
-        data.put("amount", 55.50);
-        data.put("mileage", 120.5);
-        data.put("status", "Pending");
+        TextInputDialog dialog = new TextInputDialog("1000");
+        dialog.setTitle("Generate Test Data");
+        dialog.setHeaderText("How many test expenses should be created?");
+        dialog.setContentText("Count:");
+
+        Optional<String> answer = dialog.showAndWait();
+        if (answer.isEmpty()) {
+            return;
+        }
 
-        db.collection("expenses").add(data);
-        loadData();
+        LoadGenerator.Settings settings = new LoadGenerator.Settings();
+        try {
+            settings.count = Long.parseLong(answer.get().trim());
+        } catch (NumberFormatException e) {
+            showAlert("Error", "Please enter a whole number.");
+            return;
+        }
+        // A new seed each time so repeated clicks add new rows instead of overwriting the last run
+        settings.seed = System.currentTimeMillis();
+
+        LoadGenerator generator = new LoadGenerator(FirestoreClient.getFirestore(), settings);
+        tasks.<Long>task("test-data", BackgroundTasks.Resource.FIRESTORE)
+                .write()
+                .onProgress(this::setStatus)
+                .onSuccess(written -> {
+                    setStatus("");
+                    showAlert("Test Data", written + " test expenses were created.");
+                    loadData();
+                })
+                .start(progress -> generator.generate((done, total) ->
+                        progress.update(String.format("Generating test data: %,d of %,d", done, total))));
     }
 
     @FXML
@@ -299,6 +984,13 @@ public class ManagerDashboardController {
         SessionManager.logout(stage);
     }
 
+    // Shows what the background tasks are doing at the bottom of the screen
+    private void setStatus(String message) {
+        if (statusLabel != null) {
+            statusLabel.setText(message);
+        }
+    }
+
     private void showAlert(String title, String message) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
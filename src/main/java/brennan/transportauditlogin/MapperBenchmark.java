@@ -0,0 +1,110 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compares doc.toObject(Expense.class) with ExpenseMapper.fromDocument on real documents.
+ * The documents are downloaded once, then both mappers convert the same snapshots in memory,
+ * so only the mapping itself is timed. Each mapper gets warm-up rounds first so the JIT has
+ * compiled it before anything is measured.
+ *
+ * Fill a collection first (e.g. LoadGenerator --count=100000 --collection=bench), then run:
+ *   MapperBenchmark --collection=bench --docs=100000 --rounds=10
+ */
+public class MapperBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws ExecutionException, InterruptedException {
+        String collection = "expenses";
+        int docs = 100_000;
+        int rounds = 10;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "collection" -> collection = value;
+                case "docs" -> docs = Integer.parseInt(value);
+                case "rounds" -> rounds = Integer.parseInt(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        FirebaseService.initialize();
+        List<QueryDocumentSnapshot> snapshots = download(FirestoreClient.getFirestore(), collection, docs);
+        System.out.printf("Loaded %,d documents from %s%n", snapshots.size(), collection);
+        if (snapshots.isEmpty()) {
+            System.exit(1);
+        }
+
+        double reflective = time("doc.toObject(Expense.class)", snapshots, rounds, doc -> {
+            Expense expense = doc.toObject(Expense.class);
+            expense.setId(doc.getId());
+            return expense;
+        });
+        double handwritten = time("ExpenseMapper.fromDocument", snapshots, rounds, ExpenseMapper::fromDocument);
+        System.out.printf("Speedup: %.1fx%n", reflective / handwritten);
+
+        // How many different String objects hold the "status" values after mapping
+        Set<String> reflectiveStatuses = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<String> pooledStatuses = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (QueryDocumentSnapshot doc : snapshots) {
+            reflectiveStatuses.add(doc.toObject(Expense.class).getStatus());
+            pooledStatuses.add(ExpenseMapper.fromDocument(doc).getStatus());
+        }
+        System.out.printf("Distinct status String objects: %,d reflective, %,d pooled%n",
+                reflectiveStatuses.size(), pooledStatuses.size());
+        System.exit(0);
+    }
+
+    private static List<QueryDocumentSnapshot> download(Firestore db, String collection, int limit)
+            throws ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> snapshots = new ArrayList<>(limit);
+        Query base = db.collection(collection).orderBy(FieldPath.documentId()).limit(Math.min(limit, 5_000));
+        DocumentSnapshot last = null;
+        while (snapshots.size() < limit) {
+            List<QueryDocumentSnapshot> page = (last == null ? base : base.startAfter(last)).get().get().getDocuments();
+            snapshots.addAll(page.subList(0, Math.min(page.size(), limit - snapshots.size())));
+            if (page.size() < Math.min(limit, 5_000)) {
+                break;
+            }
+            last = page.get(page.size() - 1);
+        }
+        return snapshots;
+    }
+
+    // Returns the average nanoseconds per document
+    private static double time(String name, List<QueryDocumentSnapshot> snapshots, int rounds,
+                               java.util.function.Function<QueryDocumentSnapshot, Expense> mapper) {
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (QueryDocumentSnapshot doc : snapshots) {
+                checksum += mapper.apply(doc).getDate().length();
+            }
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (QueryDocumentSnapshot doc : snapshots) {
+                checksum += mapper.apply(doc).getDate().length();
+            }
+            long elapsed = System.nanoTime() - start;
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        double average = (double) total / rounds / snapshots.size();
+        // Printing the checksum keeps the JIT from optimizing the work away
+        System.out.printf("%-30s %8.0f ns/doc avg, %8.0f ns/doc best, %6.0f ms per %,d (checksum %d)%n",
+                name, average, (double) best / snapshots.size(), total / 1e6 / rounds, snapshots.size(), checksum);
+        return average;
+    }
+}
@@ -0,0 +1,477 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.UserRecord;
+import com.google.firebase.cloud.FirestoreClient;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Performance regression suite for the flows people wait on: opening the manager dashboard,
+ * filtering, approving, exporting, logging in and the payroll run.
+ *
+ * It only runs against the Firestore and Auth emulators (it wipes them and seeds its own data),
+ * never against the real project. Start them and run the suite with the "perf" Maven profile:
+ *
+ *   firebase emulators:exec --only firestore,auth "mvn -Pperf verify"
+ *
+ * or by hand with FIRESTORE_EMULATOR_HOST=localhost:8080 FIREBASE_AUTH_EMULATOR_HOST=localhost:9099
+ * set. Each scenario's numbers are checked against perf-budgets.properties and the build fails
+ * if one is over budget. Every run also writes a JSON report, and prints how it compares with
+ * the previous report in the same folder, so a slow creep shows up before it turns into a miss.
+ *
+ *   PerformanceSuite --expenses=20000 --drivers=200 --report-dir=target/perf --budgets=my-budgets.properties
+ */
+public class PerformanceSuite {
+
+    private static final DateTimeFormatter RUN_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    // A p95 this much worse than the previous run is called out in the comparison
+    private static final double REGRESSION_WARNING = 0.20;
+
+    private final Firestore db;
+    private final Settings settings;
+    private final Properties budgets;
+    private final List<Scenario> scenarios = new ArrayList<>();
+    private ExpenseQueryCache cache;
+
+    public static class Settings {
+        public long expenses = 20_000;
+        public int drivers = 200;
+        public int filterQueries = 2_000;
+        public int statusUpdates = 200;
+        public int logins = 50;
+        public Path reportDir = Path.of("target", "perf");
+        public Path budgetsFile;
+    }
+
+    // One measured flow: its latencies, how many items it handled and how long that took overall
+    static class Scenario {
+        final String name;
+        final LoadGenerator.LatencyRecorder latencies = new LoadGenerator.LatencyRecorder();
+        long items;
+        long wallNanos;
+        String skipped;
+        final List<String> failures = new ArrayList<>();
+
+        Scenario(String name) {
+            this.name = name;
+        }
+
+        double perSecond() {
+            return wallNanos == 0 ? 0 : items / (wallNanos / 1e9);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        // Returns how many items this step handled (rows exported, expenses updated, ...)
+        long run(int iteration) throws Exception;
+    }
+
+    public PerformanceSuite(Firestore db, Settings settings, Properties budgets) {
+        this.db = db;
+        this.settings = settings;
+        this.budgets = budgets;
+    }
+
+    // --- Scenarios ---
+
+    public void runAll() throws Exception {
+        seed();
+        dashboardLoad();
+        filter();
+        filterPage();
+        kpiTotals();
+        statusUpdate();
+        export();
+        login();
+        payroll();
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private void seed() throws Exception {
+        LoadGenerator.Settings load = new LoadGenerator.Settings();
+        load.count = settings.expenses;
+        load.drivers = settings.drivers;
+        load.days = 120;
+        load.writesPerSecond = 100_000;
+        LoadGenerator generator = new LoadGenerator(db, load);
+        measure("seed", 1, iteration -> generator.generate(null));
+    }
+
+    // What the manager waits for after logging in: the listener's first snapshot of every expense
+    private void dashboardLoad() throws Exception {
+        measure("dashboard_load", 3, iteration -> {
+            ExpenseQueryCache fresh = new ExpenseQueryCache(db);
+            if (!fresh.awaitReady(2, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("first snapshot never arrived");
+            }
+            if (cache != null) {
+                cache.close();
+            }
+            cache = fresh;
+            return fresh.all().size();
+        });
+    }
+
+    // Filter clicks on the dashboard, answered from the cache
+    private void filter() throws Exception {
+        Random random = new Random(7);
+        String[] types = ExpenseCsv.TYPES.toArray(new String[0]);
+        String[] statuses = ExpenseCsv.STATUSES.toArray(new String[0]);
+        measure("filter", settings.filterQueries, iteration -> {
+            ExpenseFilter filter = new ExpenseFilter();
+            if (random.nextBoolean()) filter.employeeName = LoadGenerator.driverName(random.nextInt(settings.drivers));
+            if (random.nextBoolean()) filter.type = types[random.nextInt(types.length)];
+            if (random.nextBoolean()) filter.status = statuses[random.nextInt(statuses.length)];
+            return cache.query(filter).ids.size();
+        });
+    }
+
+    // The same kind of filter through a Firestore query, as the REST API serves it
+    private void filterPage() throws Exception {
+        ExpenseService service = new ExpenseService(db);
+        Random random = new Random(11);
+        measure("filter_page", 50, iteration -> {
+            ExpenseFilter filter = new ExpenseFilter();
+            filter.employeeName = LoadGenerator.driverName(random.nextInt(Math.min(20, settings.drivers)));
+            return service.list(filter, 50, null).items.size();
+        });
+    }
+
+    // The dashboard's KPI labels: the sharded "all" rollup added up
+    private void kpiTotals() throws Exception {
+        ExpenseRollups rollups = new ExpenseRollups(db);
+        measure("kpi_totals", 50, iteration -> rollups.totals(new ExpenseFilter()).count);
+    }
+
+    private void statusUpdate() throws Exception {
+        List<String> pending = new ArrayList<>();
+        for (Expense expense : cache.all()) {
+            if ("Pending".equals(expense.getStatus())) {
+                pending.add(expense.getId());
+            }
+        }
+        if (pending.isEmpty()) {
+            skip("status_update", "no pending expenses were seeded");
+            return;
+        }
+        // A throwaway audit log, so the suite never writes into the app's real one
+        Path auditDir = Files.createTempDirectory("perf-audit");
+        try (AuditLog auditLog = new AuditLog(auditDir)) {
+            ExpenseService service = new ExpenseService(db, auditLog);
+            int count = Math.min(settings.statusUpdates, pending.size());
+            measure("status_update", count, iteration -> {
+                service.updateStatus(pending.get(iteration), iteration % 2 == 0 ? "Approved" : "Rejected", "perf-suite");
+                return 1;
+            });
+        }
+    }
+
+    private void export() throws Exception {
+        List<Expense> rows = cache.all();
+        Path file = Files.createTempFile("perf-export", ".csv");
+        try {
+            // The same writer as the dashboard's Export CSV and the scheduled reports, so a slowdown there shows up here
+            measure("export", 3, iteration -> {
+                try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    ExpenseReportWriter.writeCsv(writer, rows);
+                }
+                return rows.size();
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // The same steps as LoginController.login: password check, user record, profile
+    private void login() throws Exception {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        String authHost = System.getenv("FIREBASE_AUTH_EMULATOR_HOST");
+        if (authHost == null || authHost.isBlank()) {
+            skip("login", "FIREBASE_AUTH_EMULATOR_HOST is not set");
+            return;
+        }
+        String password = "perf-password";
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i < settings.logins; i++) {
+            String email = "perf" + i + "@example.com";
+            UserRecord user = FirebaseAuth.getInstance().createUser(new UserRecord.CreateRequest()
+                    .setEmail(email).setPassword(password).setDisplayName("Perf " + i));
+            db.collection("users").document(user.getUid())
+                    .set(UserProfileMapper.toMap(new UserProfile(user.getUid(), "Perf " + i, email, "Driver"))).get();
+            emails.add(email);
+        }
+        // The app's AUTH policy allows 5 sign-ins a second per process; that limit is not what is measured here
+        Resilience.Settings policy = new Resilience.Settings();
+        policy.ratePerSecond = 1_000;
+        policy.burst = 1_000;
+        AuthService auth = new AuthService("http://" + authHost + "/identitytoolkit.googleapis.com",
+                dotenv.get("FIREBASE_API_KEY", "fake-api-key"), new Resilience("perf-auth", policy));
+
+        measure("login", emails.size(), iteration -> {
+            String email = emails.get(iteration);
+            if (!auth.verifyPassword(email, password)) {
+                throw new IllegalStateException("sign in failed for " + email);
+            }
+            UserRecord user = FirebaseAuth.getInstance().getUserByEmail(email);
+            DocumentSnapshot doc = Resilience.FIRESTORE.read(() -> db.collection("users").document(user.getUid()).get().get());
+            return UserProfileMapper.fromDocument(doc) == null ? 0 : 1;
+        });
+    }
+
+    private void payroll() throws Exception {
+        ReimbursementRun run = new ReimbursementRun(db, null, RateTable.defaults());
+        YearMonth month = YearMonth.now().minusMonths(1);
+        BackgroundTasks.Progress quiet = new BackgroundTasks.Progress() {
+            @Override
+            public void update(String message) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        measure("payroll", 3, iteration -> run.run(month.atDay(1), month.atEndOfMonth(), quiet).expenses);
+    }
+
+    // --- Measuring ---
+
+    private void measure(String name, int iterations, Step step) throws Exception {
+        Scenario scenario = new Scenario(name);
+        System.out.printf("%-16s running %d iteration(s)...%n", name, iterations);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long began = System.nanoTime();
+            scenario.items += step.run(i);
+            scenario.latencies.record(System.nanoTime() - began);
+        }
+        scenario.wallNanos = System.nanoTime() - start;
+        checkBudget(scenario);
+        scenarios.add(scenario);
+    }
+
+    private void skip(String name, String reason) {
+        Scenario scenario = new Scenario(name);
+        scenario.skipped = reason;
+        scenarios.add(scenario);
+    }
+
+    // Budgets look like "filter.p95Ms=25" and "export.minPerSecond=50000"
+    private void checkBudget(Scenario scenario) {
+        String p95 = budgets.getProperty(scenario.name + ".p95Ms");
+        if (p95 != null && scenario.latencies.percentileMillis(95) > Double.parseDouble(p95)) {
+            scenario.failures.add(String.format(Locale.ROOT, "p95 %.1f ms is over the %s ms budget",
+                    scenario.latencies.percentileMillis(95), p95));
+        }
+        String minRate = budgets.getProperty(scenario.name + ".minPerSecond");
+        if (minRate != null && scenario.perSecond() < Double.parseDouble(minRate)) {
+            scenario.failures.add(String.format(Locale.ROOT, "%.0f/s is under the %s/s budget", scenario.perSecond(), minRate));
+        }
+    }
+
+    public boolean passed() {
+        return scenarios.stream().allMatch(scenario -> scenario.failures.isEmpty());
+    }
+
+    // --- Report ---
+
+    JsonObject report(String runName) {
+        JsonObject root = new JsonObject();
+        root.addProperty("run", runName);
+        root.addProperty("expenses", settings.expenses);
+        root.addProperty("drivers", settings.drivers);
+        root.addProperty("java", System.getProperty("java.version"));
+        root.addProperty("cpus", Runtime.getRuntime().availableProcessors());
+        root.addProperty("passed", passed());
+        JsonArray list = new JsonArray();
+        for (Scenario scenario : scenarios) {
+            JsonObject json = new JsonObject();
+            json.addProperty("name", scenario.name);
+            if (scenario.skipped != null) {
+                json.addProperty("skipped", scenario.skipped);
+            } else {
+                json.addProperty("count", scenario.latencies.count());
+                json.addProperty("items", scenario.items);
+                json.addProperty("p50Ms", round(scenario.latencies.percentileMillis(50)));
+                json.addProperty("p95Ms", round(scenario.latencies.percentileMillis(95)));
+                json.addProperty("p99Ms", round(scenario.latencies.percentileMillis(99)));
+                json.addProperty("maxMs", round(scenario.latencies.percentileMillis(100)));
+                json.addProperty("perSecond", round(scenario.perSecond()));
+                JsonArray failures = new JsonArray();
+                scenario.failures.forEach(failures::add);
+                json.add("failures", failures);
+            }
+            list.add(json);
+        }
+        root.add("scenarios", list);
+        return root;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    // Writes this run's report and prints it next to the previous one. Returns the report file.
+    public Path writeReport() throws IOException {
+        Files.createDirectories(settings.reportDir);
+        String runName = LocalDateTime.now().format(RUN_NAME);
+        Map<String, JsonObject> previous = previousScenarios();
+        Path file = settings.reportDir.resolve("perf-" + runName + ".json");
+        Files.writeString(file, report(runName).toString(), StandardCharsets.UTF_8);
+
+        System.out.printf("%n%-16s %8s %10s %10s %10s %12s  %s%n", "scenario", "count", "p50 ms", "p95 ms", "max ms", "per second", "vs previous p95");
+        for (Scenario scenario : scenarios) {
+            if (scenario.skipped != null) {
+                System.out.printf("%-16s skipped: %s%n", scenario.name, scenario.skipped);
+                continue;
+            }
+            double p95 = scenario.latencies.percentileMillis(95);
+            System.out.printf(Locale.ROOT, "%-16s %8d %10.1f %10.1f %10.1f %12.0f  %s%n", scenario.name,
+                    scenario.latencies.count(), scenario.latencies.percentileMillis(50), p95,
+                    scenario.latencies.percentileMillis(100), scenario.perSecond(), compare(previous.get(scenario.name), p95));
+            for (String failure : scenario.failures) {
+                System.out.println("    OVER BUDGET: " + failure);
+            }
+        }
+        System.out.println(passed() ? "All budgets met." : "Some budgets were missed.");
+        System.out.println("Report: " + file.toAbsolutePath());
+        return file;
+    }
+
+    private static String compare(JsonObject before, double p95) {
+        if (before == null || !before.has("p95Ms")) {
+            return "-";
+        }
+        double old = before.get("p95Ms").getAsDouble();
+        if (old <= 0) {
+            return "-";
+        }
+        double change = (p95 - old) / old;
+        return String.format(Locale.ROOT, "%+.0f%%%s", change * 100, change > REGRESSION_WARNING ? "  <-- slower" : "");
+    }
+
+    // The scenarios of the newest report already in the folder (report names sort by time)
+    private Map<String, JsonObject> previousScenarios() throws IOException {
+        Map<String, JsonObject> byName = new HashMap<>();
+        Optional<Path> latest;
+        try (Stream<Path> files = Files.list(settings.reportDir)) {
+            latest = files.filter(path -> path.getFileName().toString().matches("perf-.*\\.json")).max(Comparator.naturalOrder());
+        }
+        if (latest.isEmpty()) {
+            return byName;
+        }
+        try {
+            JsonObject root = JsonParser.parseString(Files.readString(latest.get(), StandardCharsets.UTF_8)).getAsJsonObject();
+            for (JsonElement element : root.getAsJsonArray("scenarios")) {
+                JsonObject scenario = element.getAsJsonObject();
+                byName.put(scenario.get("name").getAsString(), scenario);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Could not read the previous report " + latest.get() + ": " + e.getMessage());
+        }
+        return byName;
+    }
+
+    // --- Emulator housekeeping ---
+
+    // Empties both emulators so every run starts from the same data
+    private static void resetEmulators(String projectId) throws IOException, InterruptedException {
+        HttpClient http = HttpClient.newHttpClient();
+        String firestoreHost = System.getenv("FIRESTORE_EMULATOR_HOST");
+        if (firestoreHost == null) {
+            firestoreHost = Dotenv.configure().ignoreIfMissing().load().get("FIRESTORE_EMULATOR_HOST");
+        }
+        delete(http, "http://" + firestoreHost + "/emulator/v1/projects/" + projectId + "/databases/(default)/documents");
+        String authHost = System.getenv("FIREBASE_AUTH_EMULATOR_HOST");
+        if (authHost != null && !authHost.isBlank()) {
+            delete(http, "http://" + authHost + "/emulator/v1/projects/" + projectId + "/accounts");
+        }
+    }
+
+    private static void delete(HttpClient http, String url) throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(url)).DELETE().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Could not reset emulator (" + response.statusCode() + "): " + url);
+        }
+    }
+
+    static Properties loadBudgets(Path file) throws IOException {
+        Properties budgets = new Properties();
+        if (file != null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                budgets.load(in);
+            }
+            return budgets;
+        }
+        try (InputStream in = PerformanceSuite.class.getResourceAsStream("/perf-budgets.properties")) {
+            if (in != null) {
+                budgets.load(in);
+            }
+        }
+        return budgets;
+    }
+
+    // --- Command line ---
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "expenses" -> settings.expenses = Long.parseLong(value);
+                case "drivers" -> settings.drivers = Integer.parseInt(value);
+                case "filters" -> settings.filterQueries = Integer.parseInt(value);
+                case "updates" -> settings.statusUpdates = Integer.parseInt(value);
+                case "logins" -> settings.logins = Integer.parseInt(value);
+                case "report-dir" -> settings.reportDir = Path.of(value);
+                case "budgets" -> settings.budgetsFile = Path.of(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        // It deletes everything it finds, so it must never touch the real project
+        if (!FirebaseService.usesEmulator()) {
+            System.err.println("FIRESTORE_EMULATOR_HOST is not set. The performance suite only runs against the emulators.");
+            System.exit(2);
+        }
+        FirebaseService.initialize();
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        resetEmulators(dotenv.get("FIREBASE_PROJECT_ID", FirebaseService.DEFAULT_EMULATOR_PROJECT));
+
+        PerformanceSuite suite = new PerformanceSuite(FirestoreClient.getFirestore(), settings, loadBudgets(settings.budgetsFile));
+        suite.runAll();
+        suite.writeReport();
+        System.exit(suite.passed() ? 0 : 1);
+    }
+}
@@ -0,0 +1,81 @@
+package brennan.transportauditlogin;
+
+import java.util.Arrays;
+
+/**
+ * Google's "encoded polyline" format: a route's points as one short ASCII string.
+ * Each coordinate is stored as the difference from the previous point in 1e-5 degrees,
+ * zig-zag encoded and written 5 bits per character. The Directions API sends the route
+ * shape this way (overview_polyline), and the offline router produces the same format,
+ * so the preview only has to understand one thing.
+ *
+ * Points are passed around as flat arrays: [lat0, lng0, lat1, lng1, ...].
+ */
+public final class PolylineCodec {
+
+    private static final double SCALE = 1e5;
+
+    private PolylineCodec() {
+    }
+
+    public static String encode(double[] latLngs) {
+        StringBuilder out = new StringBuilder(latLngs.length * 3);
+        long previousLat = 0;
+        long previousLng = 0;
+        for (int i = 0; i + 1 < latLngs.length; i += 2) {
+            long lat = Math.round(latLngs[i] * SCALE);
+            long lng = Math.round(latLngs[i + 1] * SCALE);
+            encodeValue(lat - previousLat, out);
+            encodeValue(lng - previousLng, out);
+            previousLat = lat;
+            previousLng = lng;
+        }
+        return out.toString();
+    }
+
+    // Throws IllegalArgumentException if the text is cut off or isn't a polyline
+    public static double[] decode(String encoded) {
+        double[] points = new double[Math.max(2, encoded.length())];
+        int count = 0;
+        long lat = 0;
+        long lng = 0;
+        int[] index = {0};
+        while (index[0] < encoded.length()) {
+            lat += decodeValue(encoded, index);
+            lng += decodeValue(encoded, index);
+            if (count + 2 > points.length) {
+                points = Arrays.copyOf(points, points.length * 2);
+            }
+            points[count++] = lat / SCALE;
+            points[count++] = lng / SCALE;
+        }
+        return Arrays.copyOf(points, count);
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        long bits = value < 0 ? ~(value << 1) : value << 1;
+        while (bits >= 0x20) {
+            out.append((char) ((0x20 | (bits & 0x1f)) + 63));
+            bits >>= 5;
+        }
+        out.append((char) (bits + 63));
+    }
+
+    private static long decodeValue(String encoded, int[] index) {
+        long result = 0;
+        int shift = 0;
+        int chunk;
+        do {
+            if (index[0] >= encoded.length()) {
+                throw new IllegalArgumentException("Polyline ends in the middle of a value");
+            }
+            chunk = encoded.charAt(index[0]++) - 63;
+            if (chunk < 0 || chunk > 63) {
+                throw new IllegalArgumentException("Not a polyline character: " + (char) (chunk + 63));
+            }
+            result |= (long) (chunk & 0x1f) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+        return (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+    }
+}
@@ -0,0 +1,59 @@
+package brennan.transportauditlogin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket: up to "burst" calls can go at once, after that calls are let through at
+ * "perSecond". Callers wait for a token, but only up to a limit, so a flood of clicks queues for
+ * a moment and then fails fast instead of piling up behind a slow API.
+ */
+public class RateLimiter {
+
+    private final double perSecond;
+    private final double burst;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public RateLimiter(double perSecond, int burst) {
+        this.perSecond = perSecond;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    // Waits up to maxWait for a token. Returns false if none came in time.
+    public boolean acquire(long maxWait, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(maxWait);
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens--;
+                    return true;
+                }
+                // Time until the next whole token
+                waitNanos = (long) ((1 - tokens) / perSecond * 1e9);
+            }
+            long left = deadline - System.nanoTime();
+            if (waitNanos > left) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 100_000));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * perSecond);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,198 @@
+package brennan.transportauditlogin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * What we pay back for each expense type, and from which date.
+ * Before this the mileage rate (0.67) was hard-coded in three places; now the driver screen,
+ * the anomaly check, the load generator and the payroll run all ask this table.
+ *
+ * The table is read from rates.csv in the data folder if there is one:
+ *
+ *   Type,EffectiveFrom,PerMile,CapPerExpense
+ *   Mileage,2024-01-01,0.67,
+ *   Mileage,2025-01-01,0.70,
+ *   Parking,2024-01-01,,25.00
+ *
+ * A row applies from its date until the next row for the same type. With PerMile set the
+ * expense is paid by the mile, otherwise the claimed amount is paid. CapPerExpense (optional)
+ * is the most one expense can get. Types without a row are paid what was claimed.
+ *
+ * The table never changes after it is built, so the payroll run can use it from many threads.
+ */
+public class RateTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateTable.class);
+
+    public static final String FILE_NAME = "rates.csv";
+    public static final String HEADER = "Type,EffectiveFrom,PerMile,CapPerExpense";
+    // The rate that used to be hard-coded, used when there is no rates.csv
+    public static final double DEFAULT_MILEAGE_RATE = 0.67;
+
+    private static volatile RateTable shared;
+
+    // perMile and cap are 0 when not set
+    public record Rule(String type, String effectiveFrom, double perMile, double cap) {
+    }
+
+    // For each type, its rules sorted by date, plus the dates on their own for the binary search
+    private final Map<String, Rule[]> rulesByType = new HashMap<>();
+    private final Map<String, String[]> datesByType = new HashMap<>();
+
+    public RateTable(List<Rule> rules) {
+        Map<String, List<Rule>> grouped = new HashMap<>();
+        for (Rule rule : rules) {
+            grouped.computeIfAbsent(rule.type(), ignored -> new ArrayList<>()).add(rule);
+        }
+        for (Map.Entry<String, List<Rule>> entry : grouped.entrySet()) {
+            Rule[] sorted = entry.getValue().toArray(new Rule[0]);
+            Arrays.sort(sorted, Comparator.comparing(Rule::effectiveFrom));
+            String[] dates = new String[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                dates[i] = sorted[i].effectiveFrom();
+            }
+            rulesByType.put(entry.getKey(), sorted);
+            datesByType.put(entry.getKey(), dates);
+        }
+    }
+
+    public static RateTable defaults() {
+        return new RateTable(List.of(new Rule("Mileage", "2000-01-01", DEFAULT_MILEAGE_RATE, 0)));
+    }
+
+    // The app's table: rates.csv from the data folder, or the defaults if it's missing or broken
+    public static RateTable shared() {
+        RateTable table = shared;
+        if (table == null) {
+            synchronized (RateTable.class) {
+                if (shared == null) {
+                    shared = loadOrDefaults();
+                }
+                table = shared;
+            }
+        }
+        return table;
+    }
+
+    private static RateTable loadOrDefaults() {
+        try {
+            Path file = AppPaths.dataDir().resolve(FILE_NAME);
+            if (Files.exists(file)) {
+                RateTable table = load(file);
+                logger.info("Loaded reimbursement rates from {}", file);
+                return table;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read the rate table, using the default rates", e);
+        }
+        return defaults();
+    }
+
+    // Throws IllegalArgumentException naming the line when a row is bad
+    public static RateTable load(Path file) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#") || (lineNumber == 1 && line.startsWith("Type,"))) {
+                    continue;
+                }
+                try {
+                    rules.add(parseRule(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file.getFileName() + " line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        if (rules.isEmpty()) {
+            return defaults();
+        }
+        return new RateTable(rules);
+    }
+
+    private static Rule parseRule(String line) {
+        List<String> fields = ExpenseCsv.split(line);
+        if (fields.size() < 3 || fields.size() > 4) {
+            throw new IllegalArgumentException("Expected " + HEADER);
+        }
+        String type = fields.get(0).trim();
+        if (type.isEmpty()) {
+            throw new IllegalArgumentException("Type is empty");
+        }
+        String from = fields.get(1).trim();
+        try {
+            LocalDate.parse(from);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("EffectiveFrom must look like 2025-01-31");
+        }
+        double perMile = number(fields.get(2), "PerMile");
+        double cap = fields.size() > 3 ? number(fields.get(3), "CapPerExpense") : 0;
+        return new Rule(type, from, perMile, cap);
+    }
+
+    private static double number(String text, String column) {
+        if (text.isBlank()) {
+            return 0;
+        }
+        try {
+            double value = Double.parseDouble(text.trim());
+            if (value < 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not a valid amount: " + text);
+        }
+    }
+
+    // The rule in force for this type on this date (ISO yyyy-MM-dd), or null if there isn't one
+    public Rule ruleFor(String type, String date) {
+        String[] dates = datesByType.get(type);
+        if (dates == null || date == null) {
+            return null;
+        }
+        // ISO dates sort the same as text, so no parsing per expense
+        int index = Arrays.binarySearch(dates, date);
+        if (index < 0) {
+            index = -index - 2; // the last rule starting before this date
+        }
+        return index < 0 ? null : rulesByType.get(type)[index];
+    }
+
+    public double mileageRate(LocalDate date) {
+        return mileageRate(date.toString());
+    }
+
+    // Same, for a date as stored on an expense
+    public double mileageRate(String date) {
+        Rule rule = ruleFor("Mileage", date);
+        return rule == null || rule.perMile() <= 0 ? DEFAULT_MILEAGE_RATE : rule.perMile();
+    }
+
+    // What we owe for one expense, in cents so totals add up the same no matter the order
+    public long reimbursementCents(Expense expense) {
+        Rule rule = ruleFor(expense.getType(), expense.getDate());
+        double owed = expense.getAmount();
+        if (rule != null) {
+            if (rule.perMile() > 0) {
+                owed = expense.getMileage() * rule.perMile();
+            }
+            if (rule.cap() > 0) {
+                owed = Math.min(owed, rule.cap());
+            }
+        }
+        return Math.round(Math.max(0, owed) * 100);
+    }
+}
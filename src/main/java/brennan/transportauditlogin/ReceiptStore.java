@@ -0,0 +1,75 @@
+package brennan.transportauditlogin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Where receipt images are kept. Uploads go in chunks (begin, append, append, ..., commit), the
+ * way resumable uploads to a bucket work, so a 10 MB photo never has to sit in memory whole and
+ * a cloud store can replace LocalReceiptStore later without touching the screens.
+ *
+ * commit() returns the receipt ID that is saved on the expense.
+ */
+public interface ReceiptStore {
+
+    int CHUNK_SIZE = 256 * 1024;
+    long MAX_BYTES = 10L * 1024 * 1024;
+    // Formats both ImageIO (thumbnails) and JavaFX (full view) can read
+    Set<String> EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+
+    String begin(String extension) throws IOException;
+
+    void append(String uploadId, byte[] chunk, int length) throws IOException;
+
+    String commit(String uploadId) throws IOException;
+
+    // Throws away an unfinished upload; never fails
+    void abort(String uploadId);
+
+    InputStream open(String receiptId) throws IOException;
+
+    // Streams the file up a chunk at a time, reporting how far it got. Returns the receipt ID.
+    static String upload(ReceiptStore store, Path file, BackgroundTasks.Progress progress) throws IOException {
+        String extension = extensionOf(file.getFileName().toString());
+        if (!EXTENSIONS.contains(extension)) {
+            throw new IOException("Receipts must be JPG, PNG, GIF or BMP images");
+        }
+        long size = Files.size(file);
+        if (size > MAX_BYTES) {
+            throw new IOException("Receipt is larger than " + MAX_BYTES / (1024 * 1024) + " MB");
+        }
+
+        String uploadId = store.begin(extension);
+        boolean committed = false;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long sent = 0;
+            int read;
+            while ((read = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                if (progress.isCancelled()) {
+                    throw new CancellationException();
+                }
+                store.append(uploadId, buffer, read);
+                sent += read;
+                progress.update(String.format(Locale.ROOT, "Uploading receipt... %d%%", size == 0 ? 100 : sent * 100 / size));
+            }
+            String receiptId = store.commit(uploadId);
+            committed = true;
+            return receiptId;
+        } finally {
+            if (!committed) {
+                store.abort(uploadId);
+            }
+        }
+    }
+
+    static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -11,16 +11,17 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Controller for the Registration Screen.
  * I implemented this to create new users in both Firebase Authentication (for login)
  * and Firestore (for role management).
+ * A whole depot can be set up at once from a roster file (see UserProvisioner).
  */
 public class RegisterController {
 
@@ -28,6 +29,11 @@ public class RegisterController {
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
     @FXML private ToggleGroup roleToggleGroup;
+    @FXML private Label bulkStatusLabel;
+    @FXML private Button rosterButton;
+
+    // The roster import runs in here so the form stays responsive; leaving the screen cancels it
+    private final TaskScope tasks = new TaskScope("register");
 
     @FXML
     protected void onRegisterSubmitClick(ActionEvent event) {
@@ -57,12 +63,8 @@ public class RegisterController {
 
             // 2. Save custom data (Role) to Firestore
             Firestore db = FirestoreClient.getFirestore();
-            Map<String, Object> userData = new HashMap<>();
-            userData.put("username", username);
-            userData.put("email", email);
-            userData.put("role", role);
-
-            db.collection("users").document(userRecord.getUid()).set(userData);
+            UserProfile profile = new UserProfile(userRecord.getUid(), username, email, role);
+            db.collection("users").document(userRecord.getUid()).set(UserProfileMapper.toMap(profile));
 
             showAlert(Alert.AlertType.INFORMATION, "Success", "User registered! Please log in.");
             onBackToLoginClick(event);
@@ -75,8 +77,43 @@ public class RegisterController {
         }
     }
 
+    // Creates accounts for every row of a roster CSV (Email,Username,Role) and writes a results file with
+    // a set-password link per new user. Running it again with the same file only does the rows that are left.
+    @FXML
+    protected void onImportRosterClick(ActionEvent event) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Import Roster");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV Files", "*.csv"));
+        File roster = fileChooser.showOpenDialog(((Node) event.getSource()).getScene().getWindow());
+        if (roster == null) {
+            return;
+        }
+
+        UserProvisioner provisioner = new UserProvisioner(FirebaseAuth.getInstance(), FirestoreClient.getFirestore(),
+                new UserProvisioner.Settings());
+        rosterButton.setDisable(true);
+        bulkStatusLabel.setText("Reading roster...");
+        tasks.<UserProvisioner.Result>task("roster-import", BackgroundTasks.Resource.AUTH)
+                .write()
+                .onProgress(bulkStatusLabel::setText)
+                .onSuccess(result -> {
+                    rosterButton.setDisable(false);
+                    bulkStatusLabel.setText(result.describe());
+                    showAlert(Alert.AlertType.INFORMATION, "Roster Imported", result.describe()
+                            + "\n\nResults and password links were saved to:\n" + result.resultsFile
+                            + "\n\nSend each user their link, then delete the file.");
+                })
+                .onFailure(e -> {
+                    rosterButton.setDisable(false);
+                    bulkStatusLabel.setText("");
+                    showAlert(Alert.AlertType.ERROR, "Roster Import Failed", e.getMessage());
+                })
+                .start(progress -> provisioner.provision(roster.toPath(), progress));
+    }
+
     @FXML
     protected void onBackToLoginClick(ActionEvent event) {
+        tasks.close();
         try {
             FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("/login-view.fxml"));
             Scene scene = new Scene(fxmlLoader.load(), 400, 300);
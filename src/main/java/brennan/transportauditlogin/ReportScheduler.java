@@ -0,0 +1,523 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the weekly and monthly expense reports ready, so "Reports..." on the dashboard hands
+ * over a finished file instead of reading every expense and building the report on the spot.
+ *
+ * Every report period (week 2025-W11, month 2025-03, ...) keeps its rows in the data folder
+ * (reports/rows/weekly-2025-W11.csv). A period is read from Firestore in full once. After that a
+ * run only asks for expenses whose updatedAt is newer than the last run and merges them in.
+ * When something in a period changed, a new version of its CSV and PDF is written and the last
+ * few versions are kept:
+ *
+ *   reports/weekly-2025-W11/v3.csv, reports/weekly-2025-W11/v3.pdf
+ *
+ * Generation stays out of the manager's way. It runs on one low-priority thread and a scheduled
+ * run only starts once the dashboard has been idle for a while. It reads in small pages and
+ * waits between pages while the manager is using the app. "Refresh Now" skips the idle wait.
+ *
+ * Settings come from .env (REPORT_INTERVAL_MINUTES, REPORT_IDLE_SECONDS, REPORT_KEEP_VERSIONS).
+ * It can also run once from the command line, e.g. from cron: ReportScheduler --once
+ */
+public class ReportScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReportScheduler.class);
+
+    // Changes from this long before the last run started are asked for again, in case this
+    // computer's clock and the server's disagree a little. Merging the same row twice is harmless.
+    private static final long OVERLAP_SECONDS = 120;
+    private static final long CHECK_EVERY_SECONDS = 15;
+    private static final String[] FIELDS = {"employeeName", "date", "type", "amount", "mileage", "status"};
+    private static final Pattern VERSION_FILE = Pattern.compile("v(\\d+)\\.csv");
+    private static final Pattern REPORT_FOLDER = Pattern.compile("(weekly|monthly)-(.+)");
+    private static final DateTimeFormatter SHOWN = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private final Firestore db;
+    private final Path dir;
+    private final Settings settings;
+    private final ScheduledExecutorService thread;
+
+    // Set by the dashboard's idle listener. Until someone says otherwise (the command line) nobody is using the app.
+    private volatile boolean userActive;
+    private volatile String lastResult = "No reports made yet.";
+
+    public enum Kind {
+        WEEKLY, MONTHLY;
+
+        String folderPrefix() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // One report: a week or a calendar month. Dates are compared as ISO strings, like everywhere else.
+    public record Period(Kind kind, String key, LocalDate from, LocalDate to) {
+
+        static Period weekOf(LocalDate day) {
+            LocalDate monday = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            String key = String.format("%d-W%02d", monday.get(IsoFields.WEEK_BASED_YEAR), monday.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            return new Period(Kind.WEEKLY, key, monday, monday.plusDays(6));
+        }
+
+        static Period monthOf(LocalDate day) {
+            YearMonth month = YearMonth.from(day);
+            return new Period(Kind.MONTHLY, month.toString(), month.atDay(1), month.atEndOfMonth());
+        }
+
+        // Turns a folder name like "weekly-2025-W11" back into its period, or null
+        static Period fromFolder(String name) {
+            Matcher m = REPORT_FOLDER.matcher(name);
+            if (!m.matches()) {
+                return null;
+            }
+            try {
+                if (m.group(1).equals("weekly")) {
+                    return weekOf(LocalDate.parse(m.group(2) + "-1", DateTimeFormatter.ISO_WEEK_DATE));
+                }
+                return monthOf(YearMonth.parse(m.group(2)).atDay(1));
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        Period previous() {
+            return kind == Kind.WEEKLY ? weekOf(from.minusWeeks(1)) : monthOf(from.minusMonths(1));
+        }
+
+        String folder() {
+            return kind.folderPrefix() + "-" + key;
+        }
+
+        boolean contains(String date) {
+            return date != null && date.compareTo(from.toString()) >= 0 && date.compareTo(to.toString()) <= 0;
+        }
+
+        public String title() {
+            return ExpenseReportWriter.DEFAULT_TITLE + (kind == Kind.WEEKLY ? " - Week " : " - Month ") + key
+                    + " (" + from + " to " + to + ")";
+        }
+    }
+
+    // A finished report version on disk
+    public record Artifact(Period period, int version, Path csv, Path pdf, Instant created) {
+        public String describe() {
+            return String.format("%s %s  (version %d, made %s)", period.kind == Kind.WEEKLY ? "Week" : "Month",
+                    period.key, version, SHOWN.format(created));
+        }
+
+        @Override
+        public String toString() {
+            return describe();
+        }
+    }
+
+    public static class Settings {
+        public int intervalMinutes = 60;
+        // How long the dashboard has to be left alone before a scheduled run starts
+        public int idleSeconds = 30;
+        public int keepVersions = 5;
+        // The periods before the current one stay up to date as well, for late approvals
+        public int periodsBack = 1;
+        public int pageSize = 500;
+        public long pauseBetweenPagesMillis = 100;
+
+        public static Settings fromEnv() {
+            Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+            Settings settings = new Settings();
+            settings.intervalMinutes = Integer.parseInt(dotenv.get("REPORT_INTERVAL_MINUTES", "60"));
+            settings.idleSeconds = Integer.parseInt(dotenv.get("REPORT_IDLE_SECONDS", "30"));
+            settings.keepVersions = Math.max(1, Integer.parseInt(dotenv.get("REPORT_KEEP_VERSIONS", "5")));
+            return settings;
+        }
+    }
+
+    public ReportScheduler(Firestore db, Path dir, Settings settings) {
+        this.db = db;
+        this.dir = dir;
+        this.settings = settings;
+        this.thread = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread t = new Thread(task, "report-scheduler");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    public ReportScheduler(Firestore db, Settings settings) {
+        this(db, AppPaths.dataDir("reports"), settings);
+    }
+
+    public int idleSeconds() {
+        return settings.idleSeconds;
+    }
+
+    public void setUserActive(boolean active) {
+        userActive = active;
+    }
+
+    public String lastResult() {
+        return lastResult;
+    }
+
+    // Checks every few seconds whether a run is due and the dashboard is idle
+    public void start() {
+        thread.scheduleWithFixedDelay(() -> {
+            try {
+                if (!userActive && isDue()) {
+                    run(false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                lastResult = "Last report run failed: " + e.getMessage();
+                logger.warn("Scheduled report run failed", e);
+            }
+        }, CHECK_EVERY_SECONDS, CHECK_EVERY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Runs straight away on the scheduler's thread (so it never overlaps a scheduled run) without waiting for idle
+    public Future<List<Artifact>> refreshNow() {
+        return thread.submit(() -> {
+            run(true);
+            return latest();
+        });
+    }
+
+    @Override
+    public void close() {
+        thread.shutdownNow();
+    }
+
+    // --- One run ---
+
+    private boolean isDue() throws IOException {
+        Properties state = loadState();
+        String lastRun = state.getProperty("lastRun");
+        return lastRun == null || Instant.parse(lastRun).plusSeconds(settings.intervalMinutes * 60L).isBefore(Instant.now());
+    }
+
+    // Brings every kept period up to date and writes a new version of the ones that changed
+    void run(boolean force) throws IOException, ExecutionException, InterruptedException {
+        long start = System.nanoTime();
+        Instant started = Instant.now();
+        Properties state = loadState();
+        List<Period> periods = keptPeriods(LocalDate.now());
+
+        Map<Period, Map<String, Expense>> rows = new LinkedHashMap<>();
+        Set<Period> changed = new LinkedHashSet<>();
+        long read = 0;
+        for (Period period : periods) {
+            Path file = rowsFile(period);
+            if (Files.exists(file)) {
+                rows.put(period, readRows(file));
+            } else {
+                Map<String, Expense> all = readPeriod(period, force);
+                read += all.size();
+                rows.put(period, all);
+                changed.add(period);
+            }
+            if (latestVersion(period) == 0) {
+                changed.add(period);
+            }
+        }
+
+        // Everything written since the last run, merged into whichever kept periods it falls in
+        String cursor = state.getProperty("cursor");
+        if (cursor != null) {
+            for (Expense expense : readChangedSince(Instant.parse(cursor), force)) {
+                read++;
+                for (Period period : periods) {
+                    if (!period.contains(expense.getDate())) {
+                        continue;
+                    }
+                    Expense before = rows.get(period).put(expense.getId(), expense);
+                    if (before == null || !ExpenseCsv.formatRow(before).equals(ExpenseCsv.formatRow(expense))) {
+                        changed.add(period);
+                    }
+                }
+            }
+        }
+
+        for (Period period : changed) {
+            List<Expense> sorted = new ArrayList<>(rows.get(period).values());
+            sorted.sort(Comparator.comparing(Expense::getDate).thenComparing(Expense::getId));
+            writeAtomically(rowsFile(period), out -> {
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                    ExpenseReportWriter.writeCsv(writer, sorted);
+                }
+            });
+            render(period, sorted);
+        }
+        forgetOldRows(periods);
+
+        state.setProperty("cursor", started.minusSeconds(OVERLAP_SECONDS).toString());
+        state.setProperty("lastRun", started.toString());
+        saveState(state);
+        lastResult = String.format("Reports checked %s: %d expenses read, %d report(s) updated (%d ms)",
+                SHOWN.format(started), read, changed.size(), (System.nanoTime() - start) / 1_000_000);
+        logger.info(lastResult);
+    }
+
+    // The current week and month, plus periodsBack of each before them
+    List<Period> keptPeriods(LocalDate today) {
+        List<Period> periods = new ArrayList<>();
+        for (Period period : List.of(Period.weekOf(today), Period.monthOf(today))) {
+            for (int i = 0; i <= settings.periodsBack; i++) {
+                periods.add(period);
+                period = period.previous();
+            }
+        }
+        return periods;
+    }
+
+    private Map<String, Expense> readPeriod(Period period, boolean force) throws ExecutionException, InterruptedException {
+        Query base = db.collection("expenses")
+                .select(FIELDS)
+                .whereGreaterThanOrEqualTo("date", period.from.toString())
+                .whereLessThanOrEqualTo("date", period.to.toString())
+                .orderBy("date")
+                .orderBy(FieldPath.documentId())
+                .limit(settings.pageSize);
+        Map<String, Expense> rows = new HashMap<>();
+        for (Expense expense : readPages(base, force)) {
+            rows.put(expense.getId(), expense);
+        }
+        return rows;
+    }
+
+    private List<Expense> readChangedSince(Instant since, boolean force) throws ExecutionException, InterruptedException {
+        Query base = db.collection("expenses")
+                .select(FIELDS)
+                .whereGreaterThan(ExpenseMapper.UPDATED_AT, Timestamp.ofTimeSecondsAndNanos(since.getEpochSecond(), since.getNano()))
+                .orderBy(ExpenseMapper.UPDATED_AT)
+                .orderBy(FieldPath.documentId())
+                .limit(settings.pageSize);
+        return readPages(base, force);
+    }
+
+    private List<Expense> readPages(Query base, boolean force) throws ExecutionException, InterruptedException {
+        List<Expense> result = new ArrayList<>();
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = last == null ? base : base.startAfter(last);
+            List<QueryDocumentSnapshot> docs = Resilience.FIRESTORE.read(() -> page.get().get()).getDocuments();
+            for (QueryDocumentSnapshot doc : docs) {
+                result.add(ExpenseMapper.fromDocument(doc));
+            }
+            if (docs.size() < settings.pageSize) {
+                return result;
+            }
+            last = docs.get(docs.size() - 1);
+            giveWay(force);
+        }
+    }
+
+    // A short breather between pages, and a full stop for as long as the manager is busy
+    private void giveWay(boolean force) throws InterruptedException {
+        Thread.sleep(settings.pauseBetweenPagesMillis);
+        while (!force && userActive) {
+            Thread.sleep(1_000);
+        }
+    }
+
+    // --- Files ---
+
+    private void render(Period period, List<Expense> rows) throws IOException {
+        Path folder = dir.resolve(period.folder());
+        Files.createDirectories(folder);
+        int version = latestVersion(period) + 1;
+        // PDF first, so a version only shows up in latest() once both files are there
+        writeAtomically(folder.resolve("v" + version + ".pdf"), out -> ExpenseReportWriter.writePdf(out, period.title(), rows));
+        writeAtomically(folder.resolve("v" + version + ".csv"), out -> {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                ExpenseReportWriter.writeCsv(writer, rows);
+            }
+        });
+        for (int old = version - settings.keepVersions; old > 0; old--) {
+            if (!Files.deleteIfExists(folder.resolve("v" + old + ".csv"))) {
+                break; // already trimmed last time
+            }
+            Files.deleteIfExists(folder.resolve("v" + old + ".pdf"));
+        }
+    }
+
+    private int latestVersion(Period period) throws IOException {
+        Path folder = dir.resolve(period.folder());
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        int latest = 0;
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = VERSION_FILE.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    latest = Math.max(latest, Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+        return latest;
+    }
+
+    // The newest version of every report on disk, newest period first. Only lists files, so it's quick.
+    public List<Artifact> latest() throws IOException {
+        List<Artifact> artifacts = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return artifacts;
+        }
+        try (Stream<Path> folders = Files.list(dir)) {
+            for (Path folder : (Iterable<Path>) folders::iterator) {
+                Period period = Period.fromFolder(folder.getFileName().toString());
+                if (period == null) {
+                    continue;
+                }
+                int version = latestVersion(period);
+                Path csv = folder.resolve("v" + version + ".csv");
+                Path pdf = folder.resolve("v" + version + ".pdf");
+                if (version > 0 && Files.exists(pdf)) {
+                    artifacts.add(new Artifact(period, version, csv, pdf, Files.getLastModifiedTime(csv).toInstant()));
+                }
+            }
+        }
+        artifacts.sort(Comparator.comparing((Artifact a) -> a.period().from()).reversed()
+                .thenComparing(a -> a.period().kind()));
+        return artifacts;
+    }
+
+    private Path rowsFile(Period period) {
+        return dir.resolve("rows").resolve(period.folder() + ".csv");
+    }
+
+    private static Map<String, Expense> readRows(Path file) throws IOException {
+        Map<String, Expense> rows = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            reader.readLine(); // header
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                // Not ExpenseCsv.parseRow: these rows came from the database as they are, so they
+                // are read back the same way even if one wouldn't pass the import's checks
+                List<String> f = ExpenseCsv.split(line);
+                Expense expense = new Expense(f.get(0), f.get(1), f.get(2), f.get(3),
+                        Double.parseDouble(f.get(4)), Double.parseDouble(f.get(5)), f.get(6));
+                rows.put(expense.getId(), expense);
+            }
+        }
+        return rows;
+    }
+
+    // Periods that are no longer kept up to date don't need their rows; their reports stay
+    private void forgetOldRows(List<Period> kept) throws IOException {
+        Path rowsDir = dir.resolve("rows");
+        if (!Files.isDirectory(rowsDir)) {
+            return;
+        }
+        Set<String> keep = new HashSet<>();
+        kept.forEach(period -> keep.add(period.folder() + ".csv"));
+        try (Stream<Path> files = Files.list(rowsDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!keep.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Properties loadState() throws IOException {
+        Properties state = new Properties();
+        Path file = dir.resolve("state.properties");
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                state.load(reader);
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Properties state) throws IOException {
+        writeAtomically(dir.resolve("state.properties"), out -> state.store(out, "ReportScheduler"));
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Temp file and rename, so the dashboard never hands out half a report
+    private static void writeAtomically(Path file, Content content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "report-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                content.writeTo(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // --- Command line ---
+
+    // Example: --once   (brings the reports up to date and lists them; handy from cron)
+    public static void main(String[] args) throws Exception {
+        boolean once = false;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            switch (parts[0]) {
+                case "once" -> once = true;
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        FirebaseService.initialize();
+        ReportScheduler scheduler = new ReportScheduler(FirestoreClient.getFirestore(), Settings.fromEnv());
+        if (once) {
+            scheduler.run(true);
+            System.out.println(scheduler.lastResult());
+            for (Artifact artifact : scheduler.latest()) {
+                System.out.println(artifact.describe() + "  " + artifact.csv().toAbsolutePath());
+            }
+            System.exit(0);
+        }
+        // Without --once it keeps running and makes reports on the schedule
+        scheduler.start();
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,300 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.BaseServiceException;
+import io.github.cdimascio.dotenv.Dotenv;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps every call to an outside service (Firebase Auth, Google Maps, Firestore reads) so a slow
+ * or broken upstream can't hang the screens or get hammered by people clicking again.
+ *
+ * For each call, in this order:
+ *  1. circuit breaker: if the API has been failing, fail right away (CircuitOpenException)
+ *  2. rate limiter: wait a little for a token, otherwise fail (RateLimitedException)
+ *  3. run the call with a timeout
+ *  4. if it failed with something temporary (IOException, timeout, Firestore UNAVAILABLE...),
+ *     retry with a jittered backoff. call() is for requests that change something, so it only
+ *     retries when the request never reached the server (the connection failed). After a timeout,
+ *     a 5xx or a 429 it can't know if the first one was acted on, so it gives up instead of
+ *     sending a second password reset email or sign-in.
+ *
+ * read() additionally hedges: if the first attempt hasn't answered after hedgeAfterMillis, a second
+ * identical request is sent and whichever answers first wins. Only use it for calls that are safe
+ * to run twice.
+ *
+ * Failures come out as an ExecutionException holding the real cause, the same as Firestore futures,
+ * so callers that already handle those don't need a new catch block.
+ */
+public class Resilience {
+
+    private static final Logger logger = LoggerFactory.getLogger(Resilience.class);
+
+    // Runs the attempts so they can be timed out (and hedged) without blocking the caller's thread forever
+    private static final ExecutorService attempts =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("outbound-", 0).factory());
+
+    public static class Settings {
+        public double ratePerSecond = 10;
+        public int burst = 20;
+        // How long a call may wait for a rate limit token before giving up
+        public long maxQueueMillis = 2_000;
+        public int breakerThreshold = 5;
+        public long breakerOpenMillis = 30_000;
+        public long timeoutMillis = 10_000;
+        public int retries = 2;
+        public long backoffMillis = 200;
+        // 0 = never hedge
+        public long hedgeAfterMillis = 0;
+    }
+
+    public static class CircuitOpenException extends Exception {
+        public CircuitOpenException(String api, long retryAfterMillis) {
+            super(api + " is failing, not calling it for another " + (retryAfterMillis / 1000 + 1) + " s");
+        }
+    }
+
+    public static class RateLimitedException extends Exception {
+        public RateLimitedException(String api) {
+            super("Too many calls to " + api + ", try again in a moment");
+        }
+    }
+
+    // Shared policies, one per upstream. Firestore's own client already retries its transient
+    // errors, so here it only gets a timeout, hedged reads and the breaker. Its limit is for the
+    // whole process, so a busy ApiServer can raise it in .env (FIRESTORE_READS_PER_SECOND and
+    // FIRESTORE_READ_BURST); ApiServer also gives each API key its own share (see API_CALLER_RATE).
+    public static final Resilience AUTH = new Resilience("auth", settings(5, 10, 8_000, 2, 0));
+    public static final Resilience MAPS = new Resilience("maps", settings(20, 40, 8_000, 2, 1_500));
+    public static final Resilience FIRESTORE = new Resilience("firestore", firestoreSettings());
+
+    private final String name;
+    private final Settings settings;
+    private final RateLimiter limiter;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    public Resilience(String name, Settings settings) {
+        this.name = name;
+        this.settings = settings;
+        this.limiter = new RateLimiter(settings.ratePerSecond, settings.burst);
+        this.breaker = new CircuitBreaker(settings.breakerThreshold, settings.breakerOpenMillis);
+    }
+
+    private static Settings settings(double ratePerSecond, int burst, long timeoutMillis, int retries, long hedgeAfterMillis) {
+        Settings settings = new Settings();
+        settings.ratePerSecond = ratePerSecond;
+        settings.burst = burst;
+        settings.timeoutMillis = timeoutMillis;
+        settings.retries = retries;
+        settings.hedgeAfterMillis = hedgeAfterMillis;
+        return settings;
+    }
+
+    private static Settings firestoreSettings() {
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        double rate = Double.parseDouble(dotenv.get("FIRESTORE_READS_PER_SECOND", "200"));
+        int burst = Integer.parseInt(dotenv.get("FIRESTORE_READ_BURST", String.valueOf((int) Math.max(1, rate * 2))));
+        return settings(rate, burst, 15_000, 0, 2_000);
+    }
+
+    // For calls that change something: breaker, rate limit and timeout, never two at once, and
+    // retried only if the request never got to the server
+    public <T> T call(Callable<T> work) throws ExecutionException, InterruptedException {
+        return run(work, false, false);
+    }
+
+    // For reads that are safe to repeat: retries plus hedging
+    public <T> T read(Callable<T> work) throws ExecutionException, InterruptedException {
+        return run(work, settings.hedgeAfterMillis > 0, true);
+    }
+
+    private <T> T run(Callable<T> work, boolean hedge, boolean repeatable) throws ExecutionException, InterruptedException {
+        calls.incrementAndGet();
+        Throwable last = null;
+        for (int attempt = 0; attempt <= settings.retries; attempt++) {
+            if (attempt > 0) {
+                retried.incrementAndGet();
+                TimeUnit.MILLISECONDS.sleep(backoff(attempt));
+            }
+            if (!breaker.allow()) {
+                shortCircuited.incrementAndGet();
+                throw new ExecutionException(new CircuitOpenException(name, breaker.retryAfterMillis()));
+            }
+            if (!limiter.acquire(settings.maxQueueMillis, TimeUnit.MILLISECONDS)) {
+                breaker.abandon();
+                rateLimited.incrementAndGet();
+                throw new ExecutionException(new RateLimitedException(name));
+            }
+            try {
+                T result = hedge ? hedged(work) : timed(work);
+                breaker.recordSuccess();
+                return result;
+            } catch (InterruptedException e) {
+                breaker.abandon();
+                throw e;
+            } catch (TimeoutException e) {
+                timeouts.incrementAndGet();
+                breaker.recordFailure();
+                last = e;
+            } catch (ExecutionException e) {
+                last = rootCause(e);
+                if (!isTemporary(last)) {
+                    // The API answered, it just said no (bad password, not found...). That isn't an outage.
+                    breaker.recordSuccess();
+                    failures.incrementAndGet();
+                    throw new ExecutionException(last);
+                }
+                breaker.recordFailure();
+            }
+            logger.debug("{} attempt {} failed: {}", name, attempt + 1, last.toString());
+            if (!repeatable && !neverSent(last)) {
+                // It may have gone through; sending it again could do it twice
+                failures.incrementAndGet();
+                logger.warn("{} call failed and was not retried, it may have been applied: {}", name, last.toString());
+                throw new ExecutionException(last);
+            }
+        }
+        failures.incrementAndGet();
+        logger.warn("{} call failed after {} attempts: {}", name, settings.retries + 1, last.toString());
+        throw new ExecutionException(last);
+    }
+
+    private <T> T timed(Callable<T> work) throws ExecutionException, InterruptedException, TimeoutException {
+        Future<T> future = attempts.submit(work);
+        try {
+            return future.get(settings.timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            future.cancel(true);
+        }
+    }
+
+    // Sends a second request if the first is slow and returns the first answer that works
+    private <T> T hedged(Callable<T> work) throws ExecutionException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.timeoutMillis);
+        ExecutorCompletionService<T> race = new ExecutorCompletionService<>(attempts);
+        List<Future<T>> started = new ArrayList<>(2);
+        try {
+            started.add(race.submit(work));
+            Future<T> done = race.poll(Math.min(settings.hedgeAfterMillis, settings.timeoutMillis), TimeUnit.MILLISECONDS);
+            if (done != null) {
+                // A quick failure isn't worth a hedge; the retry loop decides what happens next
+                return done.get();
+            }
+            hedged.incrementAndGet();
+            started.add(race.submit(work));
+
+            ExecutionException failure = null;
+            for (int pending = started.size(); pending > 0; pending--) {
+                done = race.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    throw new TimeoutException(name + " did not answer within " + settings.timeoutMillis + " ms");
+                }
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            for (Future<T> future : started) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // Exponential, capped, with "full jitter" so retries from many clients don't line up
+    private long backoff(int attempt) {
+        long ceiling = Math.min(settings.backoffMillis << Math.min(attempt, 10), 5_000);
+        return ThreadLocalRandom.current().nextLong(settings.backoffMillis / 2, Math.max(settings.backoffMillis, ceiling) + 1);
+    }
+
+    private static Throwable rootCause(ExecutionException e) {
+        Throwable cause = e;
+        while (cause instanceof ExecutionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    // Gax's status exceptions for an outage or overload. Matched by name, gax isn't a module we can read.
+    private static final Set<String> TEMPORARY_STATUS_EXCEPTIONS = Set.of("UnavailableException",
+            "DeadlineExceededException", "ResourceExhaustedException", "AbortedException", "InternalException");
+    private static final List<String> TEMPORARY_STATUS_CODES = List.of("UNAVAILABLE", "DEADLINE_EXCEEDED",
+            "RESOURCE_EXHAUSTED", "ABORTED", "INTERNAL");
+
+    // Worth another try: network trouble, timeouts, HTTP 429/5xx (see send), and Firestore or other
+    // Google API errors that mean the service is down or overloaded. Counted against the breaker.
+    static boolean isTemporary(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof TimeoutException) {
+                return true;
+            }
+            if (cause instanceof BaseServiceException service && service.isRetryable()) {
+                return true;
+            }
+            if (TEMPORARY_STATUS_EXCEPTIONS.contains(cause.getClass().getSimpleName())) {
+                return true;
+            }
+            // gRPC errors read like "UNAVAILABLE: io exception", sometimes behind the exception's class name
+            String message = cause.getMessage();
+            if (message != null) {
+                String text = message.replaceFirst("^[\\w.$]+Exception: ", "");
+                for (String code : TEMPORARY_STATUS_CODES) {
+                    if (text.startsWith(code + ":") || text.equals(code)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Failed before anything was sent (connection refused, couldn't connect in time), so repeating is safe
+    private static boolean neverSent(Throwable error) {
+        return error instanceof ConnectException || error instanceof HttpConnectTimeoutException;
+    }
+
+    /**
+     * Sends an HTTP request for use inside call()/read(). 429 and 5xx answers are thrown as
+     * IOExceptions so they count as failures and get retried; any other status is returned.
+     */
+    public static HttpResponse<String> send(HttpClient client, HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 429 || response.statusCode() >= 500) {
+            throw new IOException("HTTP " + response.statusCode() + " from " + request.uri().getHost());
+        }
+        return response;
+    }
+
+    public CircuitBreaker.State state() {
+        return breaker.state();
+    }
+
+    // e.g. "maps: CLOSED, 120 calls, 3 failed, 9 retries, 4 hedged, 2 timeouts, 0 short-circuited, 0 rate limited"
+    public String describe() {
+        return String.format("%s: %s, %d calls, %d failed, %d retries, %d hedged, %d timeouts, %d short-circuited, %d rate limited",
+                name, breaker.state(), calls.get(), failures.get(), retried.get(), hedged.get(), timeouts.get(),
+                shortCircuited.get(), rateLimited.get());
+    }
+}
@@ -0,0 +1,299 @@
+package brennan.transportauditlogin;
+
+import com.google.firebase.cloud.FirestoreClient;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Review Mode: shows one pending expense at a time and takes one key per decision.
+// While the manager looks at the current item, the next few are re-read from Firestore (in case
+// someone else already decided them) and their routes are looked up, so the next one is ready
+// straight away. Decisions are shown as done immediately and saved one after another in the
+// background, each only if the expense is still pending when it's written. One that someone else
+// decided in the meantime, or that couldn't be saved, is counted as skipped and left as it was.
+public class ReviewQueueController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReviewQueueController.class);
+
+    // How many upcoming items are loaded ahead of the one on screen
+    private static final int PREFETCH = 5;
+
+    private enum Priority {
+        OLDEST("Oldest first", Comparator.comparing(Expense::getDate)),
+        AMOUNT("Highest amount", Comparator.comparingDouble(Expense::getAmount).reversed()),
+        RISK("Highest risk", Comparator.comparingDouble(Expense::getRiskScore).reversed());
+
+        private final String label;
+        private final Comparator<Expense> order;
+
+        Priority(String label, Comparator<Expense> order) {
+            this.label = label;
+            this.order = order;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // What the background lookups found for one expense
+    private record Prefetched(Expense fresh, GoogleMapsService.RouteInfo route) { }
+
+    @FXML private BorderPane root;
+    @FXML private ComboBox<Priority> orderBox;
+    @FXML private Label positionLabel;
+    @FXML private Label employeeLabel;
+    @FXML private Label detailsLabel;
+    @FXML private Label riskLabel;
+    @FXML private Label routeLabel;
+    @FXML private Label statusLabel;
+
+    private final List<Expense> queue = new ArrayList<>();
+    private int position;
+
+    private final ExpenseService expenseService = new ExpenseService(FirestoreClient.getFirestore());
+    private final GoogleMapsService mapsService = new GoogleMapsService();
+    private final Map<String, CompletableFuture<Prefetched>> prefetched = new ConcurrentHashMap<>();
+    // The look-ahead lookups count against the shared Maps limit and are cancelled when the window closes
+    private final TaskScope prefetcher = new TaskScope("review-prefetch");
+    // One thread, so decisions reach Firestore in the order they were made
+    private final ExecutorService writeBehind = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().daemon().name("review-write-behind").factory());
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private int saved;
+    private int skipped;
+
+    private String managerName = "";
+    private ExpenseQueryCache queryCache;
+    private Runnable onClosed;
+    private boolean closed;
+
+    @FXML
+    public void initialize() {
+        orderBox.setItems(FXCollections.observableArrayList(Priority.values()));
+        orderBox.getSelectionModel().select(Priority.RISK);
+        orderBox.setOnAction(ignored -> {
+            sortRemaining();
+            show();
+            root.requestFocus();
+        });
+    }
+
+    // Called by the Manager Dashboard once the window has its scene.
+    // The pending expenses are the dashboard cache's own objects, so status changes go through
+    // queryCache.applyStatus. onClosed runs after the last decision has been saved.
+    public void start(List<Expense> pending, String managerName, ExpenseQueryCache queryCache, Runnable onClosed) {
+        this.managerName = managerName;
+        this.queryCache = queryCache;
+        this.onClosed = onClosed;
+        queue.addAll(pending);
+        sortRemaining();
+
+        root.getScene().addEventFilter(KeyEvent.KEY_PRESSED, this::onKey);
+        Stage stage = (Stage) root.getScene().getWindow();
+        stage.setOnHidden(ignored -> close());
+        // Logging out shouldn't leave a review window open for the next person
+        SessionManager.addLogoutHook(stage::close);
+        show();
+    }
+
+    private void onKey(KeyEvent event) {
+        switch (event.getCode()) {
+            case A -> decide("Approved");
+            case R -> decide("Rejected");
+            case S -> skip();
+            case ESCAPE -> ((Stage) root.getScene().getWindow()).close();
+            default -> {
+                return;
+            }
+        }
+        event.consume();
+    }
+
+    private void sortRemaining() {
+        queue.subList(position, queue.size()).sort(orderBox.getValue().order);
+    }
+
+    // --- Showing items ---
+
+    private void show() {
+        updateStatusLabel();
+        if (position >= queue.size()) {
+            positionLabel.setText(queue.size() + " reviewed");
+            employeeLabel.setText("All done!");
+            detailsLabel.setText("There are no more pending expenses in this list.");
+            riskLabel.setText("");
+            routeLabel.setText("");
+            return;
+        }
+
+        Expense expense = queue.get(position);
+        positionLabel.setText((position + 1) + " of " + queue.size());
+        employeeLabel.setText(expense.getEmployeeName());
+        detailsLabel.setText(String.format("%s   %s   $%.2f   %.1f mi", expense.getDate(), expense.getType(),
+                expense.getAmount(), expense.getMileage()));
+        String reasons = expense.getRiskReasons();
+        riskLabel.setText(String.format("Risk %.0f%s", expense.getRiskScore(),
+                reasons == null || reasons.isEmpty() ? "" : ": " + reasons));
+        riskLabel.setStyle(expense.getRiskScore() >= AnomalyScorer.REVIEW_THRESHOLD ? "-fx-text-fill: red;" : "");
+
+        CompletableFuture<Prefetched> details = prefetch(expense);
+        if (details.isDone()) {
+            showDetails(expense, details.join());
+        } else {
+            routeLabel.setText("Loading details...");
+            details.thenAccept(result -> Platform.runLater(() -> showDetails(expense, result)));
+        }
+
+        // Start on the next few while this one is being looked at
+        for (int i = position + 1; i < Math.min(queue.size(), position + 1 + PREFETCH); i++) {
+            prefetch(queue.get(i));
+        }
+    }
+
+    private void showDetails(Expense expense, Prefetched result) {
+        if (closed || position >= queue.size() || queue.get(position) != expense) {
+            return; // the manager already moved on
+        }
+        if (result.fresh() != null && !"Pending".equals(result.fresh().getStatus())) {
+            // Someone else got to it first
+            statusLabel.setText(expense.getEmployeeName() + "'s expense was already " + result.fresh().getStatus() + ", skipped.");
+            position++;
+            show();
+            return;
+        }
+        if (result.fresh() == null) {
+            // Saving still checks it's pending, so a decision here can't overwrite someone else's
+            statusLabel.setText("Could not re-check this expense, it is only saved if it's still pending.");
+        }
+        if (result.route() != null) {
+            routeLabel.setText(String.format("Route: %s to %s, %.1f mi by road (%.1f mi claimed)",
+                    expense.getOrigin(), expense.getDestination(), result.route().miles, expense.getMileage()));
+        } else if (expense.getOrigin() != null) {
+            routeLabel.setText("Route: " + expense.getOrigin() + " to " + expense.getDestination());
+        } else {
+            routeLabel.setText("No route recorded.");
+        }
+    }
+
+    private CompletableFuture<Prefetched> prefetch(Expense expense) {
+        return prefetched.computeIfAbsent(expense.getId(), id -> {
+            CompletableFuture<Prefetched> future = new CompletableFuture<>();
+            prefetcher.<Prefetched>task("prefetch", BackgroundTasks.Resource.MAPS)
+                    .onSuccess(future::complete)
+                    .onFailure(e -> future.complete(new Prefetched(null, null)))
+                    .start(progress -> {
+                        Expense fresh = null;
+                        try {
+                            fresh = expenseService.get(id);
+                        } catch (ExecutionException e) {
+                            logger.warn("Could not re-read expense {}", id, e);
+                        }
+                        GoogleMapsService.RouteInfo route = null;
+                        if (expense.getOrigin() != null && expense.getDestination() != null) {
+                            route = mapsService.getRouteDetails(expense.getOrigin(), expense.getDestination());
+                        }
+                        return new Prefetched(fresh, route);
+                    });
+            return future;
+        });
+    }
+
+    // --- Decisions ---
+
+    private void decide(String newStatus) {
+        if (position >= queue.size()) {
+            return;
+        }
+        Expense expense = queue.get(position);
+        // Optimistic: it counts as done on screen now and is saved in the background
+        queryCache.applyStatus(expense.getId(), newStatus);
+        position++;
+        prefetched.remove(expense.getId());
+        waiting.incrementAndGet();
+        writeBehind.submit(() -> save(expense, newStatus));
+        show();
+    }
+
+    private void save(Expense expense, String newStatus) {
+        // The status it had when we wrote, or null if nothing could be written
+        String before;
+        try {
+            before = expenseService.updateStatusIfPending(expense.getId(), newStatus, managerName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            before = null;
+        } catch (ExecutionException e) {
+            logger.error("Could not save decision for {}", expense.getId(), e);
+            before = null;
+        }
+        waiting.decrementAndGet();
+        String previous = before;
+        Platform.runLater(() -> {
+            if ("Pending".equals(previous)) {
+                saved++;
+            } else {
+                // Someone else decided it first, or the write failed: show what it really is now
+                skipped++;
+                String current = previous == null || previous.isEmpty() ? "Pending" : previous;
+                queryCache.applyStatus(expense.getId(), current);
+                if (!closed) {
+                    statusLabel.setText(expense.getEmployeeName() + "'s expense "
+                            + (previous == null ? "could not be saved" : "was already " + current) + ", skipped.");
+                    return;
+                }
+            }
+            if (!closed) {
+                updateStatusLabel();
+            }
+        });
+    }
+
+    private void skip() {
+        if (position < queue.size()) {
+            // Skipped items go to the back of the queue
+            queue.add(queue.remove(position));
+            show();
+        }
+    }
+
+    private void updateStatusLabel() {
+        statusLabel.setText(String.format("%d saved, %d saving%s", saved, waiting.get(),
+                skipped > 0 ? ", " + skipped + " skipped" : ""));
+    }
+
+    // Stops the lookups, then lets the dashboard reload once every decision is saved
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        prefetcher.close();
+        writeBehind.shutdown();
+        Thread.ofVirtual().name("review-close").start(() -> {
+            try {
+                if (!writeBehind.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("Review decisions were still saving after 30 seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (onClosed != null) {
+                Platform.runLater(onClosed);
+            }
+        });
+    }
+}
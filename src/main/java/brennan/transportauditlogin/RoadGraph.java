@@ -0,0 +1,382 @@
+package brennan.transportauditlogin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A road network stored in plain primitive arrays so a whole region fits in memory.
+ * Node positions are kept as micro-degrees (int) and the edges are in "CSR" form:
+ * the edges leaving node i are edgeTarget[edgeStart[i] .. edgeStart[i + 1]).
+ * I build it from an OpenStreetMap XML extract (.osm or .osm.gz) and cache the arrays
+ * in a small binary file next to it, so the slow XML parse only happens once.
+ */
+public class RoadGraph {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoadGraph.class);
+
+    private static final int CACHE_MAGIC = 0x52475048; // "RGPH"
+    private static final int CACHE_VERSION = 1;
+
+    // Only roads a car can actually drive on
+    private static final Set<String> DRIVABLE = Set.of(
+            "motorway", "motorway_link", "trunk", "trunk_link", "primary", "primary_link",
+            "secondary", "secondary_link", "tertiary", "tertiary_link", "unclassified",
+            "residential", "living_street", "service", "road"
+    );
+
+    final int[] latE6;
+    final int[] lonE6;
+    final int[] edgeStart;
+    final int[] edgeTarget;
+    final float[] edgeMeters;
+
+    private RoadGraph(int[] latE6, int[] lonE6, int[] edgeStart, int[] edgeTarget, float[] edgeMeters) {
+        this.latE6 = latE6;
+        this.lonE6 = lonE6;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeMeters = edgeMeters;
+    }
+
+    public int nodeCount() {
+        return latE6.length;
+    }
+
+    public int edgeCount() {
+        return edgeTarget.length;
+    }
+
+    public double lat(int node) {
+        return latE6[node] / 1e6;
+    }
+
+    public double lon(int node) {
+        return lonE6[node] / 1e6;
+    }
+
+    // Loads the graph for an extract, using the binary cache if it is newer than the extract
+    public static RoadGraph open(Path extract) throws IOException {
+        Path cache = extract.resolveSibling(extract.getFileName() + ".graph");
+        if (Files.exists(cache) && Files.getLastModifiedTime(cache).compareTo(Files.getLastModifiedTime(extract)) >= 0) {
+            try {
+                return load(cache);
+            } catch (IOException e) {
+                logger.warn("Road graph cache {} is unreadable, rebuilding it", cache);
+            }
+        }
+
+        long start = System.nanoTime();
+        RoadGraph graph = parseOsm(extract);
+        logger.info("Built road graph from {}: {} nodes, {} edges in {} ms",
+                extract, graph.nodeCount(), graph.edgeCount(), (System.nanoTime() - start) / 1_000_000);
+        try {
+            graph.save(cache);
+        } catch (IOException e) {
+            // Only the next start gets slower; the graph itself is fine
+            logger.warn("Could not write road graph cache {}: {}", cache, e.getMessage());
+            try {
+                Files.deleteIfExists(cache);
+            } catch (IOException ignored) {
+                // a half-written cache fails its checks on load and is rebuilt anyway
+            }
+        }
+        return graph;
+    }
+
+    // --- Binary cache ---
+
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(nodeCount());
+            out.writeInt(edgeCount());
+            for (int i = 0; i < nodeCount(); i++) {
+                out.writeInt(latE6[i]);
+                out.writeInt(lonE6[i]);
+            }
+            for (int value : edgeStart) {
+                out.writeInt(value);
+            }
+            for (int i = 0; i < edgeCount(); i++) {
+                out.writeInt(edgeTarget[i]);
+                out.writeFloat(edgeMeters[i]);
+            }
+        }
+    }
+
+    public static RoadGraph load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                throw new IOException("Not a road graph cache: " + file);
+            }
+            int nodes = in.readInt();
+            int edges = in.readInt();
+            int[] lat = new int[nodes];
+            int[] lon = new int[nodes];
+            for (int i = 0; i < nodes; i++) {
+                lat[i] = in.readInt();
+                lon[i] = in.readInt();
+            }
+            int[] start = new int[nodes + 1];
+            for (int i = 0; i <= nodes; i++) {
+                start[i] = in.readInt();
+            }
+            int[] target = new int[edges];
+            float[] meters = new float[edges];
+            for (int i = 0; i < edges; i++) {
+                target[i] = in.readInt();
+                meters[i] = in.readFloat();
+            }
+            return new RoadGraph(lat, lon, start, target, meters);
+        }
+    }
+
+    // --- OSM parsing ---
+
+    static RoadGraph parseOsm(Path extract) throws IOException {
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(extract), 1 << 16)) {
+            InputStream in = extract.toString().endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw;
+            return parseOsm(in);
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not parse OSM extract " + extract, e);
+        }
+    }
+
+    private static RoadGraph parseOsm(InputStream in) throws XMLStreamException {
+        XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+        // OSM ids are huge longs, so I map them to small array indexes as I go
+        LongIntMap idToIndex = new LongIntMap(1 << 16);
+        IntList lat = new IntList();
+        IntList lon = new IntList();
+
+        IntList edgeFrom = new IntList();
+        IntList edgeTo = new IntList();
+
+        // State for the <way> currently being read
+        IntList wayNodes = new IntList();
+        boolean inWay = false;
+        boolean drivable = false;
+        // 0 both ways, 1 only in the order the way lists its nodes, -1 only against it (oneway=-1)
+        int oneway = 0;
+
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (xml.getLocalName()) {
+                    case "node" -> {
+                        long id = Long.parseLong(xml.getAttributeValue(null, "id"));
+                        idToIndex.put(id, lat.size());
+                        lat.add((int) Math.round(Double.parseDouble(xml.getAttributeValue(null, "lat")) * 1e6));
+                        lon.add((int) Math.round(Double.parseDouble(xml.getAttributeValue(null, "lon")) * 1e6));
+                    }
+                    case "way" -> {
+                        inWay = true;
+                        drivable = false;
+                        oneway = 0;
+                        wayNodes.clear();
+                    }
+                    case "nd" -> {
+                        if (inWay) {
+                            int index = idToIndex.get(Long.parseLong(xml.getAttributeValue(null, "ref")));
+                            if (index >= 0) {
+                                wayNodes.add(index);
+                            }
+                        }
+                    }
+                    case "tag" -> {
+                        if (inWay) {
+                            String key = xml.getAttributeValue(null, "k");
+                            String value = xml.getAttributeValue(null, "v");
+                            if ("highway".equals(key)) {
+                                drivable = DRIVABLE.contains(value);
+                            } else if ("oneway".equals(key)) {
+                                if ("yes".equals(value) || "1".equals(value) || "true".equals(value)) {
+                                    oneway = 1;
+                                } else if ("-1".equals(value) || "reverse".equals(value)) {
+                                    oneway = -1;
+                                } else {
+                                    oneway = 0;
+                                }
+                            }
+                        }
+                    }
+                    default -> { }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "way".equals(xml.getLocalName())) {
+                if (drivable) {
+                    for (int i = 1; i < wayNodes.size(); i++) {
+                        if (oneway >= 0) {
+                            edgeFrom.add(wayNodes.get(i - 1));
+                            edgeTo.add(wayNodes.get(i));
+                        }
+                        if (oneway <= 0) {
+                            edgeFrom.add(wayNodes.get(i));
+                            edgeTo.add(wayNodes.get(i - 1));
+                        }
+                    }
+                }
+                inWay = false;
+            }
+        }
+        xml.close();
+
+        return compact(lat.toArray(), lon.toArray(), edgeFrom.toArray(), edgeTo.toArray());
+    }
+
+    // Drops nodes that no road uses (buildings, shops, etc.) and sorts the edges into CSR form
+    private static RoadGraph compact(int[] lat, int[] lon, int[] from, int[] to) {
+        int[] remap = new int[lat.length];
+        Arrays.fill(remap, -1);
+        int used = 0;
+        for (int i = 0; i < from.length; i++) {
+            if (remap[from[i]] < 0) remap[from[i]] = used++;
+            if (remap[to[i]] < 0) remap[to[i]] = used++;
+        }
+
+        int[] newLat = new int[used];
+        int[] newLon = new int[used];
+        for (int i = 0; i < lat.length; i++) {
+            if (remap[i] >= 0) {
+                newLat[remap[i]] = lat[i];
+                newLon[remap[i]] = lon[i];
+            }
+        }
+
+        // Counting sort of the edges by their start node
+        int[] start = new int[used + 1];
+        for (int f : from) {
+            start[remap[f] + 1]++;
+        }
+        for (int i = 0; i < used; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] fill = Arrays.copyOf(start, used);
+        int[] target = new int[from.length];
+        float[] meters = new float[from.length];
+        for (int i = 0; i < from.length; i++) {
+            int a = remap[from[i]];
+            int b = remap[to[i]];
+            int slot = fill[a]++;
+            target[slot] = b;
+            meters[slot] = (float) haversineMeters(newLat[a] / 1e6, newLon[a] / 1e6, newLat[b] / 1e6, newLon[b] / 1e6);
+        }
+        return new RoadGraph(newLat, newLon, start, target, meters);
+    }
+
+    // Great-circle distance. I use the same formula for edges and for the A* estimate,
+    // which keeps the estimate from ever being bigger than the real road distance.
+    static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * 6_371_008.8 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    // --- Small primitive collections so parsing doesn't box millions of Integers ---
+
+    static final class IntList {
+        private int[] data = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+
+        int get(int index) {
+            return data[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    // Open addressing long -> int map (returns -1 when the key is missing)
+    static final class LongIntMap {
+        private long[] keys;
+        private int[] values;
+        private boolean[] filled;
+        private int size;
+
+        LongIntMap(int capacity) {
+            int cap = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+            keys = new long[cap];
+            values = new int[cap];
+            filled = new boolean[cap];
+        }
+
+        void put(long key, int value) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int slot = slot(key);
+            if (!filled[slot]) {
+                filled[slot] = true;
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        int get(long key) {
+            int slot = slot(key);
+            return filled[slot] ? values[slot] : -1;
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (mix(key) & mask);
+            while (filled[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldFilled = filled;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            filled = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldFilled[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package brennan.transportauditlogin;
+
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.StrokeLineCap;
+import javafx.scene.shape.StrokeLineJoin;
+import javafx.scene.text.TextAlignment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A lightweight picture of a route: the decoded polyline drawn on a Canvas with a start and end dot.
+ * It replaces the Google Maps WebView as the default, which loaded a whole web app just to show a line.
+ *
+ * Decoding and projecting a route is done once per route: the result (points scaled to a 0..1 box)
+ * is kept in a small LRU keyed by the polyline, so redrawing on resize or going back to a previous
+ * route is only the drawing itself.
+ */
+public class RoutePreview extends Pane {
+
+    private static final int CACHE_SIZE = 32;
+    private static final double PADDING = 20;
+
+    // Points already projected and scaled to fit in a 0..1 box, plus the box's aspect ratio
+    private record Shape(double[] xy, double aspect) {
+    }
+
+    private static final Map<String, Shape> shapes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final Canvas canvas = new Canvas();
+    private Shape shape;
+    private String startLabel;
+    private String endLabel;
+    private String message = "Calculate a route to see it here.";
+
+    public RoutePreview() {
+        getChildren().add(canvas);
+        // The canvas follows the size of the pane, so the picture fills whatever space it gets
+        widthProperty().addListener((ignored1, ignored2, ignored3) -> redraw());
+        heightProperty().addListener((ignored1, ignored2, ignored3) -> redraw());
+    }
+
+    @Override
+    protected void layoutChildren() {
+        canvas.setWidth(getWidth());
+        canvas.setHeight(getHeight());
+    }
+
+    public void show(GoogleMapsService.RouteInfo route, String start, String end) {
+        startLabel = start;
+        endLabel = end;
+        shape = route == null || route.polyline == null ? null : shapeOf(route.polyline);
+        message = shape == null ? "No route shape available for this trip." : null;
+        redraw();
+    }
+
+    public void clear(String text) {
+        shape = null;
+        message = text;
+        redraw();
+    }
+
+    private static Shape shapeOf(String polyline) {
+        synchronized (shapes) {
+            Shape cached = shapes.get(polyline);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        double[] latLngs;
+        try {
+            latLngs = PolylineCodec.decode(polyline);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (latLngs.length < 4) {
+            return null;
+        }
+
+        // Web Mercator, like the real map, so the shape looks the same as it would in Google Maps
+        double[] xy = new double[latLngs.length];
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < latLngs.length; i += 2) {
+            double x = Math.toRadians(latLngs[i + 1]);
+            double y = -Math.log(Math.tan(Math.PI / 4 + Math.toRadians(latLngs[i]) / 2));
+            xy[i] = x;
+            xy[i + 1] = y;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        double span = Math.max(Math.max(maxX - minX, maxY - minY), 1e-9);
+        for (int i = 0; i < xy.length; i += 2) {
+            xy[i] = (xy[i] - minX) / span;
+            xy[i + 1] = (xy[i + 1] - minY) / span;
+        }
+        Shape result = new Shape(xy, Math.max(maxX - minX, 1e-9) / Math.max(maxY - minY, 1e-9));
+        synchronized (shapes) {
+            shapes.put(polyline, result);
+        }
+        return result;
+    }
+
+    private void redraw() {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.setFill(Color.web("#eef2f5"));
+        g.fillRect(0, 0, width, height);
+        if (width <= 2 * PADDING || height <= 2 * PADDING) {
+            return;
+        }
+
+        g.setTextAlign(TextAlignment.CENTER);
+        g.setTextBaseline(VPos.CENTER);
+        if (shape == null) {
+            g.setFill(Color.GRAY);
+            g.fillText(message, width / 2, height / 2);
+            return;
+        }
+
+        // Same scale on both axes, centred in the space left over
+        double[] xy = shape.xy();
+        double scale = Math.min((width - 2 * PADDING) / boxWidth(), (height - 2 * PADDING) / boxHeight());
+        double offsetX = (width - boxWidth() * scale) / 2;
+        double offsetY = (height - boxHeight() * scale) / 2;
+
+        g.setStroke(Color.web("#1a73e8"));
+        g.setLineWidth(4);
+        g.setLineCap(StrokeLineCap.ROUND);
+        g.setLineJoin(StrokeLineJoin.ROUND);
+        g.beginPath();
+        g.moveTo(offsetX + xy[0] * scale, offsetY + xy[1] * scale);
+        for (int i = 2; i < xy.length; i += 2) {
+            g.lineTo(offsetX + xy[i] * scale, offsetY + xy[i + 1] * scale);
+        }
+        g.stroke();
+
+        double startX = offsetX + xy[0] * scale;
+        double startY = offsetY + xy[1] * scale;
+        double endX = offsetX + xy[xy.length - 2] * scale;
+        double endY = offsetY + xy[xy.length - 1] * scale;
+        marker(g, startX, startY, Color.web("#34a853"), startLabel);
+        marker(g, endX, endY, Color.web("#ea4335"), endLabel);
+    }
+
+    // Width and height of the route's box in the 0..1 space (the longer side is 1)
+    private double boxWidth() {
+        return shape.aspect() >= 1 ? 1 : shape.aspect();
+    }
+
+    private double boxHeight() {
+        return shape.aspect() >= 1 ? 1 / shape.aspect() : 1;
+    }
+
+    private static void marker(GraphicsContext g, double x, double y, Color color, String label) {
+        g.setFill(color);
+        g.fillOval(x - 6, y - 6, 12, 12);
+        g.setStroke(Color.WHITE);
+        g.setLineWidth(2);
+        g.strokeOval(x - 6, y - 6, 12, 12);
+        if (label != null && !label.isEmpty()) {
+            g.setFill(Color.web("#333333"));
+            g.fillText(label.length() > 30 ? label.substring(0, 29) + "…" : label, x, y - 14);
+        }
+    }
+}
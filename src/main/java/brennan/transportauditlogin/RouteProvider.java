@@ -0,0 +1,16 @@
+package brennan.transportauditlogin;
+
+/**
+ * Anything that can work out the driving distance between two places.
+ * I split this out of GoogleMapsService so the app can calculate mileage offline
+ * (LocalRouteProvider) and only fall back to Google when it has to.
+ */
+public interface RouteProvider {
+
+    // Returns the route, or null if this provider can't answer (no network, unknown address, etc.)
+    // Returning null lets GoogleMapsService move on to the next provider instead of failing.
+    GoogleMapsService.RouteInfo getRoute(String origin, String destination);
+
+    // Short name used in the logs so I can tell which provider answered
+    String getName();
+}
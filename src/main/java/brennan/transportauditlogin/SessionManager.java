@@ -1,6 +1,8 @@
 package brennan.transportauditlogin;
 
-import javafx.animation.PauseTransition;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.event.EventHandler;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -11,43 +13,131 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 // I used this class to handle the auto-logout timer and the actual logout process.
 // It helps keep the security logic in one place.
+//
+// Idle tracking: every mouse move or key press only stores the current time. One timer checks that
+// time once a second, so moving the mouse costs next to nothing (it used to restart an animation on
+// every single mouse event). Screens can register idle listeners that give back memory after a
+// while without input (unload a map, drop cached rows, stop a Firestore listener) and take it
+// back when the user returns. The full timeout still logs out.
 public class SessionManager {
 
     private static final Logger logger = LoggerFactory.getLogger(SessionManager.class);
     private static final double TIMEOUT_SECONDS = 300; // 5 Minutes
-    private static PauseTransition delay;
+    private static final Duration CHECK_EVERY = Duration.seconds(1);
 
-    // Starts the timer that watches for inactivity
-    public static void startSessionTimer(Scene scene, Stage stage) {
-        if (delay != null) {
-            delay.stop();
+    // Something a screen can release after a while without input, and restore when the user is back
+    public interface IdleListener {
+        void onIdle();
+
+        void onActive();
+    }
+
+    private static final class IdleTier {
+        final long afterNanos;
+        final IdleListener listener;
+        boolean released;
+
+        IdleTier(long afterNanos, IdleListener listener) {
+            this.afterNanos = afterNanos;
+            this.listener = listener;
         }
+    }
 
-        // If the timer runs out (5 mins), it logs the user out automatically.
-        // I renamed 'event' to 'ignored' because I don't need to check the event details,
-        // I just need to know that the time ran out.
-        delay = new PauseTransition(Duration.seconds(TIMEOUT_SECONDS));
-        delay.setOnFinished(ignored -> {
-            logger.info("Session timed out. Performing secure logout.");
-            logout(stage);
-        });
+    private static volatile long lastActivity = System.nanoTime();
+    private static Timeline checker;
+    private static Stage sessionStage;
+    // The scenes the activity filter is on, so it can be taken off again
+    private static final List<Scene> trackedScenes = new ArrayList<>();
+    private static final EventHandler<InputEvent> activityHandler = ignored -> lastActivity = System.nanoTime();
 
-        // If the user moves the mouse or types, we reset the timer back to 0.
-        // I switched to an "Expression Lambda" (removing the curly braces {})
-        // to make the code cleaner and fix the IDE warning.
-        EventHandler<InputEvent> activityHandler = ignored -> delay.playFromStart();
+    // Things a dashboard opened that have to be shut down when the user logs out (listeners etc.)
+    private static final List<Runnable> logoutHooks = new ArrayList<>();
+    // Kept sorted by how long the user has to be idle
+    private static final List<IdleTier> idleTiers = new ArrayList<>();
 
-        // This adds the listener to the whole screen
+    public static void addLogoutHook(Runnable hook) {
+        logoutHooks.add(hook);
+    }
+
+    // Calls listener.onIdle() after this many seconds without input, and onActive() on the next input after that.
+    // Listeners are dropped on logout, like the logout hooks.
+    public static void addIdleListener(double afterSeconds, IdleListener listener) {
+        idleTiers.add(new IdleTier((long) (afterSeconds * 1e9), listener));
+        idleTiers.sort(Comparator.comparingLong(tier -> tier.afterNanos));
+    }
+
+    // Starts the timer that watches for inactivity
+    public static void startSessionTimer(Scene scene, Stage stage) {
+        // The last session's scenes are let go first, so logging in again doesn't stack up handlers
+        detachActivityFilters();
+        watchScene(scene);
+        sessionStage = stage;
+        lastActivity = System.nanoTime();
+
+        if (checker == null) {
+            checker = new Timeline(new KeyFrame(CHECK_EVERY, ignored -> checkIdle()));
+            checker.setCycleCount(Animation.INDEFINITE);
+        }
+        checker.play();
+    }
+
+    // Input in other windows of the session (Review Mode, Trends) counts as activity too
+    public static void watchScene(Scene scene) {
         scene.addEventFilter(InputEvent.ANY, activityHandler);
-        delay.play();
+        trackedScenes.add(scene);
     }
 
     public static void stopSessionTimer() {
-        if (delay != null) {
-            delay.stop();
+        if (checker != null) {
+            checker.stop();
+        }
+        detachActivityFilters();
+    }
+
+    private static void detachActivityFilters() {
+        for (Scene scene : trackedScenes) {
+            scene.removeEventFilter(InputEvent.ANY, activityHandler);
+        }
+        trackedScenes.clear();
+    }
+
+    private static void checkIdle() {
+        long idle = System.nanoTime() - lastActivity;
+
+        if (idle >= TIMEOUT_SECONDS * 1e9) {
+            logger.info("Session timed out. Performing secure logout.");
+            logout(sessionStage);
+            return;
+        }
+
+        // Release from the cheapest tier up as the idle time grows...
+        for (IdleTier tier : idleTiers) {
+            if (!tier.released && idle >= tier.afterNanos) {
+                tier.released = true;
+                run(tier.listener::onIdle, "Idle release failed");
+            }
+        }
+        // ...and restore in the opposite order once there is input again
+        for (int i = idleTiers.size() - 1; i >= 0; i--) {
+            IdleTier tier = idleTiers.get(i);
+            if (tier.released && idle < tier.afterNanos) {
+                tier.released = false;
+                run(tier.listener::onActive, "Idle restore failed");
+            }
+        }
+    }
+
+    private static void run(Runnable action, String failure) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.warn(failure, e);
         }
     }
 
@@ -56,6 +146,12 @@ public class SessionManager {
     public static void logout(Stage stage) {
         try {
             stopSessionTimer(); // Always stop the timer first
+            idleTiers.clear();
+            for (Runnable hook : logoutHooks) {
+                run(hook, "Logout cleanup failed");
+            }
+            logoutHooks.clear();
+            sessionStage = null;
 
             FXMLLoader fxmlLoader = new FXMLLoader(SessionManager.class.getResource("/login-view.fxml"));
             Scene scene = new Scene(fxmlLoader.load(), 400, 300);
@@ -68,4 +164,4 @@ public class SessionManager {
             logger.error("Logout failed", e);
         }
     }
-}
\ No newline at end of file
+}
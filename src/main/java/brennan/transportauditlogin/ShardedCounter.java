@@ -0,0 +1,250 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.*;
+import com.google.firebase.cloud.FirestoreClient;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A set of number fields (count, amount, ...) spread over several documents.
+ *
+ * Firestore only keeps up with about one sustained write per second on a single document, and
+ * every submit and every approval touches the "all" rollup. With many drivers and a few managers
+ * at once those transactions queue behind each other and start failing. Each write here goes to
+ * one shard picked at random, so N shards take N times the writes. Reading adds the shards up,
+ * which costs N small document reads.
+ *
+ * Shard 0 is the base document itself and the others live under it:
+ *
+ *   rollups/all, rollups/all/shards/1, ..., rollups/all/shards/9
+ *
+ * so totals written before sharding (all in the base document) are still counted, and a counter
+ * with one shard is just the plain document. The shard count may go up later but never down,
+ * because reads only look at shards 0..N-1.
+ */
+public class ShardedCounter {
+
+    static final String SHARDS = "shards";
+
+    private final DocumentReference base;
+    private final int shards;
+
+    public ShardedCounter(DocumentReference base, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("A counter needs at least one shard");
+        }
+        this.base = base;
+        this.shards = shards;
+    }
+
+    public DocumentReference shard(int index) {
+        return index == 0 ? base : base.collection(SHARDS).document(String.valueOf(index));
+    }
+
+    // Where the next write goes. Random rather than round robin, so separate app instances spread out too.
+    public DocumentReference randomShard() {
+        return shard(shards == 1 ? 0 : ThreadLocalRandom.current().nextInt(shards));
+    }
+
+    public List<DocumentReference> shardRefs() {
+        List<DocumentReference> refs = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            refs.add(shard(i));
+        }
+        return refs;
+    }
+
+    // increments holds FieldValue.increment values, keyed by field name
+    public void increment(Transaction transaction, Map<String, Object> increments) {
+        transaction.set(randomShard(), increments, SetOptions.merge());
+    }
+
+    public void increment(WriteBatch batch, Map<String, Object> increments) {
+        batch.set(randomShard(), increments, SetOptions.merge());
+    }
+
+    // All shards in one round trip; missing shards come back as non-existent snapshots
+    public List<DocumentSnapshot> readShards() throws ExecutionException, InterruptedException {
+        return Resilience.FIRESTORE.read(() -> base.getFirestore().getAll(shardRefs().toArray(new DocumentReference[0])).get());
+    }
+
+    public double sum(String field) throws ExecutionException, InterruptedException {
+        return sum(readShards(), field);
+    }
+
+    static double sum(List<DocumentSnapshot> shards, String field) {
+        double total = 0;
+        for (DocumentSnapshot shard : shards) {
+            Double value = shard.exists() ? shard.getDouble(field) : null;
+            if (value != null) {
+                total += value;
+            }
+        }
+        return total;
+    }
+
+    // The shards under a base document that actually exist, for clearing a counter out.
+    // Lists what is there, so shards from a bigger shard count are found as well.
+    static List<DocumentReference> extraShards(DocumentReference base) {
+        List<DocumentReference> found = new ArrayList<>();
+        base.collection(SHARDS).listDocuments().forEach(found::add);
+        return found;
+    }
+
+    // --- Benchmark ---
+
+    public static class BenchmarkResult {
+        public final int shards;
+        public final int submits;
+        public final int approvals;
+        public final long retries;
+        public final long failures;
+        public final double submitP95, approveP95;
+        public final int seconds;
+        public final boolean totalsMatch;
+
+        BenchmarkResult(int shards, LoadGenerator.LatencyRecorder submit, LoadGenerator.LatencyRecorder approve,
+                        long retries, long failures, int seconds, boolean totalsMatch) {
+            this.shards = shards;
+            this.submits = submit.count();
+            this.approvals = approve.count();
+            this.submitP95 = submit.percentileMillis(95);
+            this.approveP95 = approve.percentileMillis(95);
+            this.retries = retries;
+            this.failures = failures;
+            this.seconds = seconds;
+            this.totalsMatch = totalsMatch;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%3d shard(s): %6.1f submits/s (p95 %.1f ms), %6.1f approvals/s (p95 %.1f ms), %d retries, %d failed, totals %s",
+                    shards, submits / (double) seconds, submitP95, approvals / (double) seconds, approveP95,
+                    retries, failures, totalsMatch ? "match" : "DO NOT MATCH");
+        }
+    }
+
+    /**
+     * Drivers submitting and managers approving at the same time, each in a transaction that
+     * updates a counter the way ExpenseService updates the "all" rollup. Works in its own
+     * "benchmarks" collection so the app's data and rollups are left alone.
+     */
+    static BenchmarkResult benchmark(Firestore db, int shards, int seconds, int submitters, int approvers)
+            throws InterruptedException, ExecutionException {
+        String run = "counter-" + shards + "-" + System.currentTimeMillis();
+        CollectionReference expenses = db.collection("benchmarks").document(run).collection("expenses");
+        ShardedCounter counter = new ShardedCounter(db.collection("benchmarks").document(run + "-total"), shards);
+
+        LoadGenerator.LatencyRecorder submitLatency = new LoadGenerator.LatencyRecorder();
+        LoadGenerator.LatencyRecorder approveLatency = new LoadGenerator.LatencyRecorder();
+        AtomicLong attempts = new AtomicLong();
+        AtomicLong transactions = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong expectedPending = new AtomicLong();
+        // Pending expenses the managers can pick from
+        Deque<DocumentReference> pending = new ConcurrentLinkedDeque<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < submitters; i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        DocumentReference ref = expenses.document();
+                        long start = System.nanoTime();
+                        try {
+                            db.runTransaction(transaction -> {
+                                attempts.incrementAndGet();
+                                transaction.get(ref).get();
+                                transaction.create(ref, Map.of("status", "Pending", "amount", 25.0));
+                                counter.increment(transaction, Map.of("count", FieldValue.increment(1),
+                                        "amount", FieldValue.increment(25.0), "pending", FieldValue.increment(1)));
+                                return null;
+                            }).get();
+                            transactions.incrementAndGet();
+                            expectedPending.incrementAndGet();
+                            pending.add(ref);
+                            submitLatency.record(System.nanoTime() - start);
+                        } catch (ExecutionException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < approvers; i++) {
+                executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        DocumentReference ref = pending.poll();
+                        if (ref == null) {
+                            Thread.sleep(10);
+                            continue;
+                        }
+                        long start = System.nanoTime();
+                        try {
+                            db.runTransaction(transaction -> {
+                                attempts.incrementAndGet();
+                                transaction.get(ref).get();
+                                transaction.update(ref, "status", "Approved");
+                                counter.increment(transaction, Map.of("pending", FieldValue.increment(-1)));
+                                return null;
+                            }).get();
+                            transactions.incrementAndGet();
+                            expectedPending.decrementAndGet();
+                            approveLatency.record(System.nanoTime() - start);
+                        } catch (ExecutionException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        // The summed read has to agree with what actually committed
+        List<DocumentSnapshot> totals = counter.readShards();
+        boolean match = (long) sum(totals, "count") == submitLatency.count()
+                && (long) sum(totals, "pending") == expectedPending.get();
+        return new BenchmarkResult(shards, submitLatency, approveLatency,
+                attempts.get() - transactions.get() - failures.get(), failures.get(), seconds, match);
+    }
+
+    // Example: --shards=1,5,10 --seconds=30 --submitters=50 --approvers=5
+    // Meant for the Firestore emulator (FIRESTORE_EMULATOR_HOST) or a throwaway project. The emulator
+    // shows the lock contention on a hot document but not the production per-document write limit,
+    // so real numbers for one shard are worse than what it prints.
+    public static void main(String[] args) throws Exception {
+        List<Integer> shardCounts = List.of(1, 10);
+        int seconds = 30;
+        int submitters = 50;
+        int approvers = 5;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "shards" -> shardCounts = Arrays.stream(value.split(",")).map(String::trim).map(Integer::parseInt).toList();
+                case "seconds" -> seconds = Integer.parseInt(value);
+                case "submitters" -> submitters = Integer.parseInt(value);
+                case "approvers" -> approvers = Integer.parseInt(value);
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+
+        FirebaseService.initialize();
+        Firestore db = FirestoreClient.getFirestore();
+        for (int shards : shardCounts) {
+            System.out.println(benchmark(db, shards, seconds, submitters, approvers));
+        }
+        System.exit(0);
+    }
+}
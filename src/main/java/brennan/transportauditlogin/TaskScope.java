@@ -0,0 +1,207 @@
+package brennan.transportauditlogin;
+
+import javafx.application.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * The background tasks of one screen. When the screen goes away (logout, window closed) the scope
+ * is closed: running tasks are interrupted, queued ones never start, and no result or error
+ * callback of this scope reaches the screen anymore, even if the thread finishes a moment later.
+ *
+ * Tasks marked with write() are the exception. They change data (a submit, an approval, an
+ * import), and an interrupt could land after Firestore committed but before the audit log entry or
+ * checkpoint is written. Closing the scope leaves them running to the end; only their callbacks
+ * are dropped. Long ones can still see isCancelled() and stop at a point where that is safe.
+ *
+ * Usage:
+ *   tasks.task("history-page", Resource.FIRESTORE)
+ *        .onSuccess(page -> myTrips.addAll(page.items))
+ *        .onFailure(e -> showAlert(...))
+ *        .start(progress -> expenses.list(filter, 50, token));
+ *
+ * The callbacks run on the JavaFX thread. The work runs on a virtual thread (see BackgroundTasks).
+ */
+public class TaskScope implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskScope.class);
+
+    private final String name;
+    private final Set<Task<?>> active = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public TaskScope(String name) {
+        this.name = name;
+    }
+
+    public <T> Task<T> task(String taskName, BackgroundTasks.Resource resource) {
+        return new Task<>(taskName, resource);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int activeCount() {
+        return active.size();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int stopped = 0;
+        int finishing = 0;
+        for (Task<?> task : active) {
+            if (task.write) {
+                finishing++;
+                continue;
+            }
+            task.cancel();
+            stopped++;
+        }
+        logger.info("Closed task scope {} ({} tasks cancelled, {} writes left to finish). Tasks: {}",
+                name, stopped, finishing, BackgroundTasks.describe());
+    }
+
+    // Runs on the FX thread unless the scope (or the task) has been cancelled in the meantime
+    private void deliver(Task<?> task, Runnable callback) {
+        Platform.runLater(() -> {
+            if (!closed && !task.cancelled) {
+                callback.run();
+            }
+        });
+    }
+
+    public class Task<T> implements BackgroundTasks.Progress {
+
+        private final String taskName;
+        private final BackgroundTasks.Resource resource;
+        private Consumer<T> onSuccess = ignored -> { };
+        private Consumer<Throwable> onFailure;
+        private Consumer<String> onProgress;
+        private final AtomicReference<String> pendingProgress = new AtomicReference<>();
+        private volatile boolean cancelled;
+        private volatile Thread thread;
+        private boolean write;
+
+        private Task(String taskName, BackgroundTasks.Resource resource) {
+            this.taskName = taskName;
+            this.resource = resource;
+        }
+
+        public Task<T> onSuccess(Consumer<T> callback) {
+            this.onSuccess = callback;
+            return this;
+        }
+
+        // Without one, failures are only logged
+        public Task<T> onFailure(Consumer<Throwable> callback) {
+            this.onFailure = callback;
+            return this;
+        }
+
+        public Task<T> onProgress(Consumer<String> callback) {
+            this.onProgress = callback;
+            return this;
+        }
+
+        // Changes data: once started it is never interrupted, not even when the scope closes
+        public Task<T> write() {
+            this.write = true;
+            return this;
+        }
+
+        public Task<T> start(BackgroundTasks.Work<T> work) {
+            if (closed) {
+                cancelled = true;
+                return this;
+            }
+            active.add(this);
+            BackgroundTasks.queued.incrementAndGet();
+            BackgroundTasks.executor().execute(() -> run(work));
+            if (closed && !write) {
+                // The scope was closed between the check above and the submit
+                cancel();
+            }
+            return this;
+        }
+
+        private void run(BackgroundTasks.Work<T> work) {
+            thread = Thread.currentThread();
+            boolean acquired = false;
+            try {
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                resource.permits.acquire();
+                acquired = true;
+                BackgroundTasks.queued.decrementAndGet();
+                BackgroundTasks.running.incrementAndGet();
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                T result = work.run(this);
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                BackgroundTasks.completed.incrementAndGet();
+                deliver(this, () -> onSuccess.accept(result));
+            } catch (InterruptedException | CancellationException e) {
+                BackgroundTasks.cancelled.incrementAndGet();
+                logger.debug("Task {}/{} cancelled", name, taskName);
+            } catch (Exception e) {
+                if (cancelled) {
+                    // Interrupting Firestore or HTTP calls usually shows up as some other exception
+                    BackgroundTasks.cancelled.incrementAndGet();
+                } else {
+                    BackgroundTasks.failed.incrementAndGet();
+                    logger.error("Task {}/{} failed", name, taskName, e);
+                    if (onFailure != null) {
+                        deliver(this, () -> onFailure.accept(e));
+                    }
+                }
+            } finally {
+                if (acquired) {
+                    BackgroundTasks.running.decrementAndGet();
+                    resource.permits.release();
+                } else {
+                    BackgroundTasks.queued.decrementAndGet();
+                }
+                active.remove(this);
+            }
+        }
+
+        public void cancel() {
+            cancelled = true;
+            Thread running = thread;
+            if (running != null) {
+                running.interrupt();
+            }
+        }
+
+        // Only the newest message is shown; a burst of updates costs one trip to the FX thread
+        @Override
+        public void update(String message) {
+            if (onProgress == null) {
+                return;
+            }
+            if (pendingProgress.getAndSet(message) == null) {
+                deliver(this, () -> onProgress.accept(pendingProgress.getAndSet(null)));
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled || closed || Thread.currentThread().isInterrupted();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package brennan.transportauditlogin;
+
+import javafx.scene.image.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Small receipt pictures for the manager's table.
+ *
+ * Making a thumbnail means reading a full-size photo, so it is never done on the FX thread: a
+ * table cell asks for one and gets it later through the future. Finished thumbnails are kept
+ * in two places:
+ *  - memory: an LRU of the last few hundred, so scrolling back up is instant
+ *  - disk: small PNGs in the data folder, so the next session doesn't decode the photos again.
+ *    The folder is kept under a size limit by deleting the least recently used files.
+ *
+ * The background pool takes the newest request first. When a manager scrolls quickly, the rows
+ * now on screen are done before the ones that already scrolled past.
+ */
+public class ThumbnailCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    public static final int HEIGHT = 48;
+    private static final int WORKERS = 2;
+
+    private final ReceiptStore store;
+    private final Path dir;
+    private final int memoryEntries;
+    private final long diskBytes;
+    private final AtomicLong diskUsed = new AtomicLong();
+
+    private final LinkedHashMap<String, Image> memory;
+    // Thumbnails being made right now, so ten cells showing the same receipt share one job
+    private final Map<String, CompletableFuture<Image>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+
+    private long hits;
+    private long diskHits;
+    private long generated;
+
+    public ThumbnailCache(ReceiptStore store, Path dir, int memoryEntries, long diskBytes) {
+        this.store = store;
+        this.dir = dir;
+        this.memoryEntries = memoryEntries;
+        this.diskBytes = diskBytes;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+                return size() > ThumbnailCache.this.memoryEntries;
+            }
+        };
+        // A stack instead of a queue: the most recent request (what is on screen now) goes first
+        BlockingDeque<Runnable> newestFirst = new LinkedBlockingDeque<>() {
+            @Override
+            public boolean offer(Runnable task) {
+                return offerFirst(task);
+            }
+        };
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS, newestFirst, task -> {
+            Thread thread = new Thread(task, "thumbnail-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.diskUsed.set(folderSize());
+    }
+
+    public ThumbnailCache(ReceiptStore store) {
+        this(store, AppPaths.dataDir("thumbnails"), 300, 50L * 1024 * 1024);
+    }
+
+    // Only looks in memory, so it's safe to call while a cell is being drawn
+    public synchronized Image getIfLoaded(String receiptId) {
+        Image image = memory.get(receiptId);
+        if (image != null) {
+            hits++;
+        }
+        return image;
+    }
+
+    public CompletableFuture<Image> load(String receiptId) {
+        Image loaded = getIfLoaded(receiptId);
+        if (loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        CompletableFuture<Image> future = inFlight.computeIfAbsent(receiptId,
+                id -> CompletableFuture.supplyAsync(() -> build(id), workers));
+        // Added after the future is in the map: a build that already finished would otherwise run
+        // this inside computeIfAbsent, before the future was stored, and it would never be removed.
+        // Only this future is removed, never a newer one for the same receipt.
+        future.whenComplete((image, error) -> inFlight.remove(receiptId, future));
+        return future;
+    }
+
+    // Stops the background threads; thumbnails still being made are dropped
+    public void close() {
+        workers.shutdownNow();
+        logger.info(describe());
+    }
+
+    // Drops the in-memory pictures (the files on disk stay)
+    public synchronized void clearMemory() {
+        memory.clear();
+    }
+
+    public synchronized String describe() {
+        return String.format(Locale.ROOT, "thumbnails: %d in memory, %d memory hits, %d from disk, %d made, %.1f MB on disk",
+                memory.size(), hits, diskHits, generated, diskUsed.get() / (1024.0 * 1024.0));
+    }
+
+    private Image build(String receiptId) {
+        try {
+            Path file = dir.resolve(receiptId + ".png");
+            byte[] png;
+            if (Files.exists(file)) {
+                png = Files.readAllBytes(file);
+                // Touching the file is what keeps it from being the next one evicted
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                synchronized (this) {
+                    diskHits++;
+                }
+            } else {
+                png = render(receiptId);
+                save(file, png);
+                synchronized (this) {
+                    generated++;
+                }
+            }
+            Image image = new Image(new ByteArrayInputStream(png));
+            synchronized (this) {
+                memory.put(receiptId, image);
+            }
+            return image;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] render(String receiptId) throws IOException {
+        BufferedImage original;
+        try (InputStream in = store.open(receiptId)) {
+            original = ImageIO.read(in);
+        }
+        if (original == null) {
+            throw new IOException("Receipt " + receiptId + " is not a readable image");
+        }
+        int width = Math.max(1, original.getWidth() * HEIGHT / Math.max(1, original.getHeight()));
+        BufferedImage small = new BufferedImage(width, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(original, 0, 0, width, HEIGHT, null);
+        } finally {
+            g.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(small, "png", out);
+        return out.toByteArray();
+    }
+
+    private void save(Path file, byte[] png) {
+        try {
+            Path temp = Files.createTempFile(dir, "thumb-", ".tmp");
+            Files.write(temp, png);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskUsed.addAndGet(png.length) > diskBytes) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            // Only the disk copy is lost; the thumbnail still shows
+            logger.warn("Could not save thumbnail {}", file, e);
+        }
+    }
+
+    // Deletes the least recently used files until the folder is at 80% of its limit
+    private synchronized void trimDisk() throws IOException {
+        if (diskUsed.get() <= diskBytes) {
+            return; // another thread already trimmed
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(path -> path.toString().endsWith(".png")).toList();
+        }
+        Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files) {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        List<Path> oldestFirst = new ArrayList<>(files);
+        oldestFirst.sort(Comparator.comparing(modified::get));
+
+        long used = folderSize();
+        long target = diskBytes * 8 / 10;
+        int deleted = 0;
+        for (Path file : oldestFirst) {
+            if (used <= target) {
+                break;
+            }
+            long size = Files.size(file);
+            Files.deleteIfExists(file);
+            used -= size;
+            deleted++;
+        }
+        diskUsed.set(used);
+        logger.info("Thumbnail folder over {} MB, removed {} old thumbnails", diskBytes / (1024 * 1024), deleted);
+    }
+
+    private long folderSize() {
+        try (Stream<Path> listing = Files.list(dir)) {
+            return listing.filter(path -> path.toString().endsWith(".png")).mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
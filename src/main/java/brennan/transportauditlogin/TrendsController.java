@@ -0,0 +1,136 @@
+package brennan.transportauditlogin;
+
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.scene.chart.CategoryAxis;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.StackedBarChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tooltip;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// The Trends window opened from the Manager Dashboard.
+// All the numbers come from the ExpenseCube the dashboard already filled, so changing
+// the measure or clicking into a month never goes back to Firestore.
+public class TrendsController {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrendsController.class);
+
+    @FXML private ComboBox<String> measureBox;
+    @FXML private ComboBox<String> splitBox;
+    @FXML private ComboBox<String> typeBox;
+    @FXML private Button backButton;
+    @FXML private StackedBarChart<String, Number> chart;
+    @FXML private CategoryAxis xAxis;
+    @FXML private NumberAxis yAxis;
+    @FXML private Label rangeLabel;
+
+    private ExpenseCube cube;
+    private ExpenseCube.Query query = new ExpenseCube.Query();
+    // Where we came from, so "Back" can go up one level
+    private final Deque<ExpenseCube.Query> drillStack = new ArrayDeque<>();
+
+    @FXML
+    public void initialize() {
+        measureBox.setItems(FXCollections.observableArrayList("Amount", "Count", "Mileage"));
+        measureBox.getSelectionModel().selectFirst();
+        splitBox.setItems(FXCollections.observableArrayList("None", "Type", "Status", "Driver"));
+        splitBox.getSelectionModel().selectFirst();
+        typeBox.setItems(FXCollections.observableArrayList("All", "Mileage", "Fuel", "Maintenance", "Tolls", "Parking", "Other"));
+        typeBox.getSelectionModel().selectFirst();
+
+        measureBox.setOnAction(ignored -> refresh());
+        splitBox.setOnAction(ignored -> refresh());
+        typeBox.setOnAction(ignored -> refresh());
+        backButton.setDisable(true);
+    }
+
+    // Called by the Manager Dashboard after loading the window
+    public void setCube(ExpenseCube cube) {
+        this.cube = cube;
+        query.granularity = ExpenseCube.Granularity.MONTH;
+        refresh();
+    }
+
+    private void refresh() {
+        if (cube == null) {
+            return;
+        }
+        query.measure = ExpenseCube.Measure.valueOf(measureBox.getValue().toUpperCase());
+        query.split = ExpenseCube.Dimension.valueOf(splitBox.getValue().equals("None") ? "NONE" : splitBox.getValue().toUpperCase());
+        query.type = typeBox.getValue();
+
+        long start = System.nanoTime();
+        ExpenseCube.Result result = cube.aggregate(query);
+        logger.debug("Trend query took {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        chart.getData().clear();
+        // Setting the categories up front keeps empty buckets on the axis and in order
+        xAxis.setCategories(FXCollections.observableArrayList(result.buckets));
+        yAxis.setLabel(measureBox.getValue());
+
+        for (int s = 0; s < result.series.size(); s++) {
+            XYChart.Series<String, Number> series = new XYChart.Series<>();
+            series.setName(result.series.get(s));
+            for (int b = 0; b < result.buckets.size(); b++) {
+                series.getData().add(new XYChart.Data<>(result.buckets.get(b), result.values[s][b]));
+            }
+            chart.getData().add(series);
+        }
+
+        // The bar nodes only exist once the series are on the chart
+        for (XYChart.Series<String, Number> series : chart.getData()) {
+            for (XYChart.Data<String, Number> data : series.getData()) {
+                int bucket = result.buckets.indexOf(data.getXValue());
+                Tooltip.install(data.getNode(), new Tooltip(series.getName() + ": " + format(data.getYValue().doubleValue())));
+                data.getNode().setOnMouseClicked(ignored -> drillDown(result, bucket));
+            }
+        }
+
+        rangeLabel.setText(describeRange(result));
+        backButton.setDisable(drillStack.isEmpty());
+    }
+
+    // Month -> its weeks, week -> its days. A day is as far down as it goes.
+    private void drillDown(ExpenseCube.Result result, int bucket) {
+        if (query.granularity == ExpenseCube.Granularity.DAY) {
+            return;
+        }
+        drillStack.push(query.copy());
+        query.from = result.bucketStart.get(bucket);
+        query.to = result.bucketEnd.get(bucket);
+        query.granularity = query.granularity == ExpenseCube.Granularity.MONTH
+                ? ExpenseCube.Granularity.WEEK
+                : ExpenseCube.Granularity.DAY;
+        refresh();
+    }
+
+    @FXML
+    private void drillUp() {
+        if (drillStack.isEmpty()) {
+            return;
+        }
+        query = drillStack.pop();
+        refresh();
+    }
+
+    private String format(double value) {
+        return query.measure == ExpenseCube.Measure.AMOUNT ? String.format("$%,.2f", value)
+                : query.measure == ExpenseCube.Measure.MILEAGE ? String.format("%,.1f mi", value)
+                : String.format("%,.0f", value);
+    }
+
+    private static String describeRange(ExpenseCube.Result result) {
+        if (result.buckets.isEmpty()) {
+            return "No expenses";
+        }
+        return result.bucketStart.get(0) + " to " + result.bucketEnd.get(result.bucketEnd.size() - 1);
+    }
+}
@@ -0,0 +1,37 @@
+package brennan.transportauditlogin;
+
+// A document in the "users" collection: the extra details Firebase Auth doesn't keep for us (mainly the role)
+public class UserProfile {
+
+    private final String uid;
+    private final String username;
+    private final String email;
+    private final String role; // "Manager" or "Driver"
+
+    public UserProfile(String uid, String username, String email, String role) {
+        this.uid = uid;
+        this.username = username;
+        this.email = email;
+        this.role = role;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public boolean isManager() {
+        return "Manager".equalsIgnoreCase(role);
+    }
+}
@@ -0,0 +1,30 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hand written conversion between UserProfile and its Firestore document (same idea as ExpenseMapper)
+public final class UserProfileMapper {
+
+    private UserProfileMapper() {
+    }
+
+    // Returns null if there is no profile document
+    public static UserProfile fromDocument(DocumentSnapshot doc) {
+        if (!doc.exists()) {
+            return null;
+        }
+        return new UserProfile(doc.getId(), doc.getString("username"), doc.getString("email"),
+                ExpenseMapper.shared(doc.getString("role")));
+    }
+
+    public static Map<String, Object> toMap(UserProfile profile) {
+        Map<String, Object> data = new HashMap<>(4);
+        data.put("username", profile.getUsername());
+        data.put("email", profile.getEmail());
+        data.put("role", profile.getRole());
+        return data;
+    }
+}
@@ -0,0 +1,509 @@
+package brennan.transportauditlogin;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.auth.EmailIdentifier;
+import com.google.firebase.auth.ErrorInfo;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.ImportUserRecord;
+import com.google.firebase.auth.UidIdentifier;
+import com.google.firebase.auth.UserIdentifier;
+import com.google.firebase.auth.UserImportResult;
+import com.google.firebase.auth.UserRecord;
+import com.google.firebase.cloud.FirestoreClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Creates accounts for a whole roster at once, instead of one Register form per driver.
+ *
+ * The roster is a CSV with Email,Username,Role (Role is Driver or Manager, empty means Driver).
+ * Rows go to Firebase Auth with importUsers, up to 1000 per call, then their "users" profiles
+ * are written with batched writes of up to 500. A few batches run at the same time and the Auth
+ * calls go through a rate limiter so a big roster doesn't run into Firebase's quotas.
+ *
+ * Nobody gets a password in a spreadsheet: each new account gets a "set your password" link,
+ * which goes into the results file (one line per roster row, with what happened to it).
+ * That file should be handled like a password list and deleted once the links are sent.
+ *
+ * It can be stopped and run again. The emails already done are kept in a checkpoint file next
+ * to the results, so the second run picks up where the first stopped, and the results file is
+ * merged with the one before: a row done earlier keeps its link. Existing accounts are never
+ * touched. Before importing, every uid and email is looked up, and an email that already has an
+ * account is reported instead of imported. The uid is worked out from the email, so an account
+ * this tool made in a run that stopped halfway is recognised and just finished off. Profiles
+ * are only created, never overwritten.
+ *
+ * Against the emulators: set FIREBASE_AUTH_EMULATOR_HOST and FIRESTORE_EMULATOR_HOST before
+ * starting, the Admin SDK picks them up by itself.
+ */
+public class UserProvisioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserProvisioner.class);
+
+    // Firebase Auth imports at most 1000 users per call, Firestore batches hold at most 500 writes
+    private static final int IMPORT_BATCH = 1_000;
+    private static final int WRITE_BATCH = 500;
+    // getUsers takes at most 100 identifiers per call, and each row is looked up by uid and by email
+    private static final int LOOKUP_ROWS = 50;
+    private static final long MAX_RATE_WAIT_SECONDS = 60;
+    private static final Pattern EMAIL = Pattern.compile("^[^@\\s]+@[^@\\s]+\\.[^@\\s]+$");
+    public static final String RESULTS_HEADER = "Line,Email,Username,Role,Uid,Status,Detail,ResetLink";
+
+    private final FirebaseAuth auth;
+    private final Firestore db;
+    private final Settings settings;
+    private final RateLimiter authLimiter;
+
+    // Everything that can be tuned from the command line
+    public static class Settings {
+        public int concurrency = 4;
+        // Users per importUsers call; smaller batches mean less to redo when one fails
+        public int batchSize = IMPORT_BATCH;
+        // Auth calls (imports and reset links) per second
+        public double authCallsPerSecond = 10;
+        public boolean resetLinks = true;
+    }
+
+    public enum Status { CREATED, SKIPPED, INVALID, FAILED }
+
+    // One roster line and what happened to it
+    public static class Row {
+        public final int line;
+        public final String email;
+        public final String username;
+        public final String role;
+        public String uid;
+        public Status status;
+        public String detail = "";
+        public String resetLink = "";
+
+        Row(int line, String email, String username, String role) {
+            this.line = line;
+            this.email = email;
+            this.username = username;
+            this.role = role;
+        }
+    }
+
+    public static class Result {
+        public final List<Row> rows = new ArrayList<>();
+        public Path resultsFile;
+
+        public long count(Status status) {
+            return rows.stream().filter(row -> row.status == status).count();
+        }
+
+        public String describe() {
+            return String.format(Locale.ROOT, "%d rows: %d created, %d already done, %d invalid, %d failed",
+                    rows.size(), count(Status.CREATED), count(Status.SKIPPED), count(Status.INVALID), count(Status.FAILED));
+        }
+    }
+
+    public UserProvisioner(FirebaseAuth auth, Firestore db, Settings settings) {
+        this.auth = auth;
+        this.db = db;
+        this.settings = settings;
+        this.authLimiter = new RateLimiter(settings.authCallsPerSecond, (int) Math.max(1, settings.authCallsPerSecond));
+    }
+
+    // The same email always gets the same uid, which is what makes a re-run safe
+    static String uidFor(String email) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(email.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+            return "roster-" + HexFormat.of().formatHex(hash, 0, 14);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Where the results and checkpoint of a roster go: provisioning/ in the data folder
+    public static Path resultsFileFor(Path roster) {
+        return AppPaths.dataDir("provisioning").resolve(baseName(roster) + "-results.csv");
+    }
+
+    static Path checkpointFileFor(Path roster) {
+        return AppPaths.dataDir("provisioning").resolve(baseName(roster) + ".checkpoint");
+    }
+
+    private static String baseName(Path roster) {
+        return roster.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+    }
+
+    // --- Running ---
+
+    public Result provision(Path roster, BackgroundTasks.Progress progress) throws IOException, InterruptedException {
+        Result result = new Result();
+        result.rows.addAll(readRoster(roster));
+
+        Path checkpoint = checkpointFileFor(roster);
+        Set<String> done = readCheckpoint(checkpoint);
+        List<Row> todo = new ArrayList<>();
+        for (Row row : result.rows) {
+            if (row.status == Status.INVALID) {
+                continue;
+            }
+            row.uid = uidFor(row.email);
+            if (done.contains(row.email.toLowerCase(Locale.ROOT))) {
+                row.status = Status.SKIPPED;
+                row.detail = "already provisioned by an earlier run";
+            } else {
+                todo.add(row);
+            }
+        }
+        logger.info("Provisioning {}: {} rows to create, {} already done", roster.getFileName(), todo.size(), done.size());
+
+        AtomicInteger finished = new AtomicInteger();
+        try (BufferedWriter checkpointWriter = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+             ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, settings.concurrency))) {
+            List<Future<?>> batches = new ArrayList<>();
+            int batchSize = Math.max(1, Math.min(settings.batchSize, IMPORT_BATCH));
+            for (int i = 0; i < todo.size(); i += batchSize) {
+                List<Row> batch = todo.subList(i, Math.min(todo.size(), i + batchSize));
+                batches.add(workers.submit(() -> {
+                    if (progress.isCancelled()) {
+                        for (Row row : batch) {
+                            fail(row, "cancelled before this batch started");
+                        }
+                        return null;
+                    }
+                    provisionBatch(batch);
+                    recordDone(batch, checkpointWriter);
+                    int total = finished.addAndGet(batch.size());
+                    progress.update(total + " of " + todo.size() + " accounts processed...");
+                    return null;
+                }));
+            }
+            for (Future<?> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    // Only a checkpoint write can get here, the rows themselves record their own failures
+                    logger.warn("Provisioning batch failed", e.getCause());
+                }
+            }
+        }
+
+        result.resultsFile = resultsFileFor(roster);
+        keepEarlierLinks(result, result.resultsFile);
+        writeResults(result, result.resultsFile);
+        logger.info("Provisioning {} done: {}", roster.getFileName(), result.describe());
+        return result;
+    }
+
+    private void provisionBatch(List<Row> batch) throws InterruptedException {
+        // 1. Which of these already have an account. Only ours (same uid and email) from a run that
+        //    stopped halfway are carried on with; anyone else's account is left alone.
+        Set<Row> resumed = new HashSet<>();
+        if (!findExisting(batch, resumed)) {
+            return;
+        }
+
+        // 2. The new accounts, in one importUsers call
+        List<Row> toImport = batch.stream().filter(row -> row.status == null && !resumed.contains(row)).toList();
+        List<ImportUserRecord> records = new ArrayList<>(toImport.size());
+        for (Row row : toImport) {
+            records.add(ImportUserRecord.builder()
+                    .setUid(row.uid)
+                    .setEmail(row.email)
+                    .setDisplayName(row.username)
+                    .setEmailVerified(false)
+                    .build());
+        }
+        if (!records.isEmpty()) {
+            if (!authLimiter.acquire(MAX_RATE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                toImport.forEach(row -> fail(row, "rate limited, run again to retry"));
+            } else {
+                try {
+                    UserImportResult imported = auth.importUsers(records);
+                    for (ErrorInfo error : imported.getErrors()) {
+                        fail(toImport.get(error.getIndex()), "account not created: " + error.getReason());
+                    }
+                } catch (FirebaseAuthException e) {
+                    toImport.forEach(row -> fail(row, "account not created: " + e.getMessage()));
+                }
+            }
+        }
+
+        // 3. The profiles with the roles, for the accounts that made it. Created only where there
+        //    is none yet, so a profile that was already saved (or edited since) stays as it is.
+        List<Row> created = batch.stream().filter(row -> row.status == null).toList();
+        for (int i = 0; i < created.size(); i += WRITE_BATCH) {
+            List<Row> chunk = created.subList(i, Math.min(created.size(), i + WRITE_BATCH));
+            try {
+                DocumentReference[] refs = chunk.stream().map(row -> db.collection("users").document(row.uid))
+                        .toArray(DocumentReference[]::new);
+                List<DocumentSnapshot> existing = db.getAll(refs).get();
+                WriteBatch writes = db.batch();
+                int toWrite = 0;
+                for (int j = 0; j < chunk.size(); j++) {
+                    Row row = chunk.get(j);
+                    if (existing.get(j).exists()) {
+                        row.detail = "kept the profile saved by an earlier run";
+                        continue;
+                    }
+                    UserProfile profile = new UserProfile(row.uid, row.username, row.email, row.role);
+                    writes.create(refs[j], UserProfileMapper.toMap(profile));
+                    toWrite++;
+                }
+                if (toWrite > 0) {
+                    writes.commit().get();
+                }
+            } catch (ExecutionException e) {
+                chunk.forEach(row -> fail(row, "account created but profile not saved, run again to retry: "
+                        + e.getCause().getMessage()));
+            }
+        }
+
+        // 4. A link for each new user to choose their own password
+        for (Row row : created) {
+            if (row.status != null) {
+                continue;
+            }
+            row.status = Status.CREATED;
+            if (!settings.resetLinks) {
+                continue;
+            }
+            if (!authLimiter.acquire(MAX_RATE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                row.detail = "no password link (rate limited), send a reset from the login screen";
+                continue;
+            }
+            try {
+                row.resetLink = auth.generatePasswordResetLink(row.email);
+            } catch (FirebaseAuthException e) {
+                row.detail = "no password link: " + e.getMessage();
+            }
+        }
+    }
+
+    // Looks every row up by uid and by email. Rows whose email belongs to someone else's account are
+    // marked FAILED, rows whose account this tool already made go into resumed. Returns false (with
+    // every row failed) if the lookup itself didn't work, since importing blind could overwrite.
+    private boolean findExisting(List<Row> batch, Set<Row> resumed) throws InterruptedException {
+        for (int i = 0; i < batch.size(); i += LOOKUP_ROWS) {
+            List<Row> chunk = batch.subList(i, Math.min(batch.size(), i + LOOKUP_ROWS));
+            List<UserIdentifier> identifiers = new ArrayList<>(chunk.size() * 2);
+            for (Row row : chunk) {
+                identifiers.add(new UidIdentifier(row.uid));
+                identifiers.add(new EmailIdentifier(row.email));
+            }
+            if (!authLimiter.acquire(MAX_RATE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                batch.forEach(row -> fail(row, "rate limited, run again to retry"));
+                return false;
+            }
+            Set<UserRecord> found;
+            try {
+                found = auth.getUsers(identifiers).getUsers();
+            } catch (FirebaseAuthException e) {
+                batch.forEach(row -> fail(row, "could not check for an existing account: " + e.getMessage()));
+                return false;
+            }
+            Map<String, UserRecord> byUid = new HashMap<>();
+            Map<String, UserRecord> byEmail = new HashMap<>();
+            for (UserRecord user : found) {
+                byUid.put(user.getUid(), user);
+                if (user.getEmail() != null) {
+                    byEmail.put(user.getEmail().toLowerCase(Locale.ROOT), user);
+                }
+            }
+            for (Row row : chunk) {
+                UserRecord sameUid = byUid.get(row.uid);
+                UserRecord sameEmail = byEmail.get(row.email.toLowerCase(Locale.ROOT));
+                if (sameUid == null && sameEmail == null) {
+                    continue;
+                }
+                if (sameUid != null && sameUid == sameEmail) {
+                    resumed.add(row);
+                } else if (sameEmail != null) {
+                    fail(row, "an account with this email already exists (uid " + sameEmail.getUid() + "), left as it is");
+                } else {
+                    fail(row, "uid " + row.uid + " is taken by another account, left as it is");
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void fail(Row row, String reason) {
+        row.status = Status.FAILED;
+        row.detail = reason;
+    }
+
+    // Only finished rows go in the checkpoint; failed ones are tried again next time
+    private static void recordDone(List<Row> batch, BufferedWriter checkpointWriter) throws IOException {
+        synchronized (checkpointWriter) {
+            for (Row row : batch) {
+                if (row.status == Status.CREATED) {
+                    checkpointWriter.write(row.email.toLowerCase(Locale.ROOT));
+                    checkpointWriter.newLine();
+                }
+            }
+            checkpointWriter.flush();
+        }
+    }
+
+    // --- Files ---
+
+    // Bad rows come back as INVALID with the reason, so one typo doesn't stop the whole roster
+    static List<Row> readRoster(Path roster) throws IOException {
+        List<Row> rows = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(roster, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.toLowerCase(Locale.ROOT).startsWith("email,"))) {
+                    continue;
+                }
+                List<String> fields = ExpenseCsv.split(line);
+                String email = fields.get(0).trim();
+                String username = fields.size() > 1 ? fields.get(1).trim() : "";
+                String role = fields.size() > 2 && !fields.get(2).isBlank() ? fields.get(2).trim() : "Driver";
+                Row row = new Row(lineNumber, email, username, role);
+                rows.add(row);
+
+                String problem = null;
+                if (fields.size() > 3) {
+                    problem = "expected Email,Username,Role";
+                } else if (!EMAIL.matcher(email).matches()) {
+                    problem = "not a valid email";
+                } else if (username.isEmpty()) {
+                    problem = "username is empty";
+                } else if (!role.equals("Driver") && !role.equals("Manager")) {
+                    problem = "role must be Driver or Manager";
+                } else if (!seen.add(email.toLowerCase(Locale.ROOT))) {
+                    problem = "email is listed twice";
+                }
+                if (problem != null) {
+                    row.status = Status.INVALID;
+                    row.detail = problem;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static Set<String> readCheckpoint(Path checkpoint) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (Files.exists(checkpoint)) {
+            for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    done.add(line.trim());
+                }
+            }
+        }
+        return done;
+    }
+
+    // Rows this run skipped because an earlier run did them get that run's link and uid back from
+    // the results file it left, so running again doesn't lose links that weren't sent yet
+    static void keepEarlierLinks(Result result, Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Map<String, List<String>> earlier = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            List<String> fields = ExpenseCsv.split(line);
+            if (fields.size() == 8 && !line.equals(RESULTS_HEADER)) {
+                earlier.put(fields.get(1).toLowerCase(Locale.ROOT), fields);
+            }
+        }
+        for (Row row : result.rows) {
+            List<String> fields = row.status == Status.SKIPPED ? earlier.get(row.email.toLowerCase(Locale.ROOT)) : null;
+            if (fields != null && !fields.get(7).isEmpty()) {
+                row.resetLink = fields.get(7);
+                row.detail = "created by an earlier run";
+            }
+        }
+    }
+
+    // Written to a temp file and moved into place, like the payroll file
+    static void writeResults(Result result, Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "results-", ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(RESULTS_HEADER);
+                writer.newLine();
+                for (Row row : result.rows) {
+                    writer.write(String.join(",",
+                            Integer.toString(row.line),
+                            ExpenseCsv.escape(row.email),
+                            ExpenseCsv.escape(row.username),
+                            ExpenseCsv.escape(row.role),
+                            ExpenseCsv.escape(row.uid == null ? "" : row.uid),
+                            row.status == null ? Status.FAILED.name() : row.status.name(),
+                            ExpenseCsv.escape(row.detail),
+                            ExpenseCsv.escape(row.resetLink)));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // --- Command line ---
+
+    // Example: --roster=depot-7.csv --concurrency=4 --auth-rate=10 --batch=1000 --no-links
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        Path roster = null;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "roster" -> roster = Path.of(value);
+                case "concurrency" -> settings.concurrency = Integer.parseInt(value);
+                case "auth-rate" -> settings.authCallsPerSecond = Double.parseDouble(value);
+                case "batch" -> settings.batchSize = Integer.parseInt(value);
+                case "no-links" -> settings.resetLinks = false;
+                default -> {
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(2);
+                }
+            }
+        }
+        if (roster == null) {
+            System.err.println("Usage: UserProvisioner --roster=file.csv [--concurrency=4] [--auth-rate=10] [--batch=1000] [--no-links]");
+            System.exit(2);
+        }
+
+        FirebaseService.initialize();
+        UserProvisioner provisioner = new UserProvisioner(FirebaseAuth.getInstance(), FirestoreClient.getFirestore(), settings);
+        Result result = provisioner.provision(roster, new BackgroundTasks.Progress() {
+            @Override
+            public void update(String message) {
+                logger.info(message);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+        });
+        System.out.println(result.describe());
+        System.out.println("Results: " + result.resultsFile.toAbsolutePath());
+        System.exit(0);
+    }
+}
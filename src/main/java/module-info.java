@@ -28,6 +28,15 @@ module brennan.transportauditlogin {
     // For sending the password check
     requires java.net.http;
 
+    // Built in HTTP server for the headless REST API mode
+    requires jdk.httpserver;
+
+    // StAX parser for reading OpenStreetMap extracts (offline routing)
+    requires java.xml;
+
+    // ImageIO for making receipt thumbnails
+    requires java.desktop;
+
     // allows openpdf integration
     requires com.github.librepdf.openpdf;
 
@@ -0,0 +1,122 @@
+package brennan.transportauditlogin;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpenseArchiverTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void segmentRoundTrip() throws IOException {
+        Expense trip = new Expense("a1", "Bob", "2024-01-01", "Mileage", 0, 42.5, "Approved");
+        trip.setOrigin("40.7128,-74.0060");
+        trip.setDestination("40.7306,-73.9352");
+        trip.setRouteMiles(41.9);
+        Expense fuel = new Expense("a2", "Ann", "2024-01-03", "Fuel", 55.10, 0, "Rejected");
+        fuel.setReceiptId("r-77");
+        Expense noDriver = new Expense("a3", null, "2024-01-03", "Tolls", 3, 0, "Approved");
+
+        List<Expense> read = roundTrip(ExpenseArchiver.writeSegment(List.of(trip, fuel, noDriver)));
+
+        assertEquals(3, read.size());
+        assertSameExpense(trip, read.get(0), "a1");
+        assertSameExpense(fuel, read.get(1), "a2");
+        assertEquals("40.7128,-74.0060", read.get(0).getOrigin());
+        assertEquals("40.7306,-73.9352", read.get(0).getDestination());
+        assertEquals(41.9, read.get(0).getRouteMiles(), 1e-9);
+        assertNull(read.get(0).getReceiptId());
+        assertEquals("r-77", read.get(1).getReceiptId());
+        assertNull(read.get(1).getOrigin());
+        // Nulls in the text columns come back empty
+        assertEquals("", read.get(2).getEmployeeName());
+    }
+
+    @Test
+    void readsVersion1Segments() throws IOException {
+        // Version 1 was the same layout without the receipt column at the end
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(0x45584152);
+            out.writeInt(1);
+            out.writeInt(2);
+            String[] dictionary = {"", "Bob", "Fuel", "Approved", "Depot"};
+            out.writeInt(dictionary.length);
+            for (String value : dictionary) {
+                out.writeUTF(value);
+            }
+            out.writeUTF("v1-a");
+            out.writeUTF("v1-b");
+            int day = (int) LocalDate.parse("2023-02-01").toEpochDay();
+            out.writeInt(day);
+            out.writeInt(1);
+            int[][] columns = {{1, 1}, {2, 2}, {3, 3}, {4, 0}, {0, 4}};
+            for (int[] column : columns) {
+                for (int value : column) {
+                    out.writeInt(value);
+                }
+            }
+            for (double value : new double[]{10, 20, 0, 5, 0, 0}) {
+                out.writeDouble(value);
+            }
+        }
+
+        List<Expense> read = roundTrip(bytes.toByteArray());
+
+        assertEquals(2, read.size());
+        assertEquals("v1-a", read.get(0).getId());
+        assertEquals("2023-02-01", read.get(0).getDate());
+        assertEquals("2023-02-02", read.get(1).getDate());
+        assertEquals("Bob", read.get(1).getEmployeeName());
+        assertEquals("Fuel", read.get(1).getType());
+        assertEquals("Approved", read.get(1).getStatus());
+        assertEquals(20, read.get(1).getAmount(), 1e-9);
+        assertEquals(5, read.get(1).getMileage(), 1e-9);
+        assertEquals("Depot", read.get(0).getOrigin());
+        assertEquals("Depot", read.get(1).getDestination());
+        assertNull(read.get(0).getReceiptId());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        LocalArchiveStore store = new LocalArchiveStore(dir);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write("not an archive at all".getBytes(StandardCharsets.UTF_8));
+        }
+        store.put("junk.exa", bytes.toByteArray());
+        ExpenseArchiver archiver = new ExpenseArchiver(null, store);
+        assertThrows(IOException.class, () -> archiver.readSegment("junk.exa", ignored -> { }));
+    }
+
+    private List<Expense> roundTrip(byte[] segment) throws IOException {
+        LocalArchiveStore store = new LocalArchiveStore(dir);
+        store.put("test.exa", segment);
+        List<Expense> read = new ArrayList<>();
+        new ExpenseArchiver(null, store).readSegment("test.exa", read::add);
+        return read;
+    }
+
+    private static void assertSameExpense(Expense expected, Expense actual, String id) {
+        assertEquals(id, actual.getId());
+        assertEquals(expected.getEmployeeName(), actual.getEmployeeName());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getAmount(), actual.getAmount(), 1e-9);
+        assertEquals(expected.getMileage(), actual.getMileage(), 1e-9);
+        assertEquals(expected.getStatus(), actual.getStatus());
+    }
+}
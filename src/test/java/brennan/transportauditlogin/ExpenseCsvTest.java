@@ -0,0 +1,68 @@
+package brennan.transportauditlogin;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpenseCsvTest {
+
+    @Test
+    void parsesPlainRow() {
+        Expense expense = ExpenseCsv.parseRow("abc123,Bob Smith,2024-05-01,Fuel,45.50,0,Approved");
+        assertEquals("abc123", expense.getId());
+        assertEquals("Bob Smith", expense.getEmployeeName());
+        assertEquals("2024-05-01", expense.getDate());
+        assertEquals("Fuel", expense.getType());
+        assertEquals(45.50, expense.getAmount(), 1e-9);
+        assertEquals(0, expense.getMileage(), 1e-9);
+        assertEquals("Approved", expense.getStatus());
+    }
+
+    @Test
+    void fillsInDefaults() {
+        // No ID means Firestore picks one, no status means it still needs a decision
+        Expense expense = ExpenseCsv.parseRow(",Bob,2024-05-01,Mileage,$12.00,,");
+        assertNull(expense.getId());
+        assertEquals(12.0, expense.getAmount(), 1e-9);
+        assertEquals(0, expense.getMileage(), 1e-9);
+        assertEquals("Pending", expense.getStatus());
+    }
+
+    @Test
+    void parsesQuotedFields() {
+        Expense expense = ExpenseCsv.parseRow("1,\"Smith, \"\"Bobby\"\"\",2024-05-01,Tolls,3,0,Pending");
+        assertEquals("Smith, \"Bobby\"", expense.getEmployeeName());
+    }
+
+    @Test
+    void rejectsBadRows() {
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,2024-05-01,Fuel,3,0"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,,2024-05-01,Fuel,3,0,Pending"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,05/01/2024,Fuel,3,0,Pending"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,2024-05-01,Snacks,3,0,Pending"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,2024-05-01,Fuel,3,0,Maybe"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,2024-05-01,Fuel,-3,0,Pending"));
+        assertThrows(IllegalArgumentException.class, () -> ExpenseCsv.parseRow("1,Bob,2024-05-01,Fuel,lots,0,Pending"));
+    }
+
+    @Test
+    void escapesOnlyWhenNeeded() {
+        assertEquals("", ExpenseCsv.escape(null));
+        assertEquals("Bob", ExpenseCsv.escape("Bob"));
+        assertEquals("\"Smith, Bob\"", ExpenseCsv.escape("Smith, Bob"));
+        assertEquals("\"say \"\"hi\"\"\"", ExpenseCsv.escape("say \"hi\""));
+        assertEquals("\"two\nlines\"", ExpenseCsv.escape("two\nlines"));
+    }
+
+    @Test
+    void formattedRowParsesBack() {
+        Expense original = new Expense("x1", "Smith, \"Bob\"", "2024-05-01", "Parking", 7.25, 1.5, "Rejected");
+        Expense parsed = ExpenseCsv.parseRow(ExpenseCsv.formatRow(original));
+        assertEquals(original.getId(), parsed.getId());
+        assertEquals(original.getEmployeeName(), parsed.getEmployeeName());
+        assertEquals(original.getType(), parsed.getType());
+        assertEquals(original.getAmount(), parsed.getAmount(), 1e-9);
+        assertEquals(original.getMileage(), parsed.getMileage(), 1e-9);
+        assertEquals(original.getStatus(), parsed.getStatus());
+    }
+}
@@ -0,0 +1,147 @@
+package brennan.transportauditlogin;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalRouteProviderTest {
+
+    // A tiny town, about 111 m between neighbouring nodes:
+    //
+    //   main street     1 - 2 - 3         two way
+    //   one way loop    4 -> 5, back via 6   (4 -> 5 is oneway=yes)
+    //   reversed        7 <- 8, back via 9   (7 - 8 is oneway=-1, drawn 7 to 8)
+    //   footpath        1 - 3 straight across through 10, which cars can't use
+    private static final String OSM = """
+            <?xml version="1.0" encoding="UTF-8"?>
+            <osm version="0.6">
+              <node id="1" lat="0.0" lon="0.000"/>
+              <node id="2" lat="0.0" lon="0.001"/>
+              <node id="3" lat="0.0" lon="0.002"/>
+              <node id="4" lat="0.1" lon="0.000"/>
+              <node id="5" lat="0.1" lon="0.001"/>
+              <node id="6" lat="0.1005" lon="0.0005"/>
+              <node id="7" lat="0.2" lon="0.000"/>
+              <node id="8" lat="0.2" lon="0.001"/>
+              <node id="9" lat="0.2005" lon="0.0005"/>
+              <node id="10" lat="-0.0001" lon="0.001"/>
+              <node id="11" lat="5.0" lon="5.0"/>
+              <way id="100">
+                <nd ref="1"/><nd ref="2"/><nd ref="3"/>
+                <tag k="highway" v="residential"/>
+              </way>
+              <way id="101">
+                <nd ref="4"/><nd ref="5"/>
+                <tag k="highway" v="residential"/>
+                <tag k="oneway" v="yes"/>
+              </way>
+              <way id="102">
+                <nd ref="5"/><nd ref="6"/><nd ref="4"/>
+                <tag k="highway" v="service"/>
+              </way>
+              <way id="103">
+                <nd ref="7"/><nd ref="8"/>
+                <tag k="highway" v="residential"/>
+                <tag k="oneway" v="-1"/>
+              </way>
+              <way id="104">
+                <nd ref="8"/><nd ref="9"/><nd ref="7"/>
+                <tag k="highway" v="service"/>
+              </way>
+              <way id="105">
+                <nd ref="1"/><nd ref="10"/><nd ref="3"/>
+                <tag k="highway" v="footway"/>
+              </way>
+            </osm>
+            """;
+
+    private static final double STEP = RoadGraph.haversineMeters(0, 0, 0, 0.001);
+
+    @TempDir
+    static Path dir;
+
+    private static RoadGraph graph;
+
+    @BeforeAll
+    static void buildGraph() throws IOException {
+        Path extract = dir.resolve("town.osm");
+        Files.writeString(extract, OSM);
+        graph = RoadGraph.open(extract);
+    }
+
+    @Test
+    void keepsOnlyDrivableNodes() {
+        // 10 is only on the footpath and 11 on no road at all
+        assertEquals(9, graph.nodeCount());
+        // 4 both ways on the main street, 1 + 4 on each loop
+        assertEquals(14, graph.edgeCount());
+    }
+
+    @Test
+    void snapsToNearestNode() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        int node = router.nearestNode(0.0003, 0.0011);
+        assertEquals(0.0, graph.lat(node), 1e-9);
+        assertEquals(0.001, graph.lon(node), 1e-9);
+        // Far from every road
+        assertEquals(-1, router.nearestNode(45, 45));
+    }
+
+    @Test
+    void findsShortestPathAlongTheRoad() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        double meters = router.shortestPathMeters(router.nearestNode(0, 0), router.nearestNode(0, 0.002));
+        // Along the street, not over the shorter-looking footpath node
+        assertEquals(2 * STEP, meters, 0.5);
+    }
+
+    @Test
+    void followsOneway() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        int four = router.nearestNode(0.1, 0);
+        int five = router.nearestNode(0.1, 0.001);
+        assertEquals(STEP, router.shortestPathMeters(four, five), 0.5);
+        // Against the one way it has to go round through 6
+        double detour = RoadGraph.haversineMeters(0.1, 0.001, 0.1005, 0.0005) + RoadGraph.haversineMeters(0.1005, 0.0005, 0.1, 0);
+        assertEquals(detour, router.shortestPathMeters(five, four), 0.5);
+    }
+
+    @Test
+    void followsReversedOneway() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        int seven = router.nearestNode(0.2, 0);
+        int eight = router.nearestNode(0.2, 0.001);
+        assertEquals(STEP, router.shortestPathMeters(eight, seven), 0.5);
+        double detour = RoadGraph.haversineMeters(0.2, 0, 0.2005, 0.0005) + RoadGraph.haversineMeters(0.2005, 0.0005, 0.2, 0.001);
+        assertEquals(detour, router.shortestPathMeters(seven, eight), 0.5);
+    }
+
+    @Test
+    void noRouteBetweenUnconnectedRoads() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        assertNull(router.getRoute("0,0", "0.1,0"));
+    }
+
+    @Test
+    void rejectsTextThatIsNotAPosition() {
+        LocalRouteProvider router = new LocalRouteProvider(graph);
+        assertNull(router.getRoute("Depot", "0,0.002"));
+        assertNull(LocalRouteProvider.parseLatLng("91,0"));
+        assertArrayEquals(new double[]{40.7128, -74.006}, LocalRouteProvider.parseLatLng(" 40.7128 , -74.0060 "), 1e-9);
+    }
+
+    @Test
+    void cachedGraphLoadsTheSame() throws IOException {
+        Path cache = dir.resolve("town.osm.graph");
+        assertTrue(Files.exists(cache));
+        RoadGraph loaded = RoadGraph.load(cache);
+        assertEquals(graph.nodeCount(), loaded.nodeCount());
+        assertEquals(graph.edgeCount(), loaded.edgeCount());
+    }
+}
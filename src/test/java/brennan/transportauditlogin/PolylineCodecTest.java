@@ -0,0 +1,39 @@
+package brennan.transportauditlogin;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PolylineCodecTest {
+
+    @Test
+    void encodesGoogleExample() {
+        // The example from Google's polyline format documentation
+        double[] points = {38.5, -120.2, 40.7, -120.95, 43.252, -126.453};
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", PolylineCodec.encode(points));
+    }
+
+    @Test
+    void decodesWhatItEncodes() {
+        double[] points = {40.71278, -74.00597, 40.71301, -74.00412, -33.86785, 151.20732, 0, 0};
+        assertArrayEquals(points, PolylineCodec.decode(PolylineCodec.encode(points)), 1e-9);
+    }
+
+    @Test
+    void roundsToFiveDecimals() {
+        double[] decoded = PolylineCodec.decode(PolylineCodec.encode(new double[]{51.4778649, -0.0014753}));
+        assertArrayEquals(new double[]{51.47786, -0.00148}, decoded, 1e-9);
+    }
+
+    @Test
+    void emptyPolylineHasNoPoints() {
+        assertEquals("", PolylineCodec.encode(new double[0]));
+        assertEquals(0, PolylineCodec.decode("").length);
+    }
+
+    @Test
+    void rejectsCutOffPolyline() {
+        String encoded = PolylineCodec.encode(new double[]{38.5, -120.2});
+        assertThrows(IllegalArgumentException.class, () -> PolylineCodec.decode(encoded.substring(0, encoded.length() - 1)));
+    }
+}
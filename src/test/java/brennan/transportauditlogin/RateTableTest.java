@@ -0,0 +1,60 @@
+package brennan.transportauditlogin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateTableTest {
+
+    private final RateTable rates = new RateTable(List.of(
+            new RateTable.Rule("Mileage", "2024-01-01", 0.67, 0),
+            new RateTable.Rule("Mileage", "2023-01-01", 0.655, 0),
+            new RateTable.Rule("Mileage", "2024-07-01", 0.70, 100),
+            new RateTable.Rule("Parking", "2020-01-01", 0, 20)));
+
+    @Test
+    void picksRuleInForceOnTheDate() {
+        assertNull(rates.ruleFor("Mileage", "2022-12-31"));
+        assertEquals(0.655, rates.ruleFor("Mileage", "2023-01-01").perMile());
+        assertEquals(0.655, rates.ruleFor("Mileage", "2023-12-31").perMile());
+        assertEquals(0.67, rates.ruleFor("Mileage", "2024-01-01").perMile());
+        assertEquals(0.67, rates.ruleFor("Mileage", "2024-06-30").perMile());
+        assertEquals(0.70, rates.ruleFor("Mileage", "2030-01-01").perMile());
+    }
+
+    @Test
+    void noRuleForUnknownTypeOrDate() {
+        assertNull(rates.ruleFor("Fuel", "2024-05-01"));
+        assertNull(rates.ruleFor("Mileage", null));
+    }
+
+    @Test
+    void mileageRateFallsBackToDefault() {
+        assertEquals(RateTable.DEFAULT_MILEAGE_RATE, rates.mileageRate("2020-01-01"));
+        assertEquals(0.655, rates.mileageRate("2023-06-01"));
+    }
+
+    @Test
+    void reimbursesMilesAtTheRate() {
+        Expense trip = new Expense("1", "Bob", "2024-03-01", "Mileage", 0, 100, "Approved");
+        assertEquals(6700, rates.reimbursementCents(trip));
+    }
+
+    @Test
+    void capsTheAmount() {
+        Expense longTrip = new Expense("1", "Bob", "2024-08-01", "Mileage", 0, 1000, "Approved");
+        assertEquals(10000, rates.reimbursementCents(longTrip));
+        Expense parking = new Expense("2", "Bob", "2024-08-01", "Parking", 35.50, 0, "Approved");
+        assertEquals(2000, rates.reimbursementCents(parking));
+        Expense cheapParking = new Expense("3", "Bob", "2024-08-01", "Parking", 4.25, 0, "Approved");
+        assertEquals(425, rates.reimbursementCents(cheapParking));
+    }
+
+    @Test
+    void paysTheAmountWithoutARule() {
+        Expense fuel = new Expense("1", "Bob", "2024-08-01", "Fuel", 45.50, 0, "Approved");
+        assertEquals(4550, rates.reimbursementCents(fuel));
+    }
+}